@@ -67,6 +67,14 @@ public final class ElementsProperties {
     public static final String FIELDS_DECIMAL_FORMAT =
             "elements.fields.format.decimal";
 
+    public static final String OPTIONS_LABEL_SEARCH_MAX_RESULTS =
+            "options.label.search.max.results";
+
+    public static final String OGNL_EXPRESSION_CACHE_SIZE =
+            "ognl.expression.cache.size";
+    public static final String OGNL_FORMAT_CACHE_SIZE =
+            "ognl.format.cache.size";
+
     //**************************************************************************
     // Static fields, singleton initialization and retrieval
     //**************************************************************************
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.elements.blobs;
+
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A blob manager that stores identical contents only once. Blobs keep their random codes and their metadata
+ * files, laid out like in {@link HierarchicalBlobManager}; contents instead are stored under the
+ * <code>content</code> directory, named after their SHA-256 hash, which is computed while the upload is
+ * streamed to disk. Each content file has a reference count, and is deleted together with the last blob
+ * pointing to it.<br />
+ * Blobs saved by a HierarchicalBlobManager in the same directory remain readable and deletable.<br />
+ * Reference counts are protected by in-process locks, so a blobs directory must not be shared by
+ * several applications using this blob manager.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class ContentAddressedBlobManager extends HierarchicalBlobManager {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public final static String CONTENT_HASH_PROPERTY = "content.hash";
+    public final static String CONTENT_DIRECTORY = "content";
+
+    protected final File contentDir;
+    protected final Striped<Lock> contentLocks = Striped.lock(64);
+
+    //**************************************************************************
+    // Constructors and initialization
+    //**************************************************************************
+
+    public ContentAddressedBlobManager(File blobsDir, String metaFileNamePattern, String dataFileNamePattern) {
+        super(blobsDir, metaFileNamePattern, dataFileNamePattern);
+        contentDir = new File(blobsDir, CONTENT_DIRECTORY);
+    }
+
+    //**************************************************************************
+    // Methods
+    //**************************************************************************
+
+    @Override
+    protected File getDataFile(String code) {
+        String hash = getContentHash(code);
+        if(hash != null) {
+            return getContentFile(hash);
+        } else {
+            return super.getDataFile(code);
+        }
+    }
+
+    /**
+     * @return the hash of the contents of the given blob, or null if it has no metadata, or if it has been
+     * saved by a blob manager that doesn't deduplicate contents.
+     */
+    protected String getContentHash(String code) {
+        try {
+            return getMetaProperties(code).getProperty(CONTENT_HASH_PROPERTY);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read metadata of blob " + code, e);
+            return null;
+        }
+    }
+
+    protected File getContentFile(String hash) {
+        return new File(getContentSubdir(hash), hash + ".data");
+    }
+
+    protected File getReferencesFile(String hash) {
+        return new File(getContentSubdir(hash), hash + ".refs");
+    }
+
+    protected File getContentSubdir(String hash) {
+        return new File(new File(contentDir, hash.substring(0, 2)), hash.substring(2, 4));
+    }
+
+    @Override
+    public void save(Blob blob) throws IOException {
+        String code = blob.getCode();
+        ensureValidCode(code);
+        String previousHash = getContentHash(code);
+
+        //Hash the contents while writing them to a temporary file on the same file system
+        if(!contentDir.isDirectory()) {
+            contentDir.mkdirs();
+        }
+        File tempFile = File.createTempFile("upload-", ".tmp", contentDir);
+        String hash;
+        try {
+            HashingOutputStream out =
+                    new HashingOutputStream(Hashing.sha256(), new FileOutputStream(tempFile));
+            try {
+                blob.setSize(IOUtils.copyLarge(blob.getInputStream(), out));
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            hash = out.hash().toString();
+            addReference(hash, tempFile);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+
+        File metaFile = getMetaFile(code);
+        if(!metaFile.getParentFile().isDirectory()) {
+            metaFile.getParentFile().mkdirs();
+        }
+        Properties metaProperties = blob.getMetaProperties();
+        metaProperties.setProperty(CONTENT_HASH_PROPERTY, hash);
+        FileOutputStream out = new FileOutputStream(metaFile);
+        try {
+            metaProperties.store(out, "Blob code #" + code);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        if(metadataCache != null) {
+            metadataCache.put(code, metaProperties);
+        }
+        blob.dispose();
+
+        if(previousHash != null) {
+            removeReference(previousHash);
+        }
+    }
+
+    @Override
+    public boolean delete(Blob blob) {
+        String code = blob.getCode();
+        ensureValidCode(code);
+        String hash = getContentHash(code);
+        if(hash == null) {
+            return super.delete(blob);
+        }
+        boolean success;
+        try {
+            success = getMetaFile(code).delete();
+        } catch (Exception e) {
+            logger.warn("Cound not delete meta file", e);
+            success = false;
+        }
+        if(metadataCache != null) {
+            metadataCache.invalidate(code);
+        }
+        if(success) {
+            try {
+                removeReference(hash);
+            } catch (Exception e) {
+                logger.warn("Could not release content " + hash, e);
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Records a new reference to some content. If the content is not stored yet, it's taken from the given
+     * file, which is moved into place.
+     */
+    protected void addReference(String hash, File file) throws IOException {
+        Lock lock = contentLocks.get(hash);
+        lock.lock();
+        try {
+            File contentFile = getContentFile(hash);
+            int references = readReferences(hash);
+            if(!contentFile.exists()) {
+                FileUtils.moveFile(file, contentFile);
+                references = 0;
+            } else {
+                logger.debug("Content {} is already stored", hash);
+            }
+            writeReferences(hash, references + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a reference to some content, deleting it if it's not referenced anymore.
+     */
+    protected void removeReference(String hash) throws IOException {
+        Lock lock = contentLocks.get(hash);
+        lock.lock();
+        try {
+            int references = readReferences(hash) - 1;
+            if(references > 0) {
+                writeReferences(hash, references);
+            } else {
+                logger.debug("Deleting unreferenced content {}", hash);
+                FileUtils.deleteQuietly(getContentFile(hash));
+                FileUtils.deleteQuietly(getReferencesFile(hash));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected int readReferences(String hash) throws IOException {
+        File referencesFile = getReferencesFile(hash);
+        if(!referencesFile.exists()) {
+            //Content without a references file has at most one referencing blob
+            return getContentFile(hash).exists() ? 1 : 0;
+        }
+        String references = FileUtils.readFileToString(referencesFile, "UTF-8").trim();
+        try {
+            return Integer.parseInt(references);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid references file: " + referencesFile, e);
+        }
+    }
+
+    protected void writeReferences(String hash, int references) throws IOException {
+        FileUtils.writeStringToFile(getReferencesFile(hash), Integer.toString(references), "UTF-8");
+    }
+
+    public File getContentDir() {
+        return contentDir;
+    }
+}
@@ -20,6 +20,8 @@
 
 package com.manydesigns.elements.blobs;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.manydesigns.elements.util.RandomUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -30,6 +32,11 @@ import java.io.*;
 import java.util.Properties;
 
 /**
+ * Stores blobs as a pair of files, one holding the contents and one holding the metadata in properties format.
+ * Metadata is kept in an in-memory LRU cache, so that rendering a table of blobs does not need to read one
+ * properties file per cell. Since blob codes are random and blobs are never updated in place, cached metadata
+ * only becomes stale if files are changed bypassing the blob manager.
+ *
  * @author Angelo Lupo          - angelo.lupo@manydesigns.com
  * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
  * @author Emanuele Poggi       - emanuele.poggi@manydesigns.com
@@ -53,6 +60,9 @@ public class SimpleBlobManager implements BlobManager {
     protected File blobsDir;
     protected String metaFileNamePattern;
     protected String dataFileNamePattern;
+    protected Cache<String, Properties> metadataCache;
+
+    public static final long DEFAULT_METADATA_CACHE_SIZE = 10000;
 
     //**************************************************************************
     // Constructors and initialization
@@ -67,6 +77,23 @@ public class SimpleBlobManager implements BlobManager {
         }
         this.metaFileNamePattern = metaFileNamePattern;
         this.dataFileNamePattern = dataFileNamePattern;
+        setMetadataCacheSize(DEFAULT_METADATA_CACHE_SIZE);
+    }
+
+    /**
+     * Sets the maximum number of blobs whose metadata is kept in memory, discarding the current cache.
+     * @param size the number of entries; zero or a negative number disables the cache.
+     */
+    public void setMetadataCacheSize(long size) {
+        if(size > 0) {
+            metadataCache = CacheBuilder.newBuilder().maximumSize(size).recordStats().build();
+        } else {
+            metadataCache = null;
+        }
+    }
+
+    public Cache<String, Properties> getMetadataCache() {
+        return metadataCache;
     }
 
     //**************************************************************************
@@ -81,6 +108,14 @@ public class SimpleBlobManager implements BlobManager {
         return RandomUtil.getCodeFile(blobsDir, dataFileNamePattern, code);
     }
 
+    /**
+     * Returns the file holding the contents of a blob, so that it can be served without opening a stream.
+     */
+    public File getDataFile(Blob blob) {
+        ensureValidCode(blob.getCode());
+        return getDataFile(blob.getCode());
+    }
+
     public void ensureValidCode(String code) {
         if (!StringUtils.isAlphanumeric(code)) {
             throw new IllegalArgumentException(
@@ -91,7 +126,22 @@ public class SimpleBlobManager implements BlobManager {
     @Override
     public void loadMetadata(Blob blob) throws IOException {
         ensureValidCode(blob.getCode());
-        blob.setMetaProperties(loadMetaProperties(getMetaFile(blob.getCode())));
+        blob.setMetaProperties(getMetaProperties(blob.getCode()));
+    }
+
+    /**
+     * Returns the metadata of a blob, from the cache if possible.
+     */
+    protected Properties getMetaProperties(String code) throws IOException {
+        Cache<String, Properties> cache = metadataCache;
+        Properties metaProperties = cache != null ? cache.getIfPresent(code) : null;
+        if(metaProperties == null) {
+            metaProperties = loadMetaProperties(getMetaFile(code));
+            if(cache != null) {
+                cache.put(code, metaProperties);
+            }
+        }
+        return metaProperties;
     }
 
     public Properties loadMetaProperties(File metaFile) throws IOException {
@@ -133,7 +183,11 @@ public class SimpleBlobManager implements BlobManager {
         }
         out = new FileOutputStream(metaFile);
         try {
-            blob.getMetaProperties().store(out, "Blob code #" + blob.getCode());
+            Properties metaProperties = blob.getMetaProperties();
+            metaProperties.store(out, "Blob code #" + blob.getCode());
+            if(metadataCache != null) {
+                metadataCache.put(blob.getCode(), metaProperties);
+            }
         } finally {
             IOUtils.closeQuietly(out);
         }
@@ -146,6 +200,9 @@ public class SimpleBlobManager implements BlobManager {
         ensureValidCode(code);
         File metaFile = getMetaFile(code);
         File dataFile = getDataFile(code);
+        if(metadataCache != null) {
+            metadataCache.invalidate(code);
+        }
         boolean success = true;
         try {
             success = metaFile.delete() && success;
@@ -20,6 +20,9 @@
 
 package com.manydesigns.elements.ognl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.manydesigns.elements.ElementsProperties;
 import com.manydesigns.elements.ElementsThreadLocals;
 import ognl.*;
 import org.slf4j.Logger;
@@ -41,6 +44,13 @@ public class OgnlUtils {
     public final static Logger logger =
             LoggerFactory.getLogger(OgnlUtils.class);
 
+    //Parsed expressions are immutable trees, safe to share among threads
+    protected static final Cache<String, Object> parsedExpressionCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(ElementsProperties.getConfiguration().getInt(
+                            ElementsProperties.OGNL_EXPRESSION_CACHE_SIZE, 1000))
+                    .build();
+
     public static Object getValueQuietly(String expression,
                                          Map ognlContext,
                                          Object root) {
@@ -57,7 +67,7 @@ public class OgnlUtils {
 
         Object result;
         try {
-            result = Ognl.parseExpression(expression);
+            result = parseExpression(expression);
         } catch (OgnlException e) {
             result = null;
             logger.warn("Error during parsing of ognl expression: " +
@@ -66,6 +76,19 @@ public class OgnlUtils {
         return result;
     }
 
+    /**
+     * Parses an OGNL expression, reusing a previous parse of the same string if possible.
+     * Expressions that fail to parse are not cached.
+     */
+    public static Object parseExpression(String expression) throws OgnlException {
+        Object result = parsedExpressionCache.getIfPresent(expression);
+        if (result == null) {
+            result = Ognl.parseExpression(expression);
+            parsedExpressionCache.put(expression, result);
+        }
+        return result;
+    }
+
     public static Object getValueQuietly(Object parsedExpression,
                                          Map ognlContext, Object root) {
         if (parsedExpression == null) {
@@ -20,6 +20,7 @@
 
 package com.manydesigns.elements.options;
 
+import com.manydesigns.elements.ElementsProperties;
 import com.manydesigns.elements.util.Util;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.ObjectUtils;
@@ -53,10 +54,25 @@ public class DefaultSelectionProvider implements SelectionProvider {
     protected String createNewValueHref;
     protected String createNewValueText;
 
+    /**
+     * Maximum number of options returned for a field when searching by label; zero or less means no limit.
+     */
+    protected int labelSearchMaxResults =
+            ElementsProperties.getConfiguration().getInt(ElementsProperties.OPTIONS_LABEL_SEARCH_MAX_RESULTS, 0);
+
+    /**
+     * Lazily built index of the rows; discarded whenever the rows change.
+     */
+    protected volatile LabelIndex labelIndex;
+
     public final static Logger logger =
             LoggerFactory.getLogger(DefaultSelectionProvider.class);
     public static final String NON_WORD_CHARACTERS =
             " \t\n\f\r\\||!\"\u00ac\u00a3$\u201a\u00c7\u00a8%&/()='?^[]+*@#<>,;.:-_";
+    /**
+     * Selection providers with fewer rows than this are searched without building an index.
+     */
+    public static final int LABEL_INDEX_THRESHOLD = 64;
 
     //**************************************************************************
     // Constructor
@@ -105,11 +121,19 @@ public class DefaultSelectionProvider implements SelectionProvider {
         return new DefaultSelectionModel();
     }
 
+    /**
+     * @return the rows of this selection provider, which can't be modified through the returned list.
+     */
+    public List<Row> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
     public void appendRow(Row row) {
         if(row.values.length != fieldCount) {
             throw new IllegalArgumentException("Field count mismatch");
         }
         rows.add(row);
+        labelIndex = null;
     }
 
     public void appendRow(Object[] values, String[] labels, boolean active) {
@@ -147,6 +171,7 @@ public class DefaultSelectionProvider implements SelectionProvider {
             row = new Row(values, labels, true);
             rows.add(row);
         }
+        labelIndex = null;
     }
 
     public void sortByLabel() {
@@ -162,6 +187,30 @@ public class DefaultSelectionProvider implements SelectionProvider {
             }
         };
         Collections.sort(rows, comparator);
+        labelIndex = null;
+    }
+
+    /**
+     * Returns the index of the rows, building it if necessary.
+     * @return the index, or null if there are too few rows to make it worthwhile.
+     */
+    protected LabelIndex getLabelIndex() {
+        LabelIndex index = labelIndex;
+        if(index != null && index.rowCount == rows.size()) {
+            return index;
+        }
+        if(rows.size() < LABEL_INDEX_THRESHOLD) {
+            return null;
+        }
+        synchronized (this) {
+            index = labelIndex;
+            if(index == null || index.rowCount != rows.size()) {
+                logger.debug("Building label index for selection provider {} ({} rows)", name, rows.size());
+                index = new LabelIndex(rows, fieldCount);
+                labelIndex = index;
+            }
+            return index;
+        }
     }
 
     //**************************************************************************
@@ -250,40 +299,60 @@ public class DefaultSelectionProvider implements SelectionProvider {
                 optionsArray[j].clear();
             }
 
+            LabelIndex index = getLabelIndex();
+            int rowCount = index != null ? index.rowCount : rows.size();
+            //Rows whose values match the selected values of all the previous fields; null means all rows
+            BitSet candidates = null;
             int maxMatchingIndex = -1;
-            for (Row row : rows) {
-                Object[] currentValueRow = row.getValues();
-                String[] currentLabelRow = row.getLabels();
-                boolean matching = true;
-                for (int j = 0; j < fieldCount; j++) {
-                    Object cellValue = currentValueRow[j];
-                    String cellLabel = currentLabelRow[j];
-                    Object value = values[j];
-                    String labelSearch = labelSearches[j];
+            for (int j = 0; j < fieldCount; j++) {
+                Object value = values[j];
+                String[] searchTokens = tokenize(labelSearches[j]);
+                BitSet rowsToScan;
+                if (candidates != null) {
+                    rowsToScan = candidates;
+                } else if (index != null && searchTokens != null) {
+                    //Only rows matching the label or the value can contribute
+                    rowsToScan = index.searchLabel(j, searchTokens);
+                    if (value != null) {
+                        rowsToScan.or(index.searchValue(j, value));
+                    }
+                } else {
+                    rowsToScan = new BitSet(rowCount);
+                    rowsToScan.set(0, rowCount);
+                }
+
+                BitSet matchingRows = new BitSet(rowCount);
+                Map<Object, Option> options = optionsArray[j];
+                for (int r = rowsToScan.nextSetBit(0); r >= 0 && r < rowCount; r = rowsToScan.nextSetBit(r + 1)) {
+                    Row row = rows.get(r);
+                    Object cellValue = row.getValues()[j];
+                    String cellLabel = row.getLabels()[j];
 
                     //#163 cellLabel != null
-                    if (matching && cellLabel != null && matchLabel(cellLabel, labelSearch)) {
-                        Option currentOption = optionsArray[j].get(cellValue);
-                        if(currentOption == null || !currentOption.active) {
-                            optionsArray[j].put(cellValue, new Option(cellValue, cellLabel, row.isActive()));
+                    if (cellLabel != null && (searchTokens == null ||
+                            matchTokens(index != null ? index.tokens[r][j] :
+                                    StringUtils.split(cellLabel.toLowerCase(), NON_WORD_CHARACTERS),
+                                    searchTokens))) {
+                        Option currentOption = options.get(cellValue);
+                        if(currentOption == null && searchTokens != null &&
+                           labelSearchMaxResults > 0 && options.size() >= labelSearchMaxResults) {
+                            //Limit reached, do not add more options
+                        } else if(currentOption == null || !currentOption.active) {
+                            options.put(cellValue, new Option(cellValue, cellLabel, row.isActive()));
                         }
                     }
 
-                    if (matching && value != null
-                            && value.equals(cellValue)) {
-                        if (j > maxMatchingIndex) {
-                            maxMatchingIndex = j;
-                        }
-                    } else if (matching && value != null &&
-                            value instanceof Object[]
-                            && ArrayUtils.contains((Object[]) value, cellValue)) {
-                        if (j > maxMatchingIndex) {
-                            maxMatchingIndex = j;
-                        }
-                    } else {
-                        matching = false;
+                    if (value != null && (value.equals(cellValue) ||
+                            (value instanceof Object[] && ArrayUtils.contains((Object[]) value, cellValue)))) {
+                        matchingRows.set(r);
                     }
                 }
+
+                if (matchingRows.isEmpty()) {
+                    break;
+                }
+                maxMatchingIndex = j;
+                candidates = matchingRows;
             }
 
             for (int i = maxMatchingIndex + 1; i < fieldCount; i++) {
@@ -292,28 +361,45 @@ public class DefaultSelectionProvider implements SelectionProvider {
         }
     }
 
-    private boolean matchLabel(String cellLabel, String labelSearch2) {
-        if (labelSearch2 == null || labelSearch2.length() == 0) {
-            return true;
+    /**
+     * Splits a label into lowercase words, as used for label searches.
+     * @param label the label.
+     * @return the words, or null if the label is null or empty.
+     */
+    protected static String[] tokenize(String label) {
+        if (label == null || label.length() == 0) {
+            return null;
         }
-        cellLabel = cellLabel.toLowerCase();
-        labelSearch2 = labelSearch2.toLowerCase();
-        String[] cellLabelArray =
-                StringUtils.split(cellLabel, NON_WORD_CHARACTERS);
-        String[] searchLabelArray =
-                StringUtils.split(labelSearch2, NON_WORD_CHARACTERS);
-        for (int i = 0; i <= cellLabelArray.length - searchLabelArray.length; i++) {
-            boolean allMatch = true;
-            for(int j = 0; j < searchLabelArray.length; j++) {
-                allMatch &= cellLabelArray[i + j].startsWith(searchLabelArray[j]);
-            }
-            if(allMatch) {
+        return StringUtils.split(label.toLowerCase(), NON_WORD_CHARACTERS);
+    }
+
+    /**
+     * Checks whether a sequence of consecutive words in a label starts with the given search words, respectively.
+     * @param cellTokens the words of the label.
+     * @param searchTokens the words being searched.
+     * @return true if the label matches.
+     */
+    protected static boolean matchTokens(String[] cellTokens, String[] searchTokens) {
+        for (int i = 0; i <= cellTokens.length - searchTokens.length; i++) {
+            if (matchTokensAt(cellTokens, i, searchTokens)) {
                 return true;
             }
         }
         return false;
     }
 
+    protected static boolean matchTokensAt(String[] cellTokens, int position, String[] searchTokens) {
+        if (position + searchTokens.length > cellTokens.length) {
+            return false;
+        }
+        for (int j = 0; j < searchTokens.length; j++) {
+            if (!cellTokens[position + j].startsWith(searchTokens[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public DisplayMode getDisplayMode() {
         return displayMode;
     }
@@ -330,6 +416,14 @@ public class DefaultSelectionProvider implements SelectionProvider {
         this.searchDisplayMode = searchDisplayMode;
     }
 
+    public int getLabelSearchMaxResults() {
+        return labelSearchMaxResults;
+    }
+
+    public void setLabelSearchMaxResults(int labelSearchMaxResults) {
+        this.labelSearchMaxResults = labelSearchMaxResults;
+    }
+
     public String getCreateNewValueHref() {
         return createNewValueHref;
     }
@@ -369,4 +463,135 @@ public class DefaultSelectionProvider implements SelectionProvider {
             return active;
         }
     }
+
+    /**
+     * Immutable index of a list of rows. For each field, it holds the words of every label, sorted, so that
+     * rows can be searched by word prefix with a binary search; and a map from values to rows.
+     */
+    protected static class LabelIndex {
+        final int rowCount;
+        final String[][][] tokens;
+        final String[][] sortedTokens;
+        final int[][] tokenRows;
+        final int[][] tokenPositions;
+        final Map<Object, BitSet>[] valueRows;
+
+        public LabelIndex(List<Row> rows, int fieldCount) {
+            rowCount = rows.size();
+            tokens = new String[rowCount][][];
+            sortedTokens = new String[fieldCount][];
+            tokenRows = new int[fieldCount][];
+            tokenPositions = new int[fieldCount][];
+            //noinspection unchecked
+            valueRows = new Map[fieldCount];
+            int[] tokenCounts = new int[fieldCount];
+            for (int r = 0; r < rowCount; r++) {
+                Row row = rows.get(r);
+                tokens[r] = new String[fieldCount][];
+                for (int j = 0; j < fieldCount; j++) {
+                    String[] cellTokens = tokenize(row.getLabels()[j]);
+                    tokens[r][j] = cellTokens != null ? cellTokens : new String[0];
+                    tokenCounts[j] += tokens[r][j].length;
+                }
+            }
+            for (int j = 0; j < fieldCount; j++) {
+                final String[] fieldTokens = new String[tokenCounts[j]];
+                int[] fieldRows = new int[tokenCounts[j]];
+                int[] fieldPositions = new int[tokenCounts[j]];
+                Integer[] order = new Integer[tokenCounts[j]];
+                int k = 0;
+                for (int r = 0; r < rowCount; r++) {
+                    for (int p = 0; p < tokens[r][j].length; p++) {
+                        fieldTokens[k] = tokens[r][j][p];
+                        fieldRows[k] = r;
+                        fieldPositions[k] = p;
+                        order[k] = k;
+                        k++;
+                    }
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    public int compare(Integer o1, Integer o2) {
+                        return fieldTokens[o1].compareTo(fieldTokens[o2]);
+                    }
+                });
+                sortedTokens[j] = new String[k];
+                tokenRows[j] = new int[k];
+                tokenPositions[j] = new int[k];
+                for (int i = 0; i < k; i++) {
+                    sortedTokens[j][i] = fieldTokens[order[i]];
+                    tokenRows[j][i] = fieldRows[order[i]];
+                    tokenPositions[j][i] = fieldPositions[order[i]];
+                }
+
+                Map<Object, BitSet> fieldValueRows = new HashMap<Object, BitSet>();
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = rows.get(r).getValues()[j];
+                    BitSet valueRowSet = fieldValueRows.get(value);
+                    if (valueRowSet == null) {
+                        valueRowSet = new BitSet();
+                        fieldValueRows.put(value, valueRowSet);
+                    }
+                    valueRowSet.set(r);
+                }
+                valueRows[j] = fieldValueRows;
+            }
+        }
+
+        /**
+         * Finds the rows whose label for the given field matches the search words.
+         * @param field the index of the field.
+         * @param searchTokens the words being searched; must not be null.
+         * @return the set of matching rows.
+         */
+        public BitSet searchLabel(int field, String[] searchTokens) {
+            BitSet result = new BitSet(rowCount);
+            if (searchTokens.length == 0) {
+                for (int r = 0; r < rowCount; r++) {
+                    result.set(r);
+                }
+                return result;
+            }
+            String prefix = searchTokens[0];
+            String[] fieldTokens = sortedTokens[field];
+            int i = Arrays.binarySearch(fieldTokens, prefix);
+            if (i < 0) {
+                i = -i - 1;
+            } else {
+                //Go back to the first occurrence
+                while (i > 0 && fieldTokens[i - 1].equals(prefix)) {
+                    i--;
+                }
+            }
+            for (; i < fieldTokens.length && fieldTokens[i].startsWith(prefix); i++) {
+                int r = tokenRows[field][i];
+                if (!result.get(r) && matchTokensAt(tokens[r][field], tokenPositions[field][i], searchTokens)) {
+                    result.set(r);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Finds the rows having the given value (or one of the given values, if it's an array) for a field.
+         * @param field the index of the field.
+         * @param value the value.
+         * @return the set of matching rows.
+         */
+        public BitSet searchValue(int field, Object value) {
+            BitSet result = new BitSet(rowCount);
+            if (value instanceof Object[]) {
+                for (Object current : (Object[]) value) {
+                    BitSet valueRowSet = valueRows[field].get(current);
+                    if (valueRowSet != null) {
+                        result.or(valueRowSet);
+                    }
+                }
+            }
+            BitSet valueRowSet = valueRows[field].get(value);
+            if (valueRowSet != null) {
+                result.or(valueRowSet);
+            }
+            return result;
+        }
+    }
 }
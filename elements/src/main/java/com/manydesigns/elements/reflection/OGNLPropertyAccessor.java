@@ -48,7 +48,7 @@ public class OGNLPropertyAccessor extends AbstractAnnotatedAccessor implements P
         this.name = name;
         this.type = type;
         this.expression = expression;
-        this.parsedExpression = Ognl.parseExpression(expression);
+        this.parsedExpression = OgnlUtils.parseExpression(expression);
         this.ognlContext = ognlContext;
     }
     
@@ -20,6 +20,9 @@
 
 package com.manydesigns.elements.text;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.manydesigns.elements.ElementsProperties;
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.elements.ognl.OgnlUtils;
 import ognl.OgnlContext;
@@ -27,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -55,6 +59,14 @@ public abstract class AbstractOgnlFormat {
     public static final Logger logger =
             LoggerFactory.getLogger(AbstractOgnlFormat.class);
 
+    //Formats may be configured after creation (e.g. OgnlTextFormat.setUrl), so only the parsed
+    //template is shared, never the format object itself
+    protected static final Cache<List<Object>, ParsedFormat> parsedFormatCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(ElementsProperties.getConfiguration().getInt(
+                            ElementsProperties.OGNL_FORMAT_CACHE_SIZE, 1000))
+                    .build();
+
     //**************************************************************************
     // Constructors
     //**************************************************************************
@@ -64,6 +76,19 @@ public abstract class AbstractOgnlFormat {
     }
 
     protected AbstractOgnlFormat(String ognlFormat, int index) {
+        //The result depends on the subclass, which defines how text and expressions are rendered
+        List<Object> key = Arrays.<Object>asList(getClass(), index, ognlFormat);
+        ParsedFormat parsedFormat = parsedFormatCache.getIfPresent(key);
+        if (parsedFormat == null) {
+            parsedFormat = parse(ognlFormat, index);
+            parsedFormatCache.put(key, parsedFormat);
+        }
+        formatString = parsedFormat.formatString;
+        ognlExpressions = parsedFormat.ognlExpressions;
+        parsedOgnlExpressions = parsedFormat.parsedOgnlExpressions;
+    }
+
+    protected ParsedFormat parse(String ognlFormat, int index) {
         List<String> ognlExpressionList = new ArrayList<String>();
         List<Object> parsedOgnlExpressionList = new ArrayList<Object>();
         Matcher m = pattern.matcher(ognlFormat);
@@ -89,14 +114,26 @@ public abstract class AbstractOgnlFormat {
         String escapedText = escapeText(text);
         sb.append(escapedText);
 
-        formatString = sb.toString();
-
-        ognlExpressions = new String[ognlExpressionList.size()];
+        String[] ognlExpressions = new String[ognlExpressionList.size()];
         ognlExpressionList.toArray(ognlExpressions);
 
-        parsedOgnlExpressions =
+        Object[] parsedOgnlExpressions =
                 new Object[parsedOgnlExpressionList.size()];
         parsedOgnlExpressionList.toArray(parsedOgnlExpressions);
+
+        return new ParsedFormat(sb.toString(), ognlExpressions, parsedOgnlExpressions);
+    }
+
+    protected static class ParsedFormat {
+        public final String formatString;
+        public final String[] ognlExpressions;
+        public final Object[] parsedOgnlExpressions;
+
+        public ParsedFormat(String formatString, String[] ognlExpressions, Object[] parsedOgnlExpressions) {
+            this.formatString = formatString;
+            this.ognlExpressions = ognlExpressions;
+            this.parsedOgnlExpressions = parsedOgnlExpressions;
+        }
     }
 
     protected String escapeText(String text) {
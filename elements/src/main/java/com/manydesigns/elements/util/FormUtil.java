@@ -68,6 +68,16 @@ public class FormUtil {
      * @throws org.json.JSONException if the JSON can not be generated.
      */
     public static void fieldsToJson(JSONStringer js, Collection<Field> fields) throws JSONException {
+        fieldsToJson((JSONWriter) js, fields);
+    }
+
+    /**
+     * Writes a collection of fields as properties of a JSON object.
+     * @param js the JSONWriter to write to. Must have a JSON object open for writing.
+     * @param fields the fields to output
+     * @throws org.json.JSONException if the JSON can not be generated.
+     */
+    public static void fieldsToJson(JSONWriter js, Collection<Field> fields) throws JSONException {
         for (Field field : fields) {
             Object value = field.getValue();
             if(value instanceof Date) {
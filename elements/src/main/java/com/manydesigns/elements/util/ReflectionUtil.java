@@ -126,6 +126,29 @@ public class ReflectionUtil {
         }
     }
 
+    /**
+     * Whether a class overrides a method declared by one of its superclasses, e.g. because a Groovy script
+     * has redefined it.
+     * @param aClass the class to inspect.
+     * @param baseClass the superclass of aClass that declares the method. Its own declaration, and the ones of
+     * its superclasses, are not considered overrides.
+     * @param methodName the name of the method.
+     * @param parameterTypes the parameter types of the method.
+     * @return true if aClass, or a superclass of it that is a subclass of baseClass, declares the method.
+     */
+    public static boolean isOverridden(
+            Class<?> aClass, Class<?> baseClass, String methodName, Class<?>... parameterTypes) {
+        for(Class<?> c = aClass; c != null && c != baseClass; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(methodName, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                //Keep looking in the superclass
+            }
+        }
+        return false;
+    }
+
     public static InputStream getResourceAsStream(String resourceName) {
         return ReflectionUtil.class.getClassLoader().getResourceAsStream(resourceName);
     }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.elements.xml;
+
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide registry of {@link JAXBContext}s, keyed by class loader and package. Creating a context is
+ * expensive, while contexts are thread safe and can be shared freely. Unmarshallers, that are not thread
+ * safe, are pooled: obtain one with {@link #acquireUnmarshaller(JAXBContext)} and give it back with
+ * {@link #releaseUnmarshaller(JAXBContext, Unmarshaller)} when done.<br>
+ * Class loaders and contexts are held weakly, and the contexts of a class loader softly (since they refer
+ * to it): the registry does not keep a discarded class loader - e.g. the one of a reset Groovy script
+ * engine - and its classes alive. The registry is also cleared explicitly with {@link #clear()} when the
+ * scripts are reloaded or the caches are reset.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class JAXBContextRegistry {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(JAXBContextRegistry.class);
+
+    /**
+     * The maximum number of idle unmarshallers kept for each context.
+     */
+    public static final int MAX_POOLED_UNMARSHALLERS = 16;
+
+    protected static final ConcurrentMap<ClassLoader, ConcurrentMap<String, JAXBContext>> contexts =
+            CacheBuilder.newBuilder().weakKeys().softValues()
+                    .<ClassLoader, ConcurrentMap<String, JAXBContext>>build().asMap();
+    protected static final ConcurrentMap<JAXBContext, UnmarshallerPool> unmarshallers =
+            CacheBuilder.newBuilder().weakKeys().softValues().<JAXBContext, UnmarshallerPool>build().asMap();
+
+    private JAXBContextRegistry() {}
+
+    /**
+     * Returns the context for the package of the given class, creating it the first time it's requested.
+     * @param classInPackage a class belonging to the package.
+     * @return the context.
+     * @throws JAXBException if the context cannot be created.
+     */
+    public static JAXBContext getContext(Class<?> classInPackage) throws JAXBException {
+        ClassLoader classLoader = classInPackage.getClassLoader();
+        if(classLoader == null) {
+            classLoader = Thread.currentThread().getContextClassLoader();
+        }
+        return getContext(classInPackage.getPackage().getName(), classLoader);
+    }
+
+    /**
+     * Returns the context for the given package, creating it the first time it's requested.
+     * @param packageName the name of the package, as passed to {@link JAXBContext#newInstance(String, ClassLoader)}.
+     * @param classLoader the class loader used to locate the classes of the package.
+     * @return the context.
+     * @throws JAXBException if the context cannot be created.
+     */
+    public static JAXBContext getContext(String packageName, ClassLoader classLoader) throws JAXBException {
+        ConcurrentMap<String, JAXBContext> classLoaderContexts = contexts.get(classLoader);
+        if(classLoaderContexts == null) {
+            ConcurrentMap<String, JAXBContext> newContexts = new ConcurrentHashMap<String, JAXBContext>();
+            classLoaderContexts = contexts.putIfAbsent(classLoader, newContexts);
+            if(classLoaderContexts == null) {
+                classLoaderContexts = newContexts;
+            }
+        }
+        JAXBContext context = classLoaderContexts.get(packageName);
+        if(context == null) {
+            logger.debug("Creating JAXB context for {}", packageName);
+            context = JAXBContext.newInstance(packageName, classLoader);
+            JAXBContext existing = classLoaderContexts.putIfAbsent(packageName, context);
+            if(existing != null) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Takes an unmarshaller for the given context from the pool, or creates a new one if none is available.
+     * @param context the context.
+     * @return the unmarshaller, to be released with {@link #releaseUnmarshaller(JAXBContext, Unmarshaller)}.
+     * @throws JAXBException if the unmarshaller cannot be created.
+     */
+    public static Unmarshaller acquireUnmarshaller(JAXBContext context) throws JAXBException {
+        UnmarshallerPool pool = unmarshallers.get(context);
+        if(pool != null) {
+            Unmarshaller unmarshaller = pool.idle.poll();
+            if(unmarshaller != null) {
+                pool.size.decrementAndGet();
+                return unmarshaller;
+            }
+        }
+        return context.createUnmarshaller();
+    }
+
+    /**
+     * Gives an unmarshaller back to the pool. It must not be used by the caller afterwards.
+     * @param context the context the unmarshaller was created from.
+     * @param unmarshaller the unmarshaller.
+     */
+    public static void releaseUnmarshaller(JAXBContext context, Unmarshaller unmarshaller) {
+        UnmarshallerPool pool = unmarshallers.get(context);
+        if(pool == null) {
+            UnmarshallerPool newPool = new UnmarshallerPool();
+            pool = unmarshallers.putIfAbsent(context, newPool);
+            if(pool == null) {
+                pool = newPool;
+            }
+        }
+        if(pool.size.incrementAndGet() <= MAX_POOLED_UNMARSHALLERS) {
+            //Don't let state set by the previous user leak to the next one
+            unmarshaller.setListener(null);
+            unmarshaller.setSchema(null);
+            pool.idle.offer(unmarshaller);
+        } else {
+            pool.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Discards all the contexts and pooled unmarshallers.
+     */
+    public static void clear() {
+        logger.debug("Clearing JAXB contexts");
+        contexts.clear();
+        unmarshallers.clear();
+    }
+
+    protected static class UnmarshallerPool {
+        final Queue<Unmarshaller> idle = new ConcurrentLinkedQueue<Unmarshaller>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+}
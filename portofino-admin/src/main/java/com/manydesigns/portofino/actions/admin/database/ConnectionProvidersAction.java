@@ -79,6 +79,7 @@ public class ConnectionProvidersAction extends AbstractActionBean {
     public TableForm tableForm;
     public Form form;
     public Form detectedValuesForm;
+    public Form poolMetricsForm;
     public TableForm schemasForm;
     public TableForm databasePlatformsTableForm;
 
@@ -173,6 +174,9 @@ public class ConnectionProvidersAction extends AbstractActionBean {
                 .equals(connectionProvider.getStatus())) {
             configureDetected();
         }
+        if (connectionProvider instanceof PooledJdbcConnectionProvider) {
+            configurePoolMetrics();
+        }
 
         return new ForwardResolution("/m/admin/connectionProviders/read.jsp");
     }
@@ -226,6 +230,24 @@ public class ConnectionProvidersAction extends AbstractActionBean {
         detectedValuesForm.readFromObject(connectionProvider);
     }
 
+    protected void configurePoolMetrics() {
+        poolMetricsForm = new FormBuilder(PooledJdbcConnectionProvider.class)
+                .configFields(
+                        "numConnections",
+                        "numBusyConnections",
+                        "numIdleConnections",
+                        "numThreadsAwaitingCheckout",
+                        "numFailedCheckouts",
+                        "numUnclosedOrphanedConnections",
+                        "statementCacheNumStatements",
+                        "numRetiredPools",
+                        "actualValidationQuery"
+                        )
+                .configMode(Mode.VIEW)
+                .build();
+        poolMetricsForm.readFromObject(connectionProvider);
+    }
+
     protected void configureEditSchemas() {
         try {
             Connection conn = connectionProvider.acquireConnection();
@@ -477,6 +499,10 @@ public class ConnectionProvidersAction extends AbstractActionBean {
         return detectedValuesForm;
     }
 
+    public Form getPoolMetricsForm() {
+        return poolMetricsForm;
+    }
+
     public TableForm getSchemasForm() {
         return schemasForm;
     }
@@ -25,6 +25,8 @@ import com.manydesigns.elements.messages.SessionMessages;
 import com.manydesigns.elements.ognl.OgnlUtils;
 import com.manydesigns.portofino.buttons.annotations.Button;
 import com.manydesigns.portofino.di.Inject;
+import com.manydesigns.portofino.dispatcher.DispatcherLogic;
+import com.manydesigns.portofino.dispatcher.PageTree;
 import com.manydesigns.portofino.modules.BaseModule;
 import com.manydesigns.portofino.scripting.ScriptingUtil;
 import com.manydesigns.portofino.security.RequiresAdministrator;
@@ -84,6 +86,12 @@ public class GroovyAdminAction extends AbstractActionBean {
 
         logger.info("Clearing OGNL caches potentially holding Groovy objects");
         OgnlUtils.clearCache();
+        logger.info("Clearing cached Groovy classes");
+        ScriptingUtil.clearCompiledClasses();
+        PageTree pageTree = DispatcherLogic.getPageTree();
+        if(pageTree != null) {
+            pageTree.clear();
+        }
         logger.info("Groovy script engine reset.");
         return new ForwardResolution("/m/admin/groovy.jsp");
     }
@@ -29,6 +29,13 @@
                     <mde:write name="actionBean" property="detectedValuesForm"/>
                 </div>
             </c:if>
+            <c:if test="${actionBean.poolMetricsForm != null}">
+                <div class="horizontalSeparator"></div>
+                <h4><fmt:message key="connection.pool"/></h4>
+                <div id="poolMetricsForm">
+                    <mde:write name="actionBean" property="poolMetricsForm"/>
+                </div>
+            </c:if>
             <stripes:hidden name="databaseName" value="${actionBean.databaseName}"/>
             <div class="form-group">
                 <portofino:buttons list="connectionProviders-read" />
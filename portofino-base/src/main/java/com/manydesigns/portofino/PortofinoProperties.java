@@ -38,6 +38,8 @@ public final class PortofinoProperties {
 
     //App properties
     public static final String BLOBS_DIR_PATH = "blobs.dir.path";
+    public static final String BLOBS_METADATA_CACHE_SIZE = "blobs.metadata.cache.size";
+    public static final String BLOBS_DEDUPLICATE = "blobs.deduplicate";
     public static final String APP_NAME = "app.name";
     public static final String APP_LOGO = "app.logo";
     public static final String APP_VERSION = "app.version";
@@ -58,6 +60,10 @@ public final class PortofinoProperties {
     //Groovy
     public static final String GROOVY_PRELOAD_PAGES = "groovy.preloadPages";
     public static final String GROOVY_PRELOAD_CLASSES = "groovy.preloadClasses";
+    //In production mode, scripts are precompiled at startup and only checked for changes on explicit reload
+    //or when the file system watcher notices them
+    public static final String GROOVY_PRODUCTION_MODE = "groovy.productionMode";
+    public static final String GROOVY_PRECOMPILE_THREADS = "groovy.precompileThreads";
 
     private PortofinoProperties() {}
 }
@@ -22,6 +22,7 @@ package com.manydesigns.portofino.scripting;
 
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.elements.util.RandomUtil;
+import com.manydesigns.elements.xml.JAXBContextRegistry;
 import com.manydesigns.portofino.modules.BaseModule;
 import groovy.util.GroovyScriptEngine;
 import groovy.util.ResourceException;
@@ -33,6 +34,9 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -49,18 +53,149 @@ public class ScriptingUtil {
 
     public static final String GROOVY_FILE_NAME_PATTERN = "{0}.groovy";
 
+    //**************************************************************************
+    // Production mode
+    //**************************************************************************
+
+    /**
+     * In production mode, a script is loaded by the engine (and thus checked for changes) only the first time
+     * it's requested; after that, its class is served from memory until {@link #clearCompiledClasses()} is
+     * called, by an explicit reload or by a file system watcher.
+     */
+    protected static volatile boolean productionMode;
+    protected static final ConcurrentMap<String, CompiledScript> compiledScripts =
+            new ConcurrentHashMap<String, CompiledScript>();
+
+    protected static class CompiledScript {
+        public final GroovyScriptEngine scriptEngine;
+        public final Class<?> scriptClass;
+
+        public CompiledScript(GroovyScriptEngine scriptEngine, Class<?> scriptClass) {
+            this.scriptEngine = scriptEngine;
+            this.scriptClass = scriptClass;
+        }
+    }
+
+    public static boolean isProductionMode() {
+        return productionMode;
+    }
+
+    public static void setProductionMode(boolean productionMode) {
+        ScriptingUtil.productionMode = productionMode;
+        compiledScripts.clear();
+    }
+
+    /**
+     * Forgets all the script classes loaded in production mode, so that the next request for each of them goes
+     * through the script engine, which recompiles it if it has changed. JAXB contexts, that may have been
+     * created for script classes, are discarded as well.
+     */
+    public static void clearCompiledClasses() {
+        if(!compiledScripts.isEmpty()) {
+            logger.debug("Clearing compiled Groovy classes");
+            compiledScripts.clear();
+        }
+        JAXBContextRegistry.clear();
+    }
+
+    /**
+     * Loads a script through the given engine, or from memory in production mode.
+     * @param scriptEngine the engine.
+     * @param scriptName the name (URL) of the script.
+     * @return the script class.
+     */
+    public static Class<?> loadClass(GroovyScriptEngine scriptEngine, String scriptName)
+            throws ResourceException, ScriptException {
+        if(!productionMode) {
+            return scriptEngine.loadScriptByName(scriptName);
+        }
+        CompiledScript compiledScript = compiledScripts.get(scriptName);
+        //Classes loaded by an engine that has since been replaced are stale
+        if(compiledScript == null || compiledScript.scriptEngine != scriptEngine) {
+            compiledScript = new CompiledScript(scriptEngine, scriptEngine.loadScriptByName(scriptName));
+            compiledScripts.put(scriptName, compiledScript);
+        }
+        return compiledScript.scriptClass;
+    }
+
+    /**
+     * Compiles all the Groovy scripts found in the given directories and their subdirectories, using a pool of
+     * threads. Failures are logged and otherwise ignored. Note that the script engine serializes the actual
+     * compilation, so the gain comes mostly from overlapping I/O and dependency checks.
+     * @param scriptEngine the engine to compile the scripts with.
+     * @param threads the number of threads to use.
+     * @param directories the directories to scan.
+     */
+    public static void precompile(final GroovyScriptEngine scriptEngine, int threads, File... directories) {
+        List<File> scripts = new ArrayList<File>();
+        for(File directory : directories) {
+            collectScripts(directory, scripts);
+        }
+        logger.info("Precompiling {} Groovy scripts using {} threads", scripts.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(scripts.size());
+            for(File script : scripts) {
+                final String scriptName = script.toURI().toString();
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            loadClass(scriptEngine, scriptName);
+                        } catch (Throwable t) {
+                            logger.warn("Groovy precompilation failed for " + scriptName, t);
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Groovy precompilation failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected static void collectScripts(File directory, List<File> scripts) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            if(file.isDirectory()) {
+                collectScripts(file, scripts);
+            } else if(file.getName().endsWith(".groovy")) {
+                scripts.add(file);
+            }
+        }
+    }
+
+    //**************************************************************************
+    // Script loading
+    //**************************************************************************
+
     public static File getGroovyScriptFile(File storageDir, String pageId) {
         return RandomUtil.getCodeFile(storageDir, GROOVY_FILE_NAME_PATTERN, pageId);
     }
 
     public static Class<?> getGroovyClass(File scriptFile) throws IOException, ScriptException, ResourceException {
-        if(!scriptFile.exists()) {
-            return null;
-        }
         GroovyScriptEngine scriptEngine =
                 (GroovyScriptEngine) ElementsThreadLocals.getServletContext().getAttribute(
                         BaseModule.GROOVY_SCRIPT_ENGINE);
-        return scriptEngine.loadScriptByName(scriptFile.toURI().toString());
+        String scriptName = scriptFile.toURI().toString();
+        if(productionMode) {
+            CompiledScript compiledScript = compiledScripts.get(scriptName);
+            if(compiledScript != null && compiledScript.scriptEngine == scriptEngine) {
+                return compiledScript.scriptClass;
+            }
+        }
+        if(!scriptFile.exists()) {
+            return null;
+        }
+        return loadClass(scriptEngine, scriptName);
     }
 
     public static GroovyScriptEngine createScriptEngine(File classpathFile, ClassLoader parent) {
@@ -22,7 +22,7 @@ package com.manydesigns.portofino.servlets;
 
 import com.manydesigns.elements.ElementsProperties;
 import com.manydesigns.elements.ElementsThreadLocals;
-import com.manydesigns.elements.blobs.BlobManager;
+import com.manydesigns.elements.blobs.ContentAddressedBlobManager;
 import com.manydesigns.elements.blobs.SimpleBlobManager;
 import com.manydesigns.elements.blobs.HierarchicalBlobManager;
 import com.manydesigns.elements.configuration.BeanLookup;
@@ -176,21 +176,30 @@ public class PortofinoListener
 
         String metaFilenamePattern = "blob-{0}.properties";
         String dataFilenamePattern = "blob-{0}.data";
-        BlobManager tempBlobManager = new HierarchicalBlobManager(tempBlobsDir, metaFilenamePattern, dataFilenamePattern);
-        BlobManager defaultBlobManager;
+        long blobMetadataCacheSize = configuration.getLong(
+                PortofinoProperties.BLOBS_METADATA_CACHE_SIZE, SimpleBlobManager.DEFAULT_METADATA_CACHE_SIZE);
+        SimpleBlobManager tempBlobManager =
+                new HierarchicalBlobManager(tempBlobsDir, metaFilenamePattern, dataFilenamePattern);
+        tempBlobManager.setMetadataCacheSize(blobMetadataCacheSize);
+        SimpleBlobManager defaultBlobManager;
         File[] blobs = appBlobsDir.listFiles(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
                 return name.startsWith("blob-") && name.endsWith(".properties");
             }
         });
-        if(blobs == null || blobs.length == 0) { //Null if the directory does not exist yet
+        if((blobs == null || blobs.length == 0) && configuration.getBoolean(PortofinoProperties.BLOBS_DEDUPLICATE, false)) {
+            logger.info("Using deduplicating, content-addressed blob manager");
+            defaultBlobManager =
+                    new ContentAddressedBlobManager(appBlobsDir, metaFilenamePattern, dataFilenamePattern);
+        } else if(blobs == null || blobs.length == 0) { //Null if the directory does not exist yet
             logger.info("Using new style (4.1.1+) hierarchical blob manager");
             defaultBlobManager = new HierarchicalBlobManager(appBlobsDir, metaFilenamePattern, dataFilenamePattern);
         } else {
             logger.info("Blobs found directly under the blobs directory; using old style (pre-4.1.1) flat file blob manager");
             defaultBlobManager = new SimpleBlobManager(appBlobsDir, metaFilenamePattern, dataFilenamePattern);
         }
+        defaultBlobManager.setMetadataCacheSize(blobMetadataCacheSize);
         servletContext.setAttribute(BaseModule.TEMPORARY_BLOB_MANAGER, tempBlobManager);
         servletContext.setAttribute(BaseModule.DEFAULT_BLOB_MANAGER, defaultBlobManager);
 
@@ -203,6 +212,11 @@ public class PortofinoListener
         GroovyScriptEngine groovyScriptEngine =
                 ScriptingUtil.createScriptEngine(groovyClasspath, getClass().getClassLoader());
         ClassLoader classLoader = groovyScriptEngine.getGroovyClassLoader();
+        boolean groovyProductionMode = configuration.getBoolean(PortofinoProperties.GROOVY_PRODUCTION_MODE, false);
+        if(groovyProductionMode) {
+            logger.info("Groovy production mode: scripts won't be checked for changes on each access");
+        }
+        ScriptingUtil.setProductionMode(groovyProductionMode);
         servletContext.setAttribute(BaseModule.GROOVY_CLASS_PATH, groovyClasspath);
         servletContext.setAttribute(BaseModule.CLASS_LOADER, classLoader);
         servletContext.setAttribute(BaseModule.GROOVY_SCRIPT_ENGINE, groovyScriptEngine);
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.stripes;
+
+import net.sourceforge.stripes.action.Resolution;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+
+/**
+ * Streams a file or a stream of known length to the client, like Stripes' StreamingResolution, with support for
+ * conditional requests (<code>If-None-Match</code>, <code>If-Modified-Since</code>) and single byte ranges
+ * (<code>Range</code>, <code>If-Range</code>), so that downloads can be resumed and media can be seeked.
+ * Files are delegated to the container's sendfile support when it's available (Tomcat), so that they're
+ * sent without being copied through the heap; otherwise, like streams, they're copied with a small buffer.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class DownloadResolution implements Resolution {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(DownloadResolution.class);
+
+    //Tomcat sendfile support, see org.apache.catalina.servlets.DefaultServlet
+    public static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    protected final String contentType;
+    protected final File file;
+    protected final InputStream inputStream;
+    protected final long length;
+    protected String filename;
+    protected boolean attachment = true;
+    protected long lastModified = -1;
+    protected String eTag;
+
+    /**
+     * Creates a resolution that sends the contents of a file.
+     */
+    public DownloadResolution(String contentType, File file) {
+        this.contentType = contentType;
+        this.file = file;
+        this.inputStream = null;
+        this.length = file.length();
+    }
+
+    /**
+     * Creates a resolution that sends the contents of a stream, which is closed afterwards. Ranges are served
+     * by skipping the beginning of the stream.
+     * @param length the length of the stream, or a negative number if unknown; ranges are not supported in
+     *               the latter case.
+     */
+    public DownloadResolution(String contentType, InputStream inputStream, long length) {
+        this.contentType = contentType;
+        this.file = null;
+        this.inputStream = inputStream;
+        this.length = length;
+    }
+
+    //**************************************************************************
+    // Resolution implementation
+    //**************************************************************************
+
+    public void execute(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        try {
+            if(isNotModified(request)) {
+                applyValidators(response);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            String range = length >= 0 ? request.getHeader("Range") : null;
+            if(range != null && isRangeApplicable(request)) {
+                long[] byteRange = parseRange(range);
+                if(byteRange == UNSATISFIABLE) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                } else if(byteRange != null) {
+                    start = byteRange[0];
+                    end = byteRange[1];
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            applyHeaders(response);
+            if(length >= 0) {
+                setContentLength(response, end - start + 1);
+            }
+            if("HEAD".equalsIgnoreCase(request.getMethod())) {
+                return;
+            }
+            if(file != null) {
+                sendFile(request, response, start, end - start + 1);
+            } else {
+                sendStream(response, start, length >= 0 ? end - start + 1 : -1);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    protected boolean isNotModified(HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if(ifNoneMatch != null) {
+            //If-None-Match takes precedence over If-Modified-Since
+            return eTag != null && matchesETag(ifNoneMatch, eTag);
+        }
+        if(lastModified >= 0 && request.getHeader("If-Modified-Since") != null) {
+            try {
+                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                //HTTP dates have a resolution of one second
+                return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+            } catch (IllegalArgumentException e) {
+                logger.debug("Invalid If-Modified-Since header", e);
+            }
+        }
+        return false;
+    }
+
+    protected static boolean matchesETag(String header, String eTag) {
+        for(String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if(candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if(candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A range is only served if the client's copy, as identified by If-Range, is still current.
+     */
+    protected boolean isRangeApplicable(HttpServletRequest request) {
+        String ifRange = request.getHeader("If-Range");
+        if(ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if(ifRange.startsWith("\"")) {
+            return eTag != null && ifRange.equals(eTag);
+        }
+        if(ifRange.startsWith("W/")) {
+            return false; //Weak validators can't be used with ranges
+        }
+        try {
+            long date = request.getDateHeader("If-Range");
+            return lastModified >= 0 && lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    protected static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Parses a Range header. Only a single range of bytes is supported; other forms are ignored and the whole
+     * content is sent, as allowed by RFC 7233.
+     * @return the first and last byte of the range, {@link #UNSATISFIABLE}, or null to ignore the header.
+     */
+    protected long[] parseRange(String header) {
+        header = header.trim();
+        if(!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if(dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if(first.isEmpty()) {
+                //Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if(suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if(start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            if(start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    protected void applyValidators(HttpServletResponse response) {
+        if(eTag != null) {
+            response.setHeader("ETag", eTag);
+        }
+        if(lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+    }
+
+    protected void applyHeaders(HttpServletResponse response) {
+        response.setContentType(contentType);
+        applyValidators(response);
+        if(length >= 0) {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+        if(filename != null) {
+            String disposition = attachment ? "attachment" : "inline";
+            response.setHeader("Content-Disposition",
+                    disposition + ";filename=\"" + filename.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        }
+    }
+
+    protected void setContentLength(HttpServletResponse response, long contentLength) {
+        if(contentLength <= Integer.MAX_VALUE) {
+            response.setContentLength((int) contentLength);
+        } else {
+            response.setHeader("Content-Length", Long.toString(contentLength));
+        }
+    }
+
+    protected void sendFile(HttpServletRequest request, HttpServletResponse response, long start, long count)
+            throws IOException {
+        if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            logger.debug("Delegating transfer of {} to the container", file);
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, start + count);
+            return;
+        }
+        FileInputStream fileInputStream = new FileInputStream(file);
+        try {
+            copy(fileInputStream, response.getOutputStream(), start, count);
+        } finally {
+            IOUtils.closeQuietly(fileInputStream);
+        }
+    }
+
+    protected void sendStream(HttpServletResponse response, long start, long count) throws IOException {
+        copy(inputStream, response.getOutputStream(), start, count);
+    }
+
+    /**
+     * Copies <code>count</code> bytes (all of them if negative) starting at <code>start</code>. It stops
+     * early if the input ends, e.g. because the file has been truncated.
+     */
+    protected void copy(InputStream in, OutputStream out, long start, long count) throws IOException {
+        if(start > 0) {
+            IOUtils.skipFully(in, start);
+        }
+        byte[] buffer = new byte[8192];
+        long remaining = count;
+        while(count < 0 || remaining > 0) {
+            int toRead = count < 0 ? buffer.length : (int) Math.min(buffer.length, remaining);
+            int read = in.read(buffer, 0, toRead);
+            if(read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    //**************************************************************************
+    // Getters/setters
+    //**************************************************************************
+
+    public DownloadResolution setFilename(String filename) {
+        this.filename = filename;
+        return this;
+    }
+
+    public DownloadResolution setAttachment(boolean attachment) {
+        this.attachment = attachment;
+        return this;
+    }
+
+    public DownloadResolution setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    /**
+     * Sets the entity tag. It's quoted if it isn't already.
+     */
+    public DownloadResolution setETag(String eTag) {
+        if(eTag != null && !eTag.startsWith("\"")) {
+            eTag = "\"" + eTag + "\"";
+        }
+        this.eTag = eTag;
+        return this;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -20,6 +20,12 @@
 
 package com.manydesigns.portofino.chart;
 
+import com.manydesigns.portofino.persistence.Persistence;
+import com.manydesigns.portofino.persistence.QueryUtils;
+import org.hibernate.Session;
+
+import java.util.List;
+
 public abstract class AbstractChartGenerator implements ChartGenerator {
 
     //**************************************************************************
@@ -29,6 +35,20 @@ public abstract class AbstractChartGenerator implements ChartGenerator {
     public int height = 300;
     public boolean antiAlias = true;
     public boolean borderVisible = true;
+    public ChartCache chartCache;
+
+    /**
+     * Runs the query of a chart, through the chart cache if one has been set.
+     */
+    protected List<Object[]> loadData(ChartDefinition chartDefinition, Persistence persistence) {
+        String query = chartDefinition.getQuery();
+        Session session = persistence.getSession(chartDefinition.getDatabase());
+        if(chartCache != null) {
+            return chartCache.runSql(session, chartDefinition.getDatabase(), query);
+        } else {
+            return QueryUtils.runSql(session, query);
+        }
+    }
 
     public boolean isAntiAlias() {
         return antiAlias;
@@ -62,4 +82,12 @@ public abstract class AbstractChartGenerator implements ChartGenerator {
         this.borderVisible = borderVisible;
     }
 
-}
\ No newline at end of file
+    public ChartCache getChartCache() {
+        return chartCache;
+    }
+
+    public void setChartCache(ChartCache chartCache) {
+        this.chartCache = chartCache;
+    }
+
+}
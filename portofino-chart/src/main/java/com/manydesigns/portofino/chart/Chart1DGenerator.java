@@ -22,9 +22,7 @@ package com.manydesigns.portofino.chart;
 
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.portofino.persistence.Persistence;
-import com.manydesigns.portofino.persistence.QueryUtils;
 import org.apache.commons.lang.StringUtils;
-import org.hibernate.Session;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.DrawingSupplier;
 import org.jfree.chart.plot.PiePlot;
@@ -62,10 +60,7 @@ public abstract class Chart1DGenerator extends AbstractChartGenerator {
 
     public JFreeChart generate(ChartDefinition chartDefinition, Persistence persistence, Locale locale) {
         DefaultPieDataset dataset = new DefaultPieDataset();
-        java.util.List<Object[]> result;
-        String query = chartDefinition.getQuery();
-        Session session = persistence.getSession(chartDefinition.getDatabase());
-        result = QueryUtils.runSql(session, query);
+        java.util.List<Object[]> result = loadData(chartDefinition, persistence);
         for (Object[] current : result) {
             ComparableWrapper key = new ComparableWrapper((Comparable)current[0]);
             dataset.setValue(key, (Number)current[1]);
@@ -22,9 +22,7 @@ package com.manydesigns.portofino.chart;
 
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.portofino.persistence.Persistence;
-import com.manydesigns.portofino.persistence.QueryUtils;
 import org.apache.commons.lang.StringUtils;
-import org.hibernate.Session;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.*;
 import org.jfree.chart.plot.CategoryPlot;
@@ -66,10 +64,7 @@ public abstract class Chart2DGenerator extends AbstractChartGenerator {
 
     public JFreeChart generate(ChartDefinition chartDefinition, Persistence persistence, Locale locale) {
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        java.util.List<Object[]> result;
-        String query = chartDefinition.getQuery();
-        Session session = persistence.getSession(chartDefinition.getDatabase());
-        result = QueryUtils.runSql(session, query);
+        java.util.List<Object[]> result = loadData(chartDefinition, persistence);
         for (Object[] current : result) {
             ComparableWrapper x = new ComparableWrapper((Comparable)current[0]);
             ComparableWrapper y = new ComparableWrapper((Comparable)current[1]);
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.chart;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.manydesigns.elements.text.OgnlHqlFormat;
+import com.manydesigns.portofino.persistence.QueryUtils;
+import org.hibernate.Session;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-wide cache of chart datasets and rendered chart images. Datasets are keyed by database, query
+ * and the values of the query's OGNL parameters, so that dashboards refreshed by many users run each chart
+ * query once per time to live; concurrent misses for the same dataset wait for a single query.<br />
+ * Rendered images are kept in memory, keyed by the caller (typically the chart definition, dataset key,
+ * locale and size), and can be retrieved by id, which is derived from their contents and doubles as ETag.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class ChartCache {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(ChartCache.class);
+
+    //Configuration properties
+    public static final String CHART_CACHE_TTL = "chart.cache.ttl";
+    public static final String CHART_CACHE_SIZE = "chart.cache.size";
+    public static final String CHART_IMAGE_CACHE_MAX_BYTES = "chart.image.cache.max.bytes";
+
+    /**
+     * How long, in seconds, a rendered image stays downloadable after it was last requested. Pages link
+     * to images by id, so this is independent of the time to live of cached results.
+     */
+    public static final int IMAGE_RETENTION = 10 * 60;
+
+    protected final int timeToLive;
+    protected final Cache<List<Object>, List<Object[]>> datasets;
+    protected final Cache<List<Object>, RenderedChart> renderedCharts;
+    protected final Cache<String, RenderedChart> images;
+
+    /**
+     * Creates a new cache.
+     * @param timeToLive how long, in seconds, datasets and rendered charts are reused. If zero or negative,
+     *                   queries are always run and charts always rendered.
+     * @param maxSize the maximum number of cached datasets.
+     * @param maxImageBytes the maximum total size of the images kept in memory.
+     */
+    public ChartCache(int timeToLive, long maxSize, long maxImageBytes) {
+        this.timeToLive = timeToLive;
+        Weigher<Object, RenderedChart> weigher = new Weigher<Object, RenderedChart>() {
+            @Override
+            public int weigh(Object key, RenderedChart value) {
+                return value.getImage().length;
+            }
+        };
+        datasets = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(timeToLive, 0), TimeUnit.SECONDS)
+                .maximumSize(timeToLive > 0 ? maxSize : 0)
+                .recordStats()
+                .build();
+        renderedCharts = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(timeToLive, 0), TimeUnit.SECONDS)
+                .maximumWeight(timeToLive > 0 ? maxImageBytes : 0)
+                .weigher(weigher)
+                .recordStats()
+                .build();
+        images = CacheBuilder.newBuilder()
+                .expireAfterAccess(Math.max(timeToLive, IMAGE_RETENTION), TimeUnit.SECONDS)
+                .maximumWeight(maxImageBytes)
+                .weigher(weigher)
+                .build();
+    }
+
+    //**************************************************************************
+    // Datasets
+    //**************************************************************************
+
+    /**
+     * Returns the key identifying the results of a query, evaluating its OGNL parameters.
+     */
+    public List<Object> getDatasetKey(String database, String sql) {
+        OgnlHqlFormat hqlFormat = OgnlHqlFormat.create(sql);
+        List<Object> key = new ArrayList<Object>(3);
+        key.add(database);
+        key.add(hqlFormat.getFormatString());
+        key.add(Arrays.asList(hqlFormat.evaluateOgnlExpressions(null)));
+        return key;
+    }
+
+    /**
+     * Runs a chart query like {@link QueryUtils#runSql(Session, String)}, reusing cached results if possible.
+     * @return the results, which must not be modified.
+     */
+    public List<Object[]> runSql(final Session session, String database, String sql) {
+        final List<Object> key = getDatasetKey(database, sql);
+        if(timeToLive <= 0) {
+            return runSql(session, key);
+        }
+        return get(datasets, key, new Callable<List<Object[]>>() {
+            @Override
+            public List<Object[]> call() throws Exception {
+                return runSql(session, key);
+            }
+        });
+    }
+
+    protected List<Object[]> runSql(Session session, List<Object> key) {
+        logger.debug("Running chart query {}", key);
+        String queryString = (String) key.get(1);
+        Object[] parameters = ((List) key.get(2)).toArray();
+        return Collections.unmodifiableList(QueryUtils.runSql(session, queryString, parameters));
+    }
+
+    //**************************************************************************
+    // Images
+    //**************************************************************************
+
+    /**
+     * Returns a rendered chart from the cache, rendering it if necessary. The result can later be
+     * retrieved by id with {@link #getImage(String)}.
+     * @param key the key identifying the chart; it must include everything that affects the image.
+     * @param renderer renders the chart on a cache miss.
+     */
+    public RenderedChart render(List<Object> key, Callable<RenderedChart> renderer) {
+        RenderedChart renderedChart;
+        if(timeToLive <= 0) {
+            try {
+                renderedChart = renderer.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            renderedChart = get(renderedCharts, key, renderer);
+        }
+        images.put(renderedChart.getId(), renderedChart);
+        return renderedChart;
+    }
+
+    /**
+     * @return the image with the given id, or null if it has expired.
+     */
+    public RenderedChart getImage(String id) {
+        return images.getIfPresent(id);
+    }
+
+    /**
+     * Renders a chart as PNG, collecting the information needed to build its image map.
+     */
+    public static RenderedChart render(JFreeChart chart, int width, int height) throws IOException {
+        ChartRenderingInfo renderingInfo = new ChartRenderingInfo();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChartUtilities.writeChartAsPNG(out, chart, width, height, renderingInfo);
+        return new RenderedChart(out.toByteArray(), renderingInfo);
+    }
+
+    //**************************************************************************
+    // Management
+    //**************************************************************************
+
+    public void clear() {
+        datasets.invalidateAll();
+        renderedCharts.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return datasets.stats().hitCount() + renderedCharts.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return datasets.stats().missCount() + renderedCharts.stats().missCount();
+    }
+
+    protected static <K, V> V get(Cache<K, V> cache, K key, Callable<? extends V> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    //**************************************************************************
+    // Inner classes
+    //**************************************************************************
+
+    public static class RenderedChart {
+        protected final String id;
+        protected final byte[] image;
+        protected final ChartRenderingInfo renderingInfo;
+
+        public RenderedChart(byte[] image, ChartRenderingInfo renderingInfo) {
+            this.image = image;
+            this.renderingInfo = renderingInfo;
+            this.id = Hashing.sha1().hashBytes(image).toString();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the PNG image, which must not be modified.
+         */
+        public byte[] getImage() {
+            return image;
+        }
+
+        public ChartRenderingInfo getRenderingInfo() {
+            return renderingInfo;
+        }
+    }
+}
@@ -20,6 +20,10 @@
 
 package com.manydesigns.portofino.modules;
 
+import com.manydesigns.portofino.cache.CacheResetEvent;
+import com.manydesigns.portofino.cache.CacheResetListener;
+import com.manydesigns.portofino.cache.CacheResetListenerRegistry;
+import com.manydesigns.portofino.chart.ChartCache;
 import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.pageactions.chart.chartjs.ChartJsAction;
 import com.manydesigns.portofino.pageactions.chart.jfreechart.JFreeChartAction;
@@ -28,6 +32,8 @@ import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletContext;
+
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
 * @author Angelo Lupo          - angelo.lupo@manydesigns.com
@@ -42,14 +48,27 @@ public class ChartModule implements Module {
     // Fields
     //**************************************************************************
 
+    @Inject(BaseModule.SERVLET_CONTEXT)
+    public ServletContext servletContext;
+
     @Inject(BaseModule.PORTOFINO_CONFIGURATION)
     public Configuration configuration;
 
+    @Inject(BaseModule.CACHE_RESET_LISTENER_REGISTRY)
+    public CacheResetListenerRegistry cacheResetListenerRegistry;
+
     @Inject(PageactionsModule.PAGE_ACTIONS_REGISTRY)
     public PageActionRegistry pageActionRegistry;
 
     protected ModuleStatus status = ModuleStatus.CREATED;
 
+    //**************************************************************************
+    // Constants
+    //**************************************************************************
+
+    public static final String CHART_CACHE =
+            "com.manydesigns.portofino.modules.ChartModule.chartCache";
+
     //**************************************************************************
     // Logging
     //**************************************************************************
@@ -91,6 +110,18 @@ public class ChartModule implements Module {
     public void init() {
         pageActionRegistry.register(JFreeChartAction.class);
         pageActionRegistry.register(ChartJsAction.class);
+
+        final ChartCache chartCache = new ChartCache(
+                configuration.getInt(ChartCache.CHART_CACHE_TTL, 60),
+                configuration.getLong(ChartCache.CHART_CACHE_SIZE, 1000),
+                configuration.getLong(ChartCache.CHART_IMAGE_CACHE_MAX_BYTES, 16 * 1024 * 1024));
+        servletContext.setAttribute(CHART_CACHE, chartCache);
+        cacheResetListenerRegistry.getCacheResetListeners().add(new CacheResetListener() {
+            @Override
+            public void handleReset(CacheResetEvent e) {
+                chartCache.clear();
+            }
+        });
         status = ModuleStatus.ACTIVE;
     }
 
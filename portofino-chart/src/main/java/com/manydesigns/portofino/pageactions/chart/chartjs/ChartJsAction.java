@@ -29,9 +29,11 @@ import com.manydesigns.elements.options.DefaultSelectionProvider;
 import com.manydesigns.elements.options.SelectionProvider;
 import com.manydesigns.elements.util.RandomUtil;
 import com.manydesigns.portofino.buttons.annotations.Button;
+import com.manydesigns.portofino.chart.ChartCache;
 import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.logic.SelectionProviderLogic;
 import com.manydesigns.portofino.model.database.Database;
+import com.manydesigns.portofino.modules.ChartModule;
 import com.manydesigns.portofino.modules.DatabaseModule;
 import com.manydesigns.portofino.pageactions.AbstractPageAction;
 import com.manydesigns.portofino.pageactions.PageActionName;
@@ -72,6 +74,9 @@ public class ChartJsAction extends AbstractPageAction {
     @Inject(DatabaseModule.PERSISTENCE)
     public Persistence persistence;
 
+    @Inject(ChartModule.CHART_CACHE)
+    public ChartCache chartCache;
+
     public String chartId;
     public String chartData;
     public ChartJsConfiguration chartConfiguration;
@@ -119,7 +124,11 @@ public class ChartJsAction extends AbstractPageAction {
             chartId = RandomUtil.createRandomId();
             String query = chartConfiguration.getQuery();
             Session session = persistence.getSession(chartConfiguration.getDatabase());
-            return QueryUtils.runSql(session, query);
+            if(chartCache != null) {
+                return chartCache.runSql(session, chartConfiguration.getDatabase(), query);
+            } else {
+                return QueryUtils.runSql(session, query);
+            }
         } catch(Exception e) {
             logger.error("Error executing query", e);
             return null;
@@ -20,6 +20,7 @@
 
 package com.manydesigns.portofino.pageactions.chart.jfreechart;
 
+import com.google.common.io.Files;
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.elements.fields.Field;
 import com.manydesigns.elements.forms.Form;
@@ -27,12 +28,16 @@ import com.manydesigns.elements.forms.FormBuilder;
 import com.manydesigns.elements.messages.SessionMessages;
 import com.manydesigns.elements.options.DefaultSelectionProvider;
 import com.manydesigns.elements.options.SelectionProvider;
+import com.manydesigns.elements.servlet.ServletUtils;
 import com.manydesigns.elements.util.RandomUtil;
 import com.manydesigns.portofino.buttons.annotations.Button;
+import com.manydesigns.portofino.chart.AbstractChartGenerator;
+import com.manydesigns.portofino.chart.ChartCache;
 import com.manydesigns.portofino.chart.ChartGenerator;
 import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.logic.SelectionProviderLogic;
 import com.manydesigns.portofino.model.database.Database;
+import com.manydesigns.portofino.modules.ChartModule;
 import com.manydesigns.portofino.modules.DatabaseModule;
 import com.manydesigns.portofino.pageactions.AbstractPageAction;
 import com.manydesigns.portofino.pageactions.PageActionName;
@@ -42,18 +47,20 @@ import com.manydesigns.portofino.pageactions.chart.jfreechart.configuration.JFre
 import com.manydesigns.portofino.persistence.Persistence;
 import com.manydesigns.portofino.security.AccessLevel;
 import com.manydesigns.portofino.security.RequiresPermissions;
+import com.manydesigns.portofino.stripes.DownloadResolution;
 import net.sourceforge.stripes.action.*;
 import net.sourceforge.stripes.util.UrlBuilder;
 import org.jfree.chart.JFreeChart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.servlet.http.HttpServletResponse;
-import java.awt.*;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -69,11 +76,9 @@ public class JFreeChartAction extends AbstractPageAction {
     public static final String copyright =
             "Copyright (C) 2005-2017 ManyDesigns srl";
 
-    //**************************************************************************
-    // Constants
-    //**************************************************************************
-
     public static final String CHART_FILENAME_FORMAT = "chart-{0}.png";
+    //Chart ids are SHA-1 hashes of the images
+    public static final Pattern CHART_ID_PATTERN = Pattern.compile("[0-9a-f]{40}");
 
     //**************************************************************************
     // Injections
@@ -82,6 +87,9 @@ public class JFreeChartAction extends AbstractPageAction {
     @Inject(DatabaseModule.PERSISTENCE)
     public Persistence persistence;
 
+    @Inject(ChartModule.CHART_CACHE)
+    public ChartCache chartCache;
+
     //**************************************************************************
     // Web parameters
     //**************************************************************************
@@ -104,9 +112,11 @@ public class JFreeChartAction extends AbstractPageAction {
     //**************************************************************************
 
     public Form form;
+    /**
+     * The generated chart; null if the rendered image has been taken from the cache.
+     */
     public JFreeChart chart;
     public JFreeChartInstance jfreeChartInstance;
-    public File file;
 
     public static final Logger logger =
             LoggerFactory.getLogger(JFreeChartAction.class);
@@ -122,15 +132,8 @@ public class JFreeChartAction extends AbstractPageAction {
         }
 
         try {
-            // Run/generate the chart
-            try {
-                Thread.currentThread().setContextClassLoader(Class.class.getClassLoader());
-                generateChart();
-            } finally {
-                Thread.currentThread().setContextClassLoader(JFreeChartAction.class.getClassLoader());
-            }
-
-            chartId = RandomUtil.createRandomId();
+            ChartCache.RenderedChart renderedChart = renderChart();
+            chartId = renderedChart.getId();
 
             String actionurl = context.getActionPath();
             UrlBuilder chartResolution =
@@ -139,11 +142,9 @@ public class JFreeChartAction extends AbstractPageAction {
                             .addParameter("chart", "");
             String url = context.getRequest().getContextPath() + chartResolution.toString();
 
-            file = RandomUtil.getTempCodeFile(CHART_FILENAME_FORMAT, chartId);
-
             jfreeChartInstance =
-                    new JFreeChartInstance(chart, file, chartId, "Chart: " + chartConfiguration.getName(),
-                                           width, height, url);
+                    new JFreeChartInstance(renderedChart.getRenderingInfo(), RandomUtil.createRandomId(),
+                                           "Chart: " + chartConfiguration.getName(), width, height, url);
         } catch (Throwable e) {
             logger.error("Chart exception", e);
             return forwardToPageActionError(e);
@@ -152,6 +153,62 @@ public class JFreeChartAction extends AbstractPageAction {
         return new ForwardResolution("/m/chart/jfreechart/display.jsp");
     }
 
+    /**
+     * Renders the chart, or takes it from the chart cache if it has been rendered recently with the same
+     * configuration, query parameters, locale and size. Without a chart cache (e.g. if the chart module has not
+     * been started) the chart is always rendered and the image is kept in a temporary file until it is served.
+     */
+    protected ChartCache.RenderedChart renderChart() {
+        Callable<ChartCache.RenderedChart> renderer = new Callable<ChartCache.RenderedChart>() {
+            @Override
+            public ChartCache.RenderedChart call() throws Exception {
+                try {
+                    Thread.currentThread().setContextClassLoader(Class.class.getClassLoader());
+                    generateChart();
+                } finally {
+                    Thread.currentThread().setContextClassLoader(JFreeChartAction.class.getClassLoader());
+                }
+                return ChartCache.render(chart, width, height);
+            }
+        };
+        if(chartCache != null) {
+            return chartCache.render(getChartKey(), renderer);
+        }
+        try {
+            ChartCache.RenderedChart renderedChart = renderer.call();
+            Files.write(renderedChart.getImage(), RandomUtil.getTempCodeFile(CHART_FILENAME_FORMAT, renderedChart.getId()));
+            return renderedChart;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the key identifying the rendered chart in the chart cache. It includes everything that
+     * affects the image.
+     */
+    protected List<Object> getChartKey() {
+        List<Object> key = new ArrayList<Object>();
+        //The same configuration can be shared by several pages, e.g. through a Groovy script
+        key.add(pageInstance.getPath());
+        key.add(chartConfiguration.getGeneratorClass());
+        key.add(chartConfiguration.getName());
+        key.add(chartConfiguration.getLegend());
+        key.add(chartConfiguration.getActualOrientation());
+        key.add(chartConfiguration.getXAxisName());
+        key.add(chartConfiguration.getYAxisName());
+        key.add(chartConfiguration.getUrlExpression());
+        key.addAll(chartCache.getDatasetKey(chartConfiguration.getDatabase(), chartConfiguration.getQuery()));
+        key.add(context.getLocale());
+        key.add(width);
+        key.add(height);
+        key.add(antiAlias);
+        key.add(borderVisible);
+        return key;
+    }
+
     public void generateChart() {
         ChartGenerator chartGenerator;
 
@@ -168,34 +225,47 @@ public class JFreeChartAction extends AbstractPageAction {
         chartGenerator.setBorderVisible(borderVisible);
         chartGenerator.setHeight(height);
         chartGenerator.setWidth(width);
+        if(chartGenerator instanceof AbstractChartGenerator) {
+            ((AbstractChartGenerator) chartGenerator).setChartCache(chartCache);
+        }
         chart = chartGenerator.generate(chartConfiguration, persistence, context.getLocale());
     }
 
-    public Resolution chart() throws FileNotFoundException {
-        final File file = RandomUtil.getTempCodeFile(CHART_FILENAME_FORMAT, chartId);
+    public Resolution chart() throws IOException {
+        if(chartId == null || !CHART_ID_PATTERN.matcher(chartId).matches()) {
+            return new ErrorResolution(404);
+        }
+        if(chartCache == null) {
+            return chartFromFile();
+        }
+        ChartCache.RenderedChart renderedChart = chartCache.getImage(chartId);
+        if(renderedChart == null) {
+            return new ErrorResolution(404);
+        }
+        //The id is derived from the image, so the same URL always returns the same content
+        ServletUtils.markCacheableForever(context.getResponse());
+        byte[] image = renderedChart.getImage();
+        return new DownloadResolution("image/png", new ByteArrayInputStream(image), image.length)
+                .setAttachment(false)
+                .setETag(renderedChart.getId());
+    }
+
+    /**
+     * Serves a chart image stored in a temporary file by {@link #renderChart()}, deleting the file.
+     */
+    protected Resolution chartFromFile() throws IOException {
+        File file = RandomUtil.getTempCodeFile(CHART_FILENAME_FORMAT, chartId);
         if(!file.exists()) {
             return new ErrorResolution(404);
         }
-        final InputStream inputStream = new FileInputStream(file);
-
-        //Cache the file, expire after 12h
-        int expiresAfter = 12 * 60 * 60 * 1000;
-        long now = System.currentTimeMillis();
-        HttpServletResponse response = context.getResponse();
-        response.setHeader("Cache-Control", "max-age=" + expiresAfter);
-        response.setDateHeader("Last-Modified", now);
-        response.setDateHeader("Expires", now + expiresAfter);
-        response.setHeader("Pragma", "");
-
-        return new StreamingResolution("image/png", inputStream) {
-            @Override
-            protected void stream(HttpServletResponse response) throws Exception {
-                super.stream(response);
-                if(!file.delete()) {
-                    logger.warn("Could not delete temporary file for chart: " + file.getAbsolutePath());
-                }
-            }
-        };
+        byte[] image = Files.toByteArray(file);
+        if(!file.delete()) {
+            logger.warn("Could not delete temporary file for chart: " + file.getAbsolutePath());
+        }
+        ServletUtils.markCacheableForever(context.getResponse());
+        return new DownloadResolution("image/png", new ByteArrayInputStream(image), image.length)
+                .setAttachment(false)
+                .setETag(chartId);
     }
 
     //**************************************************************************
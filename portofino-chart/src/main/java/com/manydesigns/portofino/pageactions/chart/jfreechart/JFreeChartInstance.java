@@ -65,6 +65,21 @@ public class JFreeChartInstance implements XhtmlFragment {
         ChartUtilities.saveChartAsPNG(file, chart, width, height, renderingInfo);
     }
 
+    /**
+     * Creates an instance for a chart that has already been rendered and is served from chartUrl.
+     */
+    public JFreeChartInstance(ChartRenderingInfo renderingInfo, String mapId, String alt,
+                              int width, int height, String chartUrl) {
+        this.chart = null;
+        this.file = null;
+        this.renderingInfo = renderingInfo;
+        this.mapId = mapId;
+        this.alt = alt;
+        this.width = width;
+        this.height = height;
+        this.chartUrl = chartUrl;
+    }
+
     public void toXhtml(@NotNull XhtmlBuffer xb) {
         xb.openElement("img");
         xb.addAttribute("src", chartUrl);
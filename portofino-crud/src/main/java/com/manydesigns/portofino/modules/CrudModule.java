@@ -20,14 +20,21 @@
 
 package com.manydesigns.portofino.modules;
 
+import com.manydesigns.portofino.cache.CacheResetEvent;
+import com.manydesigns.portofino.cache.CacheResetListener;
+import com.manydesigns.portofino.cache.CacheResetListenerRegistry;
 import com.manydesigns.portofino.di.Inject;
+import com.manydesigns.portofino.pageactions.crud.CountCache;
 import com.manydesigns.portofino.pageactions.crud.CrudAction;
+import com.manydesigns.portofino.pageactions.crud.SelectionProviderCache;
 import com.manydesigns.portofino.pageactions.m2m.ManyToManyAction;
 import com.manydesigns.portofino.pageactions.registry.PageActionRegistry;
 import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletContext;
+
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
 * @author Angelo Lupo          - angelo.lupo@manydesigns.com
@@ -42,14 +49,29 @@ public class CrudModule implements Module {
     // Fields
     //**************************************************************************
 
+    @Inject(BaseModule.SERVLET_CONTEXT)
+    public ServletContext servletContext;
+
     @Inject(BaseModule.PORTOFINO_CONFIGURATION)
     public Configuration configuration;
 
+    @Inject(BaseModule.CACHE_RESET_LISTENER_REGISTRY)
+    public CacheResetListenerRegistry cacheResetListenerRegistry;
+
     @Inject(PageactionsModule.PAGE_ACTIONS_REGISTRY)
     public PageActionRegistry pageActionRegistry;
 
     protected ModuleStatus status = ModuleStatus.CREATED;
 
+    //**************************************************************************
+    // Constants
+    //**************************************************************************
+
+    public static final String SELECTION_PROVIDER_CACHE =
+            "com.manydesigns.portofino.modules.CrudModule.selectionProviderCache";
+    public static final String COUNT_CACHE =
+            "com.manydesigns.portofino.modules.CrudModule.countCache";
+
     //**************************************************************************
     // Logging
     //**************************************************************************
@@ -91,6 +113,22 @@ public class CrudModule implements Module {
     public void init() {
         pageActionRegistry.register(CrudAction.class);
         pageActionRegistry.register(ManyToManyAction.class);
+
+        final SelectionProviderCache selectionProviderCache = new SelectionProviderCache(
+                configuration.getInt(SelectionProviderCache.SELECTION_PROVIDER_CACHE_TTL, 0),
+                configuration.getLong(SelectionProviderCache.SELECTION_PROVIDER_CACHE_MAX_ROWS, 100000));
+        servletContext.setAttribute(SELECTION_PROVIDER_CACHE, selectionProviderCache);
+        final CountCache countCache = new CountCache(
+                configuration.getInt(CountCache.COUNT_CACHE_TTL, 60),
+                configuration.getLong(CountCache.COUNT_CACHE_SIZE, 1000));
+        servletContext.setAttribute(COUNT_CACHE, countCache);
+        cacheResetListenerRegistry.getCacheResetListeners().add(new CacheResetListener() {
+            @Override
+            public void handleReset(CacheResetEvent e) {
+                selectionProviderCache.clear();
+                countCache.clear();
+            }
+        });
         status = ModuleStatus.ACTIVE;
     }
 
@@ -27,6 +27,7 @@ import com.manydesigns.elements.annotations.*;
 import com.manydesigns.elements.blobs.Blob;
 import com.manydesigns.elements.blobs.BlobManager;
 import com.manydesigns.elements.blobs.BlobUtils;
+import com.manydesigns.elements.blobs.SimpleBlobManager;
 import com.manydesigns.elements.fields.*;
 import com.manydesigns.elements.forms.FieldSet;
 import com.manydesigns.elements.forms.*;
@@ -64,6 +65,7 @@ import com.manydesigns.portofino.pageactions.crud.reflection.CrudAccessor;
 import com.manydesigns.portofino.security.AccessLevel;
 import com.manydesigns.portofino.security.RequiresPermissions;
 import com.manydesigns.portofino.security.SupportsPermissions;
+import com.manydesigns.portofino.stripes.DownloadResolution;
 import com.manydesigns.portofino.util.PkHelper;
 import com.manydesigns.portofino.util.ShortNameUtils;
 import net.sourceforge.stripes.action.*;
@@ -79,6 +81,7 @@ import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
+import org.json.JSONWriter;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 import org.slf4j.Logger;
@@ -90,10 +93,14 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -166,6 +173,12 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
     public static final Logger logger =
             LoggerFactory.getLogger(AbstractCrudAction.class);
 
+    /**
+     * The number of rows converted together when streaming search results as JSON, so that selection providers
+     * can resolve the labels of a whole chunk with a single query.
+     */
+    public static final int JSON_SEARCH_CHUNK_SIZE = 100;
+
     //--------------------------------------------------------------------------
     // Web parameters
     //--------------------------------------------------------------------------
@@ -179,6 +192,7 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
     public Integer maxResults;
     public String sortProperty;
     public String sortDirection;
+    public String continuationToken;
     public boolean searchVisible;
 
     //--------------------------------------------------------------------------
@@ -187,6 +201,11 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
 
     protected String popupCloseCallback;
 
+    /**
+     * With keyset pagination, the continuation token of the page following the one being returned.
+     */
+    protected String nextContinuationToken;
+
     //--------------------------------------------------------------------------
     // UI forms
     //--------------------------------------------------------------------------
@@ -249,6 +268,19 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
      */
     public abstract void loadObjects();
 
+    /**
+     * Loads the objects filtered using the current search criteria and limited by the current first and max
+     * results parameters, like {@link #loadObjects()}, and returns an iterator over them. Subclasses can
+     * override this method to read objects lazily, so that they need not be all in memory at the same time;
+     * if the returned iterator holds resources, it must implement {@link Closeable}.
+     * By default, calls {@link #loadObjects()} and iterates over the <code>objects</code> field.
+     * @return an iterator over the loaded objects.
+     */
+    protected Iterator<?> loadObjectsIterator() {
+        loadObjects();
+        return objects != null ? objects.iterator() : Collections.emptyList().iterator();
+    }
+
     /**
      * Loads an object by its identifier and returns it. The object must satisfy the current search criteria.
      * @param pkObject the object used as an identifier; the actual implementation is regulated by subclasses.
@@ -257,6 +289,64 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
      */
     protected abstract T loadObjectByPrimaryKey(Serializable pkObject);
 
+    /**
+     * Loads the objects with the given identifiers, like {@link #loadObjectByPrimaryKey(Serializable)} does
+     * for a single object. Used by bulk operations; subclasses are encouraged to load all the objects
+     * at once.
+     * @param pkObjects the identifiers.
+     * @return the objects that could be found and that satisfy the search criteria.
+     */
+    protected List<T> loadObjectsByPrimaryKeys(List<Serializable> pkObjects) {
+        List<T> result = new ArrayList<T>(pkObjects.size());
+        for(Serializable pkObject : pkObjects) {
+            T object = loadObjectByPrimaryKey(pkObject);
+            if(object != null) {
+                result.add(object);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the identifiers of the selected objects.
+     */
+    protected List<Serializable> getSelectionPrimaryKeys() {
+        List<Serializable> pkObjects = new ArrayList<Serializable>(selection.length);
+        for (String current : selection) {
+            pkObjects.add(pkHelper.getPrimaryKey(current.split("/")));
+        }
+        return pkObjects;
+    }
+
+    /**
+     * Warns the user about the selected keys that did not correspond to any object, e.g. because they were
+     * deleted in the meantime or they don't satisfy the search criteria.
+     * @param found the objects that were loaded from the selection.
+     */
+    protected void addNotFoundWarning(List<T> found) {
+        if(selection == null || found.size() >= selection.length) {
+            return;
+        }
+        Set<String> foundKeys = new HashSet<String>();
+        for(T object : found) {
+            foundKeys.add(StringUtils.join(pkHelper.generatePkStringArray(object), "/"));
+        }
+        List<String> notFound = new ArrayList<String>();
+        for(String current : selection) {
+            //Normalize the key so that it compares equal to the one generated from the loaded object
+            Serializable pkObject = pkHelper.getPrimaryKey(current.split("/"));
+            String key = StringUtils.join(pkHelper.generatePkStringArray(pkObject), "/");
+            if(!foundKeys.contains(key)) {
+                notFound.add(current);
+            }
+        }
+        if(!notFound.isEmpty()) {
+            logger.warn("Selected objects not found: {}", notFound);
+            SessionMessages.addWarningMessage(ElementsThreadLocals.getText(
+                    "_.selected.objects.were.not.found", notFound.size(), StringUtils.join(notFound, ", ")));
+        }
+    }
+
     /**
      * Saves a new object to the persistent storage. The actual implementation is left to subclasses.
      * @param object the object to save.
@@ -369,38 +459,68 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
     }
 
     public Resolution jsonSearchData() throws JSONException {
-        executeSearch();
+        final boolean keysetPagination = isKeysetPagination();
+        if(keysetPagination) {
+            //Pages are identified by continuation tokens, not by offsets
+            firstResult = null;
+        }
+        final boolean streaming = isJsonSearchStreamingEnabled();
+        try {
+            if(streaming) {
+                setupSearchForm();
+                if(maxResults == null) {
+                    //Load only the first page if the crud is paginated
+                    maxResults = getCrudConfiguration().getRowsPerPage();
+                }
+            } else {
+                //Go through the same hooks as the HTML search results
+                executeSearch();
+            }
+            if(keysetPagination) {
+                validateContinuationToken();
+            }
+        } catch (IllegalArgumentException e) {
+            if(!keysetPagination) {
+                throw e;
+            }
+            logger.debug("Invalid continuation token", e);
+            return new ErrorResolution(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
 
         final long totalRecords = getTotalSearchRecords();
 
-        setupTableForm(Mode.VIEW);
-        BlobUtils.loadBlobs(tableForm, getBlobManager(), false);
-        JSONStringer js = new JSONStringer();
-        js.object()
-                .key("recordsReturned")
-                .value(objects.size())
-                .key("totalRecords")
-                .value(totalRecords)
-                .key("startIndex")
-                .value(firstResult == null ? 0 : firstResult)
-                .key("Result")
-                .array();
-        for (TableForm.Row row : tableForm.getRows()) {
-            js.object()
-                    .key("__rowKey")
-                    .value(row.getKey());
-            FormUtil.fieldsToJson(js, row);
-            js.endObject();
-        }
-        js.endArray();
-        js.endObject();
-        String jsonText = js.toString();
-        return new StreamingResolution(MimeTypes.APPLICATION_JSON_UTF8, jsonText) {
+        return new StreamingResolution(MimeTypes.APPLICATION_JSON_UTF8) {
+            @Override
+            protected void stream(HttpServletResponse response) throws Exception {
+                Writer writer = response.getWriter();
+                if(streaming) {
+                    //Rows are read and written a chunk at a time
+                    writeSearchDataToJson(writer, totalRecords);
+                } else {
+                    writeTableFormToJson(writer, totalRecords);
+                }
+                writer.flush();
+            }
+
             @Override
             protected void applyHeaders(HttpServletResponse response) {
                 super.applyHeaders(response);
                 Integer rowsPerPage = getCrudConfiguration().getRowsPerPage();
-                if(rowsPerPage != null && totalRecords > rowsPerPage) {
+                if(keysetPagination) {
+                    StringBuilder sb = new StringBuilder();
+                    if(!StringUtils.isEmpty(continuationToken)) {
+                        sb.append("<").append(getLinkToContinuation(null)).append(">; rel=\"first\"");
+                    }
+                    if(nextContinuationToken != null) {
+                        if(sb.length() > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append("<").append(getLinkToContinuation(nextContinuationToken)).append(">; rel=\"next\"");
+                    }
+                    if(sb.length() > 0) {
+                        response.setHeader("Link", sb.toString());
+                    }
+                } else if(rowsPerPage != null && totalRecords > rowsPerPage) {
                     int firstResult = getFirstResult() != null ? getFirstResult() : 1;
                     int currentPage = firstResult / rowsPerPage;
                     int lastPage = (int) (totalRecords / rowsPerPage);
@@ -416,8 +536,10 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
                         if(currentPage > 0) {
                             sb.append(", ");
                         }
-                        sb.append("<").append(getLinkToPage(currentPage + 1)).append(">; rel=\"next\", ");
-                        sb.append("<").append(getLinkToPage(lastPage)).append(">; rel=\"last\"");
+                        sb.append("<").append(getLinkToPage(currentPage + 1)).append(">; rel=\"next\"");
+                        if(isTotalSearchRecordsExact()) {
+                            sb.append(", <").append(getLinkToPage(lastPage)).append(">; rel=\"last\"");
+                        }
                     }
                     response.setHeader("Link", sb.toString());
                 }
@@ -425,6 +547,153 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         };
     }
 
+    /**
+     * Whether {@link #jsonSearchData()} can stream the results with {@link #writeSearchDataToJson(Writer, long)}.
+     * That bypasses {@link #executeSearch()} and {@link #setupTableForm(Mode)}, so if a subclass (e.g. the
+     * Groovy script of the page) overrides either of them, the results are loaded with {@link #executeSearch()}
+     * and written from {@link #tableForm} instead, like the HTML search results.
+     */
+    protected boolean isJsonSearchStreamingEnabled() {
+        return !ReflectionUtil.isOverridden(getClass(), AbstractCrudAction.class, "executeSearch") &&
+               !ReflectionUtil.isOverridden(getClass(), AbstractCrudAction.class, "setupTableForm", Mode.class);
+    }
+
+    /**
+     * Writes the rows of {@link #tableForm}, as set up by {@link #executeSearch()}, as JSON.
+     * @param writer the writer to write to.
+     * @param totalRecords the total number of records matching the search criteria.
+     */
+    protected void writeTableFormToJson(Writer writer, long totalRecords) {
+        TableForm.Row[] rows = tableForm.getRows();
+        JSONWriter js = new JSONWriter(writer);
+        js.object()
+                .key("totalRecords")
+                .value(totalRecords)
+                .key("totalRecordsExact")
+                .value(isTotalSearchRecordsExact())
+                .key("startIndex")
+                .value(firstResult == null ? 0 : firstResult)
+                .key("Result")
+                .array();
+        for (TableForm.Row row : rows) {
+            js.object()
+                    .key("__rowKey")
+                    .value(row.getKey());
+            FormUtil.fieldsToJson(js, row);
+            js.endObject();
+        }
+        js.endArray()
+                .key("recordsReturned")
+                .value(rows.length);
+        if(nextContinuationToken != null) {
+            js.key("continuationToken").value(nextContinuationToken);
+        }
+        js.endObject();
+    }
+
+    /**
+     * Writes the objects matching the current search criteria as JSON, reading them with
+     * {@link #loadObjectsIterator()} and converting them {@link #JSON_SEARCH_CHUNK_SIZE} at a time with a table
+     * form. Each chunk is written only once it has been completely converted. If an error occurs while converting
+     * the first chunk, nothing has been written and the exception is propagated; after that, the rows written
+     * so far are terminated with an <code>error</code> key, so that the response is still well-formed JSON.
+     * @param writer the writer to write to.
+     * @param totalRecords the total number of records matching the search criteria.
+     * @throws IOException if the JSON cannot be written.
+     */
+    protected void writeSearchDataToJson(Writer writer, long totalRecords) throws IOException {
+        int chunkSize = JSON_SEARCH_CHUNK_SIZE;
+        if(maxResults != null && maxResults > 0) {
+            chunkSize = Math.min(chunkSize, maxResults);
+        }
+        TableFormBuilder tableFormBuilder = createTableFormBuilder();
+        configureTableFormBuilder(tableFormBuilder, Mode.VIEW, chunkSize);
+        tableForm = buildTableForm(tableFormBuilder);
+        TableForm.Row[] rows = tableForm.getRows();
+
+        StringWriter buffer = new StringWriter();
+        JSONWriter js = new JSONWriter(buffer);
+        js.object()
+                .key("totalRecords")
+                .value(totalRecords)
+                .key("totalRecordsExact")
+                .value(isTotalSearchRecordsExact())
+                .key("startIndex")
+                .value(firstResult == null ? 0 : firstResult)
+                .key("Result")
+                .array();
+        int recordsReturned = 0;
+        boolean written = false;
+        List<Object> chunk = new ArrayList<Object>(chunkSize);
+        Iterator<?> iterator = loadObjectsIterator();
+        try {
+            while(iterator.hasNext()) {
+                chunk.clear();
+                while(chunk.size() < chunkSize && iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                }
+                //Read all the rows first, so that their labels are resolved together
+                prepareTableFormRows(chunk);
+                for(int i = 0; i < chunk.size(); i++) {
+                    Object obj = chunk.get(i);
+                    rows[i].readFromObject(obj);
+                    refreshBlobDownloadHref(rows[i], obj);
+                    BlobUtils.loadBlobs(rows[i], getBlobManager(), false);
+                }
+                for(int i = 0; i < chunk.size(); i++) {
+                    js.object()
+                            .key("__rowKey")
+                            .value(rows[i].getKey());
+                    FormUtil.fieldsToJson(js, rows[i]);
+                    js.endObject();
+                }
+                writer.write(buffer.toString());
+                buffer.getBuffer().setLength(0);
+                written = true;
+                recordsReturned += chunk.size();
+            }
+        } catch (RuntimeException e) {
+            if(!written) {
+                throw e;
+            }
+            logger.error("Error writing search results, returning " + recordsReturned + " records", e);
+            writer.write("],\"recordsReturned\":" + recordsReturned +
+                         ",\"error\":" + JSONObject.quote(ExceptionUtils.getRootCauseMessage(e)) + "}");
+            return;
+        } finally {
+            if(iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+        js.endArray()
+                .key("recordsReturned")
+                .value(recordsReturned);
+        if(nextContinuationToken != null) {
+            js.key("continuationToken").value(nextContinuationToken);
+        }
+        js.endObject();
+        writer.write(buffer.toString());
+    }
+
+    /**
+     * Whether JSON search results are paginated with continuation tokens (keyset pagination) rather than with
+     * offsets. In that case, each page is requested with the token returned by the previous one, and
+     * <code>firstResult</code> is ignored.
+     * @return false by default; subclasses supporting keyset pagination can return true.
+     */
+    public boolean isKeysetPagination() {
+        return false;
+    }
+
+    /**
+     * Checks the continuation token of the requested page, when using keyset pagination. The token of the
+     * following page, {@link #nextContinuationToken}, is computed while loading the objects; when they are
+     * streamed, it is only known at the end of the response, so the <code>Link</code> header doesn't include
+     * the next page, but the JSON body does.
+     * @throws IllegalArgumentException if the current continuation token is not valid.
+     */
+    protected void validateContinuationToken() {}
+
     /**
      * Returns the number of objects matching the current search criteria, not considering set limits
      * (first and max results).
@@ -432,6 +701,15 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
      */
     public abstract long getTotalSearchRecords();
 
+    /**
+     * Whether {@link #getTotalSearchRecords()} returns the exact number of records, rather than an estimate or
+     * a lower bound. When it doesn't, paginators do not link to the last page.
+     * @return true by default.
+     */
+    public boolean isTotalSearchRecordsExact() {
+        return true;
+    }
+
     @Button(list = "crud-search-form", key = "reset.search", order = 2, type = Button.TYPE_DEFAULT, icon = Button.ICON_RELOAD )
     public Resolution resetSearch() {
         //Not really used. Search is AJAX these days.
@@ -726,8 +1004,10 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         disableBlobFields();
         form.readFromRequest(context.getRequest());
         if (form.validate()) {
-            for (String current : selection) {
-                loadObject(current.split("/"));
+            List<T> selectedObjects = loadObjectsByPrimaryKeys(getSelectionPrimaryKeys());
+            addNotFoundWarning(selectedObjects);
+            for (T current : selectedObjects) {
+                object = current;
                 editSetup(object);
                 writeFormToObject();
                 if(editValidate(object)) {
@@ -790,18 +1070,27 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
             return new RedirectResolution(appendSearchStringParamIfNecessary(context.getActionPath())); //TODO why is this different from bulkEdit?
         }
         List<T> objects = new ArrayList<T>(selection.length);
-        for (String current : selection) {
-            String[] pkArr = current.split("/");
-            Serializable pkObject = pkHelper.getPrimaryKey(pkArr);
-            T obj = loadObjectByPrimaryKey(pkObject);
-            if(deleteValidate(obj)) {
-                doDelete(obj);
-                deletePostProcess(obj);
-                objects.add(obj);
-                deleted++;
+        List<T> selectedObjects = loadObjectsByPrimaryKeys(getSelectionPrimaryKeys());
+        addNotFoundWarning(selectedObjects);
+        boolean setBased = isSetBasedBulkDeleteEnabled();
+        if(setBased) {
+            objects.addAll(selectedObjects);
+            deleted = objects.size();
+        } else {
+            for (T obj : selectedObjects) {
+                if(deleteValidate(obj)) {
+                    doDelete(obj);
+                    deletePostProcess(obj);
+                    objects.add(obj);
+                    deleted++;
+                }
             }
         }
         try {
+            if(setBased) {
+                //Executed immediately rather than on commit, so it can fail here
+                doBulkDelete(objects);
+            }
             commitTransaction();
             for(T obj : objects) {
                 deleteBlobs(obj);
@@ -901,6 +1190,27 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
      */
     protected void deletePostProcess(T object) {}
 
+    /**
+     * Whether a bulk delete can remove all the selected objects with {@link #doBulkDelete(List)}, without
+     * calling the per-object hooks ({@link #deleteValidate(Object)}, {@link #doDelete(Object)},
+     * {@link #deletePostProcess(Object)}).
+     * @return false by default.
+     */
+    protected boolean isSetBasedBulkDeleteEnabled() {
+        return false;
+    }
+
+    /**
+     * Deletes several objects from the persistent storage at once. Only used when
+     * {@link #isSetBasedBulkDeleteEnabled()} returns true.
+     * @param objects the objects to delete.
+     */
+    protected void doBulkDelete(List<T> objects) {
+        for(T object : objects) {
+            doDelete(object);
+        }
+    }
+
     /**
      * Returns the Resolution used to show the Bulk Edit page.
      */
@@ -1257,11 +1567,19 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         tableForm = buildTableForm(tableFormBuilder);
 
         if (objects != null) {
+            prepareTableFormRows(objects);
             tableForm.readFromObject(objects);
             refreshTableBlobDownloadHref();
         }
     }
 
+    /**
+     * Hook method called just before some objects are read into the rows of {@link #tableForm}. By default it
+     * does nothing; subclasses can use it e.g. to prepare the labels of the selection providers.
+     * @param objects the objects about to be read.
+     */
+    protected void prepareTableFormRows(List<?> objects) {}
+
     protected void configureTableFormSelectionProviders(TableFormBuilder tableFormBuilder) {
         if(selectionProviderSupport == null) {
             return;
@@ -1364,6 +1682,24 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         return urlBuilder.toString();
     }
 
+    public String getLinkToContinuation(String continuationToken) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("sortProperty", getSortProperty());
+        parameters.put("sortDirection", getSortDirection());
+        parameters.put("maxResults", getMaxResults());
+        if(continuationToken != null) {
+            parameters.put("continuationToken", continuationToken);
+        }
+        if(!PageActionLogic.isEmbedded(this)) {
+            parameters.put(AbstractCrudAction.SEARCH_STRING_PARAM, getSearchString());
+        }
+
+        UrlBuilder urlBuilder =
+                new UrlBuilder(Locale.getDefault(), Util.getAbsoluteUrl(context.getActionPath()), false)
+                        .addParameters(parameters);
+        return urlBuilder.toString();
+    }
+
     protected TableForm buildTableForm(TableFormBuilder tableFormBuilder) {
         TableForm tableForm = tableFormBuilder.build();
         tableForm.setKeyGenerator(pkHelper.createPkGenerator());
@@ -1563,24 +1899,25 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
     protected void refreshTableBlobDownloadHref() {
         Iterator<?> objIterator = objects.iterator();
         for (TableForm.Row row : tableForm.getRows()) {
-            Iterator<Field> fieldIterator = row.iterator();
-            Object obj = objIterator.next();
-            String baseUrl = null;
-            while (fieldIterator.hasNext()) {
-                Field field = fieldIterator.next();
-                if (field instanceof AbstractBlobField) {
-                    if(baseUrl == null) {
-                        OgnlTextFormat hrefFormat = getReadURLFormat();
-                        baseUrl = hrefFormat.format(obj);
-                    }
+            refreshBlobDownloadHref(row, objIterator.next());
+        }
+    }
 
-                    Blob blob = ((AbstractBlobField) field).getValue();
-                    if(blob != null) {
-                        UrlBuilder urlBuilder = new UrlBuilder(Locale.getDefault(), baseUrl, false)
-                            .addParameter("downloadBlob", "")
-                            .addParameter("propertyName", field.getPropertyAccessor().getName());
-                        field.setHref(urlBuilder.toString());
-                    }
+    protected void refreshBlobDownloadHref(TableForm.Row row, Object obj) {
+        String baseUrl = null;
+        for (Field field : row) {
+            if (field instanceof AbstractBlobField) {
+                if(baseUrl == null) {
+                    OgnlTextFormat hrefFormat = getReadURLFormat();
+                    baseUrl = hrefFormat.format(obj);
+                }
+
+                Blob blob = ((AbstractBlobField) field).getValue();
+                if(blob != null) {
+                    UrlBuilder urlBuilder = new UrlBuilder(Locale.getDefault(), baseUrl, false)
+                        .addParameter("downloadBlob", "")
+                        .addParameter("propertyName", field.getPropertyAccessor().getName());
+                    field.setHref(urlBuilder.toString());
                 }
             }
         }
@@ -1623,23 +1960,24 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         String contentType = blob.getContentType();
         String fileName = blob.getFilename();
         long lastModified = blob.getCreateTimestamp().getMillis();
-        HttpServletRequest request = context.getRequest();
-        if(request.getHeader("If-Modified-Since") != null) {
-            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
-            if(ifModifiedSince >= lastModified) {
-                return new ErrorResolution(304); //Not modified
-            }
-        }
-        InputStream inputStream;
-        if(blob.getInputStream() == null) {
-            inputStream = blobManager.openStream(blob);
+        //Conditional and range requests are handled by the resolution
+        DownloadResolution resolution;
+        if(blob.getInputStream() == null && blobManager instanceof SimpleBlobManager) {
+            File dataFile = ((SimpleBlobManager) blobManager).getDataFile(blob);
+            resolution = new DownloadResolution(contentType, dataFile);
         } else {
-            inputStream = blob.getInputStream();
+            InputStream inputStream;
+            if(blob.getInputStream() == null) {
+                inputStream = blobManager.openStream(blob);
+            } else {
+                inputStream = blob.getInputStream();
+            }
+            resolution = new DownloadResolution(contentType, inputStream, contentLength);
         }
-        return new StreamingResolution(contentType, inputStream)
+        return resolution
                 .setFilename(fileName)
-                .setLength(contentLength)
-                .setLastModified(lastModified);
+                .setLastModified(lastModified)
+                .setETag(blob.getCode() + "-" + contentLength + "-" + lastModified);
     }
 
     @PUT
@@ -2300,6 +2638,8 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
 
     /**
      * Handles search and detail via REST. See <a href="http://portofino.manydesigns.com/en/docs/reference/page-types/crud/rest">the CRUD action REST API documentation.</a>
+     * With keyset pagination, the requested page is identified by the <code>continuationToken</code>
+     * request parameter.
      * @param searchString the search string
      * @since 4.2
      * @return search results (/) or single object (/pk) as JSON (streamed using a Stripes Resolution).
@@ -2316,6 +2656,7 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
             this.maxResults = maxResults;
             this.sortProperty = sortProperty;
             this.sortDirection = sortDirection;
+            this.continuationToken = context.getRequest().getParameter("continuationToken");
             return jsonSearchData();
         } else {
             return jsonReadData();
@@ -2722,6 +3063,14 @@ public abstract class AbstractCrudAction<T> extends AbstractPageAction {
         return maxResults;
     }
 
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     public void setMaxResults(Integer maxResults) {
         this.maxResults = maxResults;
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.pageactions.crud;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.manydesigns.elements.text.QueryStringWithParameters;
+import com.manydesigns.portofino.model.database.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-wide, short-lived cache of the total number of records matching CRUD searches, used by pages
+ * with the {@link com.manydesigns.portofino.pageactions.crud.configuration.CountStrategy#CACHED} and
+ * {@link com.manydesigns.portofino.pageactions.crud.configuration.CountStrategy#ESTIMATED} count strategies.
+ * Counts are keyed by table, query and parameters, and they are discarded when the table is written to
+ * by a CRUD page.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class CountCache {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(CountCache.class);
+
+    //Configuration properties
+    public static final String COUNT_CACHE_TTL = "crud.count.cache.ttl";
+    public static final String COUNT_CACHE_SIZE = "crud.count.cache.size";
+
+    protected final Cache<List<Object>, Long> counts;
+
+    /**
+     * Creates a new cache.
+     * @param timeToLive how long, in seconds, counts are kept.
+     * @param maxSize the maximum number of counts kept.
+     */
+    public CountCache(int timeToLive, long maxSize) {
+        counts = CacheBuilder.newBuilder()
+                .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    public Long get(Table table, QueryStringWithParameters query) {
+        return counts.getIfPresent(key(table, query));
+    }
+
+    public void put(Table table, QueryStringWithParameters query, long count) {
+        counts.put(key(table, query), count);
+    }
+
+    /**
+     * Discards the counts of the given table.
+     * @param table the table that has been modified.
+     */
+    public void invalidate(Table table) {
+        String tableName = table.getQualifiedName();
+        Iterator<List<Object>> it = counts.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            if(tableName.equals(it.next().get(0))) {
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        counts.invalidateAll();
+    }
+
+    protected List<Object> key(Table table, QueryStringWithParameters query) {
+        List<Object> key = new ArrayList<Object>(3);
+        key.add(table.getQualifiedName());
+        key.add(query.getQueryString());
+        key.add(Arrays.asList(query.getParameters()));
+        return key;
+    }
+}
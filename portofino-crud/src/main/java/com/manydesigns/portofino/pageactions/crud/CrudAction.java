@@ -20,23 +20,39 @@
 
 package com.manydesigns.portofino.pageactions.crud;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.BaseEncoding;
 import com.manydesigns.elements.ElementsThreadLocals;
+import com.manydesigns.elements.annotations.FileBlob;
+import com.manydesigns.elements.annotations.InSummary;
 import com.manydesigns.elements.forms.FormBuilder;
+import com.manydesigns.elements.forms.TableFormBuilder;
 import com.manydesigns.elements.messages.SessionMessages;
+import com.manydesigns.elements.ognl.OgnlUtils;
+import com.manydesigns.elements.options.DefaultSelectionProvider;
 import com.manydesigns.elements.options.SelectionProvider;
 import com.manydesigns.elements.reflection.ClassAccessor;
 import com.manydesigns.elements.reflection.PropertyAccessor;
 import com.manydesigns.elements.text.QueryStringWithParameters;
+import com.manydesigns.elements.util.ReflectionUtil;
 import com.manydesigns.portofino.database.TableCriteria;
 import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.dispatcher.PageInstance;
 import com.manydesigns.portofino.logic.SelectionProviderLogic;
+import com.manydesigns.portofino.model.database.Column;
 import com.manydesigns.portofino.model.database.Database;
+import com.manydesigns.portofino.model.database.DatabaseLogic;
+import com.manydesigns.portofino.model.database.ForeignKey;
 import com.manydesigns.portofino.model.database.Table;
+import com.manydesigns.portofino.model.database.platforms.DatabasePlatform;
+import com.manydesigns.portofino.modules.CrudModule;
 import com.manydesigns.portofino.modules.DatabaseModule;
 import com.manydesigns.portofino.pageactions.PageActionName;
 import com.manydesigns.portofino.pageactions.annotations.ConfigurationClass;
 import com.manydesigns.portofino.pageactions.annotations.ScriptTemplate;
+import com.manydesigns.portofino.pageactions.crud.configuration.CountStrategy;
 import com.manydesigns.portofino.pageactions.crud.configuration.database.CrudConfiguration;
 import com.manydesigns.portofino.persistence.Persistence;
 import com.manydesigns.portofino.persistence.QueryUtils;
@@ -44,27 +60,42 @@ import com.manydesigns.portofino.reflection.TableAccessor;
 import com.manydesigns.portofino.security.AccessLevel;
 import com.manydesigns.portofino.security.RequiresPermissions;
 import com.manydesigns.portofino.security.SupportsPermissions;
+import com.manydesigns.portofino.util.ShortNameUtils;
 import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.expression.Function;
-import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
-import net.sf.jsqlparser.parser.CCJSqlParserManager;
-import net.sf.jsqlparser.statement.select.PlainSelect;
-import net.sf.jsqlparser.statement.select.Select;
-import net.sf.jsqlparser.statement.select.SelectExpressionItem;
 import net.sourceforge.stripes.action.Before;
 import net.sourceforge.stripes.action.ForwardResolution;
 import net.sourceforge.stripes.action.Resolution;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
-import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
 
 /**
  * Default AbstractCrudAction implementation. Implements a crud page over a database table, based on a HQL query.
@@ -84,8 +115,8 @@ public class CrudAction extends AbstractCrudAction<Object> {
             "Copyright (C) 2005-2017 ManyDesigns srl";
 
     public static final String[][] CRUD_CONFIGURATION_FIELDS =
-                {{"name", "database", "query", "searchTitle", "createTitle", "readTitle", "editTitle", "variable",
-                  "largeResultSet", "rowsPerPage", "columns"}};
+                {{"name", "database", "query", "fetchRelationships", "searchTitle", "createTitle", "readTitle",
+                  "editTitle", "variable", "largeResultSet", "countStrategy", "keysetPagination", "rowsPerPage", "columns"}};
 
     public Table baseTable;
 
@@ -98,8 +129,41 @@ public class CrudAction extends AbstractCrudAction<Object> {
     @Inject(DatabaseModule.PERSISTENCE)
     public Persistence persistence;
 
+    @Inject(CrudModule.SELECTION_PROVIDER_CACHE)
+    public SelectionProviderCache selectionProviderCache;
+
+    @Inject(CrudModule.COUNT_CACHE)
+    public CountCache countCache;
+
     protected long totalSearchRecords = -1;
 
+    /**
+     * Whether <code>totalSearchRecords</code> is exact, rather than an estimate or a lower bound.
+     */
+    protected boolean totalSearchRecordsExact = true;
+
+    /**
+     * With the {@link CountStrategy#NEXT_PAGE} count strategy, whether there are more records after the
+     * current page; null if not known yet.
+     */
+    protected Boolean nextPageAvailable;
+
+    protected static final Pattern WHERE_PATTERN = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The maximum number of primary keys in a single IN list when loading or deleting objects in bulk.
+     */
+    public static final int BULK_BATCH_SIZE = 500;
+
+    /**
+     * Whether the base table has been written to in the current transaction.
+     */
+    protected boolean baseTableModified;
+
+    //Selection providers of the fetched relationships shown in the table, and the values they already contain
+    protected Map<ForeignKey, DefaultSelectionProvider> fetchedRelationshipSelectionProviders;
+    protected SetMultimap<ForeignKey, Object> fetchedRelationshipValues;
+
     //**************************************************************************
     // Logging
     //**************************************************************************
@@ -116,11 +180,27 @@ public class CrudAction extends AbstractCrudAction<Object> {
     }
 
     protected long calculateTotalSearchRecords() {
+        CountStrategy countStrategy = getCrudConfiguration().getActualCountStrategy();
+        if(countStrategy == CountStrategy.NEXT_PAGE) {
+            Long total = calculateTotalSearchRecordsFromNextPage();
+            if(total != null) {
+                return totalSearchRecords = total;
+            }
+        }
+
         // calculate totalRecords
         TableCriteria criteria = new TableCriteria(baseTable);
         if(searchForm != null) {
             searchForm.configureCriteria(criteria);
         }
+        if(countStrategy == CountStrategy.ESTIMATED && criteria.isEmpty() &&
+           !WHERE_PATTERN.matcher(getBaseQuery()).find()) {
+            Long estimate = estimateRowCount();
+            if(estimate != null) {
+                totalSearchRecordsExact = false;
+                return totalSearchRecords = estimate;
+            }
+        }
         QueryStringWithParameters query =
                 QueryUtils.mergeQuery(getBaseQuery(), criteria, this);
 
@@ -132,49 +212,291 @@ public class CrudAction extends AbstractCrudAction<Object> {
             throw new Error(e);
         }
         //TODO gestire count non disponibile (totalRecordsQueryString == null)
+        QueryStringWithParameters countQuery =
+                new QueryStringWithParameters(totalRecordsQueryString, query.getParameters());
+        boolean useCache = countCache != null && countStrategy != CountStrategy.EXACT;
+        if(useCache) {
+            Long count = countCache.get(baseTable, countQuery);
+            if(count != null) {
+                return totalSearchRecords = count;
+            }
+        }
         List<Object> result = QueryUtils.runHqlQuery
                 (session, totalRecordsQueryString,
                         query.getParameters());
-        return totalSearchRecords = ((Number) result.get(0)).longValue();
+        totalSearchRecords = ((Number) result.get(0)).longValue();
+        if(useCache) {
+            countCache.put(baseTable, countQuery, totalSearchRecords);
+        }
+        return totalSearchRecords;
     }
 
-    protected String generateCountQuery(String queryString) throws JSQLParserException {
-        CCJSqlParserManager parserManager = new CCJSqlParserManager();
+    /**
+     * Computes the total number of records for the {@link CountStrategy#NEXT_PAGE} count strategy, from the
+     * current page loaded together with the first record after it (see {@link #loadObjects()}). If there are
+     * more records, the result is just enough for the current page to have a next page, and it is not exact.
+     * @return the number of records, or null if it must be counted.
+     */
+    protected Long calculateTotalSearchRecordsFromNextPage() {
+        int first = firstResult != null ? firstResult : 0;
+        if(objects == null && maxResults != null) {
+            //E.g. the objects are going to be streamed. A page is small enough to be loaded in memory, and
+            //loadObjectsIterator will reuse it.
+            loadObjects();
+        }
+        if(objects == null) {
+            return null;
+        } else if(maxResults == null) {
+            return (long) first + objects.size();
+        } else if(nextPageAvailable == null) {
+            //loadObjects has been overridden
+            return null;
+        } else if(nextPageAvailable) {
+            totalSearchRecordsExact = false;
+            return (long) first + objects.size() + 1;
+        } else {
+            return (long) first + objects.size();
+        }
+    }
+
+    @Override
+    public boolean isTotalSearchRecordsExact() {
+        getTotalSearchRecords();
+        return totalSearchRecordsExact;
+    }
+
+    //**************************************************************************
+    // Keyset pagination
+    //**************************************************************************
+
+    /**
+     * {@inheritDoc}
+     * <p>Keyset pagination is used when enabled in the configuration, unless the results are sorted by a
+     * nullable property.</p>
+     */
+    @Override
+    public boolean isKeysetPagination() {
+        if(!getCrudConfiguration().isKeysetPagination()) {
+            return false;
+        }
+        PropertyAccessor sortAccessor = getKeysetSortProperty();
+        if(sortAccessor != null) {
+            Column column = DatabaseLogic.findColumnByPropertyName(baseTable, sortAccessor.getName());
+            if(column == null || column.isNullable()) {
+                logger.debug("Cannot use keyset pagination sorting by {}", sortProperty);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the property the results are sorted by, if it's not part of the primary key; null otherwise.
+     */
+    protected PropertyAccessor getKeysetSortProperty() {
+        if(StringUtils.isBlank(sortProperty)) {
+            return null;
+        }
         try {
-            PlainSelect plainSelect =
-                (PlainSelect) ((Select) parserManager.parse(new StringReader(queryString))).getSelectBody();
-            logger.debug("Query string {} contains select");
-            List items = plainSelect.getSelectItems();
-            if(items.size() != 1) {
-                logger.error("I don't know how to generate a count query for {}", queryString);
-                return null;
+            PropertyAccessor accessor = classAccessor.getProperty(sortProperty);
+            return ArrayUtils.contains(classAccessor.getKeyProperties(), accessor) ? null : accessor;
+        } catch (NoSuchFieldException e) {
+            logger.error("Can't order by " + sortProperty + ", property accessor not found", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the properties that define the order of the results with keyset pagination: the sort
+     * property, if any, followed by the primary key.
+     */
+    protected PropertyAccessor[] getKeysetProperties() {
+        PropertyAccessor sortAccessor = getKeysetSortProperty();
+        PropertyAccessor[] keyProperties = classAccessor.getKeyProperties();
+        if(sortAccessor == null) {
+            return keyProperties;
+        }
+        return (PropertyAccessor[]) ArrayUtils.add(keyProperties, 0, sortAccessor);
+    }
+
+    protected boolean isKeysetAscending() {
+        return !"desc".equalsIgnoreCase(sortDirection);
+    }
+
+    protected void configureKeysetCriteria(TableCriteria criteria) {
+        PropertyAccessor[] keysetProperties = getKeysetProperties();
+        String direction = isKeysetAscending() ? "asc" : "desc";
+        criteria.orderBy(keysetProperties[0], direction);
+        for(int i = 1; i < keysetProperties.length; i++) {
+            criteria.thenOrderBy(keysetProperties[i], direction);
+        }
+        if(!StringUtils.isEmpty(continuationToken)) {
+            boolean[] ascending = new boolean[keysetProperties.length];
+            Arrays.fill(ascending, isKeysetAscending());
+            criteria.after(keysetProperties, decodeContinuationToken(continuationToken), ascending);
+        }
+    }
+
+    @Override
+    protected void validateContinuationToken() {
+        if(!StringUtils.isEmpty(continuationToken)) {
+            decodeContinuationToken(continuationToken);
+        }
+    }
+
+    /**
+     * With keyset pagination, whether the page is loaded together with the first object after it, to compute
+     * the continuation token of the next page.
+     */
+    protected boolean isContinuationTokenNeeded() {
+        return maxResults != null && maxResults > 0 && isKeysetPagination();
+    }
+
+    /**
+     * Encodes the position of an object in the results as an opaque string. The token also records the
+     * sort property and direction, so that it cannot be used with a different sort order.
+     * @param object the last object of a page.
+     * @return the token.
+     */
+    protected String encodeContinuationToken(Object object) {
+        JSONArray array = new JSONArray();
+        array.put(StringUtils.defaultString(sortProperty));
+        array.put(isKeysetAscending());
+        for(PropertyAccessor property : getKeysetProperties()) {
+            array.put(keysetValueToString(property.get(object)));
+        }
+        byte[] bytes = array.toString().getBytes(Charsets.UTF_8);
+        return BaseEncoding.base64Url().omitPadding().encode(bytes);
+    }
+
+    /**
+     * Decodes a continuation token produced by {@link #encodeContinuationToken(Object)}.
+     * @param token the token.
+     * @return the values of the keyset properties.
+     * @throws IllegalArgumentException if the token is not valid for the current sort order.
+     */
+    protected Object[] decodeContinuationToken(String token) {
+        PropertyAccessor[] keysetProperties = getKeysetProperties();
+        JSONArray array;
+        try {
+            byte[] bytes = BaseEncoding.base64Url().omitPadding().decode(token);
+            array = new JSONArray(new String(bytes, Charsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+        if(array.length() != keysetProperties.length + 2 ||
+           !StringUtils.defaultString(sortProperty).equals(array.optString(0)) ||
+           array.optBoolean(1) != isKeysetAscending()) {
+            throw new IllegalArgumentException("Continuation token does not match the requested sort order");
+        }
+        Object[] values = new Object[keysetProperties.length];
+        for(int i = 0; i < keysetProperties.length; i++) {
+            values[i] = keysetValueFromString(array.optString(i + 2), keysetProperties[i].getType());
+        }
+        return values;
+    }
+
+    protected String keysetValueToString(Object value) {
+        if(value instanceof Timestamp) {
+            return value.toString();
+        } else if(value instanceof Date) {
+            return Long.toString(((Date) value).getTime());
+        } else {
+            return (String) OgnlUtils.convertValue(value, String.class);
+        }
+    }
+
+    protected Object keysetValueFromString(String value, Class type) {
+        try {
+            if(Timestamp.class.isAssignableFrom(type)) {
+                return Timestamp.valueOf(value);
+            } else if(Date.class.isAssignableFrom(type)) {
+                return type.getConstructor(long.class).newInstance(Long.parseLong(value));
+            } else {
+                return OgnlUtils.convertValue(value, type);
             }
-            SelectExpressionItem item = (SelectExpressionItem) items.get(0);
-            Function function = new Function();
-            function.setName("count");
-            function.setParameters(new ExpressionList(Arrays.asList(item.getExpression())));
-            item.setExpression(function);
-            plainSelect.setOrderByElements(null);
-            return plainSelect.toString();
-        } catch(Exception e) {
-            logger.debug("Query string {} does not contain select", e);
-            queryString = "SELECT count(*) " + queryString;
-            PlainSelect plainSelect =
-                (PlainSelect) ((Select) parserManager.parse(new StringReader(queryString))).getSelectBody();
-            plainSelect.setOrderByElements(null);
-            return plainSelect.toString();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+
+    /**
+     * Estimates the number of rows in the base table using the database statistics.
+     * @return the estimate, or null if not available.
+     */
+    protected Long estimateRowCount() {
+        Database database = baseTable.getSchema().getDatabase();
+        final DatabasePlatform platform = database.getConnectionProvider().getDatabasePlatform();
+        if(platform == null) {
+            return null;
+        }
+        final Long[] estimate = new Long[1];
+        final boolean[] protectedBySavepoint = new boolean[1];
+        try {
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    //On some databases (e.g. PostgreSQL) a failed statement aborts the whole transaction
+                    Savepoint savepoint = null;
+                    if(!connection.getAutoCommit()) {
+                        savepoint = connection.setSavepoint();
+                    }
+                    protectedBySavepoint[0] = true;
+                    try {
+                        estimate[0] = platform.estimateRowCount(connection, baseTable);
+                    } catch (SQLException e) {
+                        if(savepoint != null) {
+                            connection.rollback(savepoint);
+                        }
+                        throw e;
+                    }
+                    if(savepoint != null) {
+                        try {
+                            connection.releaseSavepoint(savepoint);
+                        } catch (SQLException e) {
+                            //Not supported by all drivers (e.g. Oracle); the savepoint ends with the transaction
+                            logger.debug("Could not release savepoint", e);
+                        }
+                    }
+                }
+            });
+        } catch (HibernateException e) {
+            logger.warn("Could not estimate the number of rows of " + baseTable.getQualifiedName(), e);
+            if(!protectedBySavepoint[0]) {
+                //The savepoint could not be set; start over with a new transaction, like QueryUtils does
+                session.getTransaction().rollback();
+                session.beginTransaction();
+            }
+            return null;
         }
+        return estimate[0];
+    }
+
+    protected String generateCountQuery(String queryString) throws JSQLParserException {
+        return QueryUtils.generateCountQuery(queryString);
     }
 
     @Override
     protected void commitTransaction() {
         session.getTransaction().commit();
+        if(baseTableModified) {
+            baseTableModified = false;
+            if(selectionProviderCache != null) {
+                selectionProviderCache.invalidate(baseTable);
+            }
+            if(countCache != null) {
+                countCache.invalidate(baseTable);
+            }
+        }
     }
 
     @Override
     protected void doSave(Object object) {
         try {
             session.save(baseTable.getActualEntityName(), object);
+            baseTableModified = true;
         } catch(ConstraintViolationException e) {
             logger.warn("Constraint violation in save", e);
             throw new RuntimeException(ElementsThreadLocals.getText("save.failed.because.constraint.violated"));
@@ -185,6 +507,7 @@ public class CrudAction extends AbstractCrudAction<Object> {
     protected void doUpdate(Object object) {
         try {
             session.update(baseTable.getActualEntityName(), object);
+            baseTableModified = true;
         } catch(ConstraintViolationException e) {
             logger.warn("Constraint violation in update", e);
             throw new RuntimeException(ElementsThreadLocals.getText("save.failed.because.constraint.violated"));
@@ -194,6 +517,7 @@ public class CrudAction extends AbstractCrudAction<Object> {
     @Override
     protected void doDelete(Object object) {
         session.delete(baseTable.getActualEntityName(), object);
+        baseTableModified = true;
     }
 
     //**************************************************************************
@@ -246,7 +570,7 @@ public class CrudAction extends AbstractCrudAction<Object> {
             return null;
         }
 
-        return new TableAccessor(baseTable);
+        return persistence.getTableAccessor(baseTable);
     }
 
     //**************************************************************************
@@ -257,19 +581,24 @@ public class CrudAction extends AbstractCrudAction<Object> {
         //Se si passano dati sbagliati al criterio restituisco messaggio d'errore
         // ma nessun risultato
         try {
-            TableCriteria criteria = new TableCriteria(baseTable);
-            if(searchForm != null) {
-                searchForm.configureCriteria(criteria);
-            }
-            if(!StringUtils.isBlank(sortProperty) && !StringUtils.isBlank(sortDirection)) {
-                try {
-                    PropertyAccessor orderByProperty = classAccessor.getProperty(sortProperty);
-                    criteria.orderBy(orderByProperty, sortDirection);
-                } catch (NoSuchFieldException e) {
-                    logger.error("Can't order by " + sortProperty + ", property accessor not found", e);
+            TableCriteria criteria = createSearchCriteria();
+            configureFetchedRelationships(criteria);
+            boolean continuationTokenNeeded = isContinuationTokenNeeded();
+            if(maxResults != null &&
+               (continuationTokenNeeded ||
+                getCrudConfiguration().getActualCountStrategy() == CountStrategy.NEXT_PAGE)) {
+                //Load one more object to find out whether there is a next page
+                objects = QueryUtils.getObjects(session, getBaseQuery(), criteria, this, firstResult, maxResults + 1);
+                nextPageAvailable = objects.size() > maxResults;
+                if(nextPageAvailable) {
+                    if(continuationTokenNeeded) {
+                        nextContinuationToken = encodeContinuationToken(objects.get(maxResults - 1));
+                    }
+                    objects = new ArrayList<Object>(objects.subList(0, maxResults));
                 }
+            } else {
+                objects = QueryUtils.getObjects(session, getBaseQuery(), criteria, this, firstResult, maxResults);
             }
-            objects = QueryUtils.getObjects(session, getBaseQuery(), criteria, this, firstResult, maxResults);
         } catch (ClassCastException e) {
             objects=new ArrayList<Object>();
             logger.warn("Incorrect Field Type", e);
@@ -277,6 +606,219 @@ public class CrudAction extends AbstractCrudAction<Object> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>This implementation reads the objects from a database cursor, evicting them from the session once
+     * a chunk of {@link #JSON_SEARCH_CHUNK_SIZE} objects has been processed. If the objects have already been
+     * loaded, or a subclass overrides {@link #loadObjects()}, they are loaded with {@link #loadObjects()}
+     * instead. With keyset pagination, the first object after the page is read too, and the continuation
+     * token of the next page is computed from the last object of the page when the iteration ends.</p>
+     */
+    @Override
+    protected Iterator<?> loadObjectsIterator() {
+        if(objects != null) {
+            //Already loaded, e.g. to find out whether there is a next page
+            return objects.iterator();
+        }
+        if(isOverridden("loadObjects")) {
+            return super.loadObjectsIterator();
+        }
+        try {
+            TableCriteria criteria = createSearchCriteria();
+            configureFetchedRelationships(criteria);
+            if(isContinuationTokenNeeded()) {
+                return new KeysetPageIterator(QueryUtils.scrollObjects(
+                        session, getBaseQuery(), criteria, this, firstResult, maxResults + 1, JSON_SEARCH_CHUNK_SIZE));
+            }
+            return QueryUtils.scrollObjects(
+                    session, getBaseQuery(), criteria, this, firstResult, maxResults, JSON_SEARCH_CHUNK_SIZE);
+        } catch (ClassCastException e) {
+            logger.warn("Incorrect Field Type", e);
+            return Collections.emptyList().iterator();
+        }
+    }
+
+    /**
+     * Iterates over a page of objects loaded together with the first object after it (see
+     * {@link #loadObjectsIterator()}). The extra object is not returned: if it exists, the continuation
+     * token of the next page is computed from the last object of the page.
+     */
+    protected class KeysetPageIterator implements Iterator<Object>, Closeable {
+
+        protected final Iterator<?> iterator;
+        protected final int pageSize;
+        protected int returned;
+        protected Object last;
+
+        public KeysetPageIterator(Iterator<?> iterator) {
+            this.iterator = iterator;
+            this.pageSize = maxResults;
+        }
+
+        public boolean hasNext() {
+            if(returned < pageSize) {
+                return iterator.hasNext();
+            }
+            if(last != null) {
+                //Encode it before reading the next object, which may evict it from the session
+                String token = encodeContinuationToken(last);
+                last = null;
+                if(iterator.hasNext()) {
+                    nextContinuationToken = token;
+                }
+            }
+            return false;
+        }
+
+        public Object next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = iterator.next();
+            returned++;
+            return last;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            if(iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+    }
+
+    /**
+     * Returns the many-to-one relationships that are loaded together with the objects, using a join, so that
+     * the labels of the results table can be computed from them rather than with a separate query (see
+     * {@link #prepareTableFormRows(List)}). By default, if enabled in the configuration, they are the
+     * single-column relationships that are shown in the table and labeled with their own selection provider.
+     * @return the relationships to fetch.
+     */
+    protected List<ForeignKey> getFetchedRelationships() {
+        if(!getCrudConfiguration().isFetchRelationships() || selectionProviderSupport == null) {
+            return Collections.emptyList();
+        }
+        List<ForeignKey> relationships = new ArrayList<ForeignKey>();
+        for(ForeignKey relationship : baseTable.getForeignKeys()) {
+            if(relationship.getToTable() == null ||
+               !relationship.getToTable().getDatabaseName().equals(baseTable.getDatabaseName()) ||
+               relationship.getReferences().size() != 1) {
+                continue;
+            }
+            PropertyAccessor property = getFromPropertyAccessor(relationship);
+            InSummary inSummaryAnnotation = property != null ? property.getAnnotation(InSummary.class) : null;
+            if(inSummaryAnnotation == null || !inSummaryAnnotation.value()) {
+                continue;
+            }
+            for(CrudSelectionProvider current : selectionProviderSupport.getCrudSelectionProviders()) {
+                SelectionProvider selectionProvider = current.getSelectionProvider();
+                if(selectionProvider != null &&
+                   relationship.getName().equals(selectionProvider.getName()) &&
+                   Arrays.equals(new String[] { property.getName() }, current.getFieldNames())) {
+                    relationships.add(relationship);
+                    break;
+                }
+            }
+        }
+        return relationships;
+    }
+
+    /**
+     * Adds a join fetch to the criteria for each of the {@link #getFetchedRelationships() fetched relationships}.
+     */
+    protected void configureFetchedRelationships(TableCriteria criteria) {
+        for(ForeignKey relationship : getFetchedRelationships()) {
+            criteria.fetch(relationship.getActualOnePropertyName());
+        }
+    }
+
+    protected PropertyAccessor getFromPropertyAccessor(ForeignKey relationship) {
+        Column column = relationship.getReferences().get(0).getActualFromColumn();
+        if(column == null) {
+            return null;
+        }
+        try {
+            return classAccessor.getProperty(column.getActualPropertyName());
+        } catch (NoSuchFieldException e) {
+            //Not mapped
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The fields of the {@link #getFetchedRelationships() fetched relationships} get a selection provider
+     * of their own, filled by {@link #prepareTableFormRows(List)}.</p>
+     */
+    @Override
+    protected void configureTableFormSelectionProviders(TableFormBuilder tableFormBuilder) {
+        super.configureTableFormSelectionProviders(tableFormBuilder);
+        fetchedRelationshipSelectionProviders = new HashMap<ForeignKey, DefaultSelectionProvider>();
+        fetchedRelationshipValues = HashMultimap.create();
+        for(ForeignKey relationship : getFetchedRelationships()) {
+            DefaultSelectionProvider selectionProvider = new DefaultSelectionProvider(relationship.getName());
+            tableFormBuilder.configSelectionProvider(selectionProvider, getFromPropertyAccessor(relationship).getName());
+            fetchedRelationshipSelectionProviders.put(relationship, selectionProvider);
+        }
+    }
+
+    /**
+     * Computes the labels of the fetched relationships from the related objects, that have been loaded with
+     * the objects themselves. If the query could not be join-fetched, the related objects are loaded in
+     * batches of hibernate.default_batch_fetch_size.
+     */
+    @Override
+    protected void prepareTableFormRows(List<?> objects) {
+        if(fetchedRelationshipSelectionProviders == null) {
+            return;
+        }
+        for(Map.Entry<ForeignKey, DefaultSelectionProvider> entry : fetchedRelationshipSelectionProviders.entrySet()) {
+            ForeignKey relationship = entry.getKey();
+            DefaultSelectionProvider selectionProvider = entry.getValue();
+            PropertyAccessor fromProperty = getFromPropertyAccessor(relationship);
+            TableAccessor toTableAccessor = persistence.getTableAccessor(relationship.getToTable());
+            String onePropertyName = relationship.getActualOnePropertyName();
+            for(Object object : objects) {
+                Object value = fromProperty.get(object);
+                if(value == null || !(object instanceof Map) ||
+                   !fetchedRelationshipValues.put(relationship, value)) {
+                    continue;
+                }
+                Object related = ((Map) object).get(onePropertyName);
+                if(related != null) {
+                    selectionProvider.appendRow(value, ShortNameUtils.getName(toTableAccessor, related), true);
+                } else {
+                    selectionProvider.ensureActive(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the criteria used to load objects, from the search form and the sort property and direction.
+     * @return the criteria.
+     */
+    protected TableCriteria createSearchCriteria() {
+        TableCriteria criteria = new TableCriteria(baseTable);
+        if(searchForm != null) {
+            searchForm.configureCriteria(criteria);
+        }
+        if(isKeysetPagination()) {
+            configureKeysetCriteria(criteria);
+        } else if(!StringUtils.isBlank(sortProperty) && !StringUtils.isBlank(sortDirection)) {
+            try {
+                PropertyAccessor orderByProperty = classAccessor.getProperty(sortProperty);
+                criteria.orderBy(orderByProperty, sortDirection);
+            } catch (NoSuchFieldException e) {
+                logger.error("Can't order by " + sortProperty + ", property accessor not found", e);
+            }
+        }
+        return criteria;
+    }
+
     /**
      * Computes the query underlying the CRUD action. By default, it returns configuration.query i.e. the HQL query
      * stored in configuration.xml. However, you can override this method to insert your own logic, for example to
@@ -295,6 +837,129 @@ public class CrudAction extends AbstractCrudAction<Object> {
                 getBaseQuery(), this);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>Objects with a single-column primary key are loaded with one query per {@link #BULK_BATCH_SIZE}
+     * objects, restricted by the base query. Otherwise, or if {@link #loadObjectByPrimaryKey(Serializable)}
+     * has been overridden, objects are loaded one by one.</p>
+     */
+    @Override
+    protected List<Object> loadObjectsByPrimaryKeys(List<Serializable> pkObjects) {
+        PropertyAccessor[] keyProperties = classAccessor.getKeyProperties();
+        if(keyProperties.length != 1 || isOverridden("loadObjectByPrimaryKey", Serializable.class)) {
+            return super.loadObjectsByPrimaryKeys(pkObjects);
+        }
+        PropertyAccessor keyProperty = keyProperties[0];
+        List<Object> result = new ArrayList<Object>(pkObjects.size());
+        for(int i = 0; i < pkObjects.size(); i += BULK_BATCH_SIZE) {
+            List<Serializable> batch = pkObjects.subList(i, Math.min(i + BULK_BATCH_SIZE, pkObjects.size()));
+            Object[] keys = new Object[batch.size()];
+            for(int j = 0; j < keys.length; j++) {
+                keys[j] = keyProperty.get(batch.get(j));
+            }
+            TableCriteria criteria = new TableCriteria(baseTable);
+            criteria.in(keyProperty, keys);
+            result.addAll(QueryUtils.getObjects(session, getBaseQuery(), criteria, this, null, null));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Enabled when none of the delete hooks has been overridden, the table has a single-column primary key,
+     * no blob properties and no associations at all: no foreign keys in the model, no association or collection
+     * mapped by Hibernate (including many-to-many) and no foreign key in the database referencing it.
+     * Otherwise Hibernate cascades and the database constraints are honored by deleting one entity
+     * at a time.</p>
+     */
+    @Override
+    protected boolean isSetBasedBulkDeleteEnabled() {
+        if(classAccessor.getKeyProperties().length != 1 ||
+           !baseTable.getForeignKeys().isEmpty() ||
+           !baseTable.getOneToManyRelationships().isEmpty()) {
+            return false;
+        }
+        for(PropertyAccessor property : classAccessor.getProperties()) {
+            if(property.getAnnotation(FileBlob.class) != null) {
+                return false;
+            }
+        }
+        if(isOverridden("deleteValidate", Object.class) ||
+           isOverridden("doDelete", Object.class) ||
+           isOverridden("deletePostProcess", Object.class)) {
+            return false;
+        }
+        return !hasMappedAssociations() && !isReferencedInDatabase();
+    }
+
+    /**
+     * Whether the Hibernate mapping of the base table has any association or collection property.
+     */
+    protected boolean hasMappedAssociations() {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(baseTable.getActualEntityName());
+        if(metadata == null) {
+            return true;
+        }
+        for(Type type : metadata.getPropertyTypes()) {
+            if(type.isAssociationType() || type.isCollectionType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the database reports foreign keys referencing the base table, including those that are not
+     * part of the model. If the metadata cannot be read, the table is assumed to be referenced.
+     */
+    protected boolean isReferencedInDatabase() {
+        final boolean[] referenced = { true };
+        try {
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    ResultSet rs = connection.getMetaData().getExportedKeys(
+                            baseTable.getSchema().getCatalog(), baseTable.getSchemaName(), baseTable.getTableName());
+                    try {
+                        referenced[0] = rs.next();
+                    } finally {
+                        rs.close();
+                    }
+                }
+            });
+        } catch (HibernateException e) {
+            logger.debug("Could not read the foreign keys referencing " + baseTable.getQualifiedName(), e);
+        }
+        return referenced[0];
+    }
+
+    /**
+     * Deletes the objects with HQL DELETE statements, each covering up to {@link #BULK_BATCH_SIZE} objects.
+     * The objects have already been loaded through the base query, so they are known to be accessible.
+     */
+    @Override
+    protected void doBulkDelete(List<Object> objects) {
+        PropertyAccessor keyProperty = classAccessor.getKeyProperties()[0];
+        String hql = "delete from " + baseTable.getActualEntityName() + " where " + keyProperty.getName() + " in (:keys)";
+        for(int i = 0; i < objects.size(); i += BULK_BATCH_SIZE) {
+            List<Object> batch = objects.subList(i, Math.min(i + BULK_BATCH_SIZE, objects.size()));
+            List<Object> keys = new ArrayList<Object>(batch.size());
+            for(Object object : batch) {
+                keys.add(keyProperty.get(object));
+                session.evict(object);
+            }
+            session.createQuery(hql).setParameterList("keys", keys).executeUpdate();
+        }
+        baseTableModified = true;
+    }
+
+    /**
+     * Whether a subclass (e.g. the Groovy script of the page) overrides a method of this class.
+     */
+    protected boolean isOverridden(String methodName, Class<?>... parameterTypes) {
+        return ReflectionUtil.isOverridden(getClass(), CrudAction.class, methodName, parameterTypes);
+    }
+
     //**************************************************************************
     // Configuration
     //**************************************************************************
@@ -20,19 +20,24 @@
 
 package com.manydesigns.portofino.pageactions.crud;
 
+import com.google.common.cache.Cache;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.manydesigns.elements.ElementsProperties;
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.elements.annotations.ShortName;
+import com.manydesigns.elements.fields.search.TextMatchMode;
 import com.manydesigns.elements.options.DefaultSelectionProvider;
 import com.manydesigns.elements.options.DisplayMode;
 import com.manydesigns.elements.options.SearchDisplayMode;
 import com.manydesigns.elements.options.SelectionProvider;
+import com.manydesigns.elements.reflection.PropertyAccessor;
 import com.manydesigns.elements.text.OgnlSqlFormat;
 import com.manydesigns.elements.text.OgnlTextFormat;
 import com.manydesigns.elements.text.QueryStringWithParameters;
 import com.manydesigns.elements.text.TextFormat;
 import com.manydesigns.portofino.pageactions.crud.configuration.database.SelectionProviderReference;
+import com.manydesigns.portofino.persistence.LazySelectionProvider;
 import com.manydesigns.portofino.persistence.Persistence;
 import com.manydesigns.portofino.persistence.QueryUtils;
 import com.manydesigns.portofino.logic.SelectionProviderLogic;
@@ -62,6 +67,8 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
     public static final Logger logger =
             LoggerFactory.getLogger(ModelSelectionProviderSupport.class);
 
+    public static final int DEFAULT_LAZY_MAX_RESULTS = 100;
+
     protected final CrudAction crudAction;
     protected final Persistence persistence;
     protected List<CrudSelectionProvider> crudSelectionProviders;
@@ -148,8 +155,14 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
             SearchDisplayMode sdm = ref != null ? ref.getSearchDisplayMode() : SearchDisplayMode.DROPDOWN;
             String newHref = ref != null ? ref.getCreateNewValueHref() : null;
             String newText = ref != null ? ref.getCreateNewValueText() : null;
-            SelectionProvider selectionProvider = createSelectionProvider
-                    (current, fieldNames, fieldTypes, dm, sdm, newHref, newText);
+            SelectionProvider selectionProvider = null;
+            if(ref != null && ref.isLazy() && isAnyPropertyEnabled(fieldNames)) {
+                selectionProvider = createLazySelectionProvider(current, fieldNames, ref, newHref, newText);
+            }
+            if(selectionProvider == null) {
+                selectionProvider = createSelectionProvider
+                        (current, fieldNames, fieldTypes, dm, sdm, newHref, newText);
+            }
 
             CrudSelectionProvider crudSelectionProvider =
                 new CrudSelectionProvider(selectionProvider, fieldNames);
@@ -171,16 +184,7 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
              String newHref, String newText) {
         DefaultSelectionProvider selectionProvider;
 
-        boolean anyActiveProperty = false;
-        for(String propertyName : fieldNames) {
-            CrudProperty crudProperty =
-                    findProperty(propertyName, crudAction.getCrudConfiguration().getProperties());
-            if(crudProperty != null && crudProperty.isEnabled()) {
-                anyActiveProperty = true;
-                break;
-            }
-        }
-        if(!anyActiveProperty) {
+        if(!isAnyPropertyEnabled(fieldNames)) {
             //Dummy
             selectionProvider = SelectionProviderLogic.createSelectionProvider(
                     current.getName(), 0, new Class[0], Collections.<Object[]>emptyList());
@@ -188,21 +192,41 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
             selectionProvider = createSelectionProvider(current, fieldNames, fieldTypes, dm, sdm);
         }
         if(selectionProvider != null) {
-            if(newHref != null) {
-                OgnlTextFormat tf = new OgnlTextFormat(newHref);
-                newHref = tf.format(crudAction);
-                String contextPath = ElementsThreadLocals.getHttpServletRequest().getContextPath();
-                if(newHref.startsWith("/") && !newHref.startsWith(contextPath)) {
-                    newHref = contextPath + newHref;
-                }
+            selectionProvider.setCreateNewValueHref(formatCreateNewValueHref(newHref));
+            selectionProvider.setCreateNewValueText(formatCreateNewValueText(newHref, newText));
+        }
+        return selectionProvider;
+    }
 
-                tf = new OgnlTextFormat(newText);
-                newText = tf.format(crudAction);
+    protected boolean isAnyPropertyEnabled(String[] fieldNames) {
+        for(String propertyName : fieldNames) {
+            CrudProperty crudProperty =
+                    findProperty(propertyName, crudAction.getCrudConfiguration().getProperties());
+            if(crudProperty != null && crudProperty.isEnabled()) {
+                return true;
             }
-            selectionProvider.setCreateNewValueHref(newHref);
-            selectionProvider.setCreateNewValueText(newText);
         }
-        return selectionProvider;
+        return false;
+    }
+
+    protected String formatCreateNewValueHref(String newHref) {
+        if(newHref == null) {
+            return null;
+        }
+        OgnlTextFormat tf = new OgnlTextFormat(newHref);
+        newHref = tf.format(crudAction);
+        String contextPath = ElementsThreadLocals.getHttpServletRequest().getContextPath();
+        if(newHref.startsWith("/") && !newHref.startsWith(contextPath)) {
+            newHref = contextPath + newHref;
+        }
+        return newHref;
+    }
+
+    protected String formatCreateNewValueText(String newHref, String newText) {
+        if(newHref == null) {
+            return newText;
+        }
+        return new OgnlTextFormat(newText).format(crudAction);
     }
 
     public List<CrudSelectionProvider> getCrudSelectionProviders() {
@@ -307,35 +331,33 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
             String entityName = table.getActualEntityName();
             Session session = persistence.getSession(databaseName);
             QueryStringWithParameters queryWithParameters = QueryUtils.mergeQuery(hql, null, this);
-
-            Collection<Object> objects = getFromQueryCache(current, queryWithParameters);
-            if(objects == null) {
-                String queryString = queryWithParameters.getQueryString();
-                Object[] parameters = queryWithParameters.getParameters();
-                logger.debug("Query not in cache: {}", queryString);
-                try {
-                    objects = QueryUtils.runHqlQuery(session, queryString, parameters);
-                } catch (Exception e) {
-                    logger.error("Exception in populating selection provider " + name, e);
-                    return null;
-                }
-                putInQueryCache(current, queryWithParameters, objects);
-            }
-
             TableAccessor tableAccessor =
                     persistence.getTableAccessor(databaseName, entityName);
-            ShortName shortNameAnnotation =
-                    tableAccessor.getAnnotation(ShortName.class);
-            TextFormat[] textFormats = null;
-            //L'ordinamento e' usato solo in caso di chiave singola
-            if (shortNameAnnotation != null && tableAccessor.getKeyProperties().length == 1) {
-                textFormats = new TextFormat[] {
-                    OgnlTextFormat.create(shortNameAnnotation.value())
-                };
-            }
 
-            selectionProvider = SelectionProviderLogic.createSelectionProvider
-                    (name, objects, tableAccessor.getKeyProperties(), textFormats);
+            //Labels are computed while the entities are attached to the session, so the rows are cached, not
+            //the entities. A custom cache may still return the entities themselves.
+            Collection<?> objects = getFromQueryCache(current, queryWithParameters);
+            if(objects != null && isRows(objects)) {
+                selectionProvider = new DefaultSelectionProvider(
+                        name, tableAccessor.getKeyProperties().length,
+                        copyRows((Collection<DefaultSelectionProvider.Row>) objects));
+            } else {
+                if(objects == null) {
+                    String queryString = queryWithParameters.getQueryString();
+                    Object[] parameters = queryWithParameters.getParameters();
+                    logger.debug("Query not in cache: {}", queryString);
+                    try {
+                        objects = QueryUtils.runHqlQuery(session, queryString, parameters);
+                    } catch (Exception e) {
+                        logger.error("Exception in populating selection provider " + name, e);
+                        return null;
+                    }
+                }
+                TextFormat[] textFormats = getTextFormats(tableAccessor);
+                selectionProvider = SelectionProviderLogic.createSelectionProvider
+                        (name, (Collection<Object>) objects, tableAccessor.getKeyProperties(), textFormats);
+                putInQueryCache(current, queryWithParameters, copyRows(selectionProvider.getRows()));
+            }
             selectionProvider.setDisplayMode(dm);
             selectionProvider.setSearchDisplayMode(sdm);
 
@@ -348,11 +370,224 @@ public class ModelSelectionProviderSupport implements SelectionProviderSupport {
         return selectionProvider;
     }
 
+    /**
+     * Creates a selection provider that queries its options on demand, rather than loading them all in memory.
+     * Only single-field, HQL-based selection providers whose labels can be searched on a string property of
+     * the target entity are supported. Lazy selection providers only offer the first options unless the user
+     * searches them, so they are always displayed with autocompletion, whatever the configured display modes.
+     * @return the selection provider, or null if a lazy selection provider cannot be used and the
+     * default one should be created instead.
+     */
+    protected LazySelectionProvider createLazySelectionProvider(
+            DatabaseSelectionProvider current, String[] fieldNames, SelectionProviderReference ref,
+            String newHref, String newText) {
+        String name = current.getName();
+        String hql = current.getHql();
+        if(fieldNames.length != 1 || StringUtils.isEmpty(hql) || !StringUtils.isEmpty(current.getSql())) {
+            logger.warn("Selection provider {} cannot be lazy, only single-field HQL selection providers are supported",
+                        name);
+            return null;
+        }
+        String databaseName = current.getToDatabase();
+        Database database = DatabaseLogic.findDatabaseByName(persistence.getModel(), databaseName);
+        Table table = QueryUtils.getTableFromQueryString(database, hql);
+        if(table == null) {
+            return null;
+        }
+        TableAccessor tableAccessor = persistence.getTableAccessor(databaseName, table.getActualEntityName());
+        if(tableAccessor.getKeyProperties().length != 1) {
+            logger.warn("Selection provider {} cannot be lazy, its entity has a composite key", name);
+            return null;
+        }
+        PropertyAccessor keyProperty = tableAccessor.getKeyProperties()[0];
+        ShortName shortNameAnnotation = tableAccessor.getAnnotation(ShortName.class);
+        OgnlTextFormat textFormat = null;
+        PropertyAccessor searchProperty = null;
+        if(shortNameAnnotation != null) {
+            textFormat = OgnlTextFormat.create(shortNameAnnotation.value());
+            //Search on the first string property that appears in the label
+            for(String expression : textFormat.getOgnlExpressions()) {
+                try {
+                    PropertyAccessor property = tableAccessor.getProperty(expression.trim());
+                    if(String.class == property.getType()) {
+                        searchProperty = property;
+                        break;
+                    }
+                } catch (NoSuchFieldException e) {
+                    //Not a simple property, skip
+                }
+            }
+        }
+        if(searchProperty == null && String.class == keyProperty.getType()) {
+            searchProperty = keyProperty;
+        }
+        if(searchProperty == null) {
+            logger.warn("Selection provider {} cannot be lazy, its labels cannot be searched in the database", name);
+            return null;
+        }
+        int maxResults = ElementsProperties.getConfiguration().getInt(
+                ElementsProperties.OPTIONS_LABEL_SEARCH_MAX_RESULTS, DEFAULT_LAZY_MAX_RESULTS);
+        if(maxResults <= 0) {
+            maxResults = DEFAULT_LAZY_MAX_RESULTS;
+        }
+        Session session = persistence.getSession(databaseName);
+        LazySelectionProvider selectionProvider = new LazySelectionProvider(
+                name, session, table, hql, this, keyProperty, searchProperty, textFormat, maxResults);
+        if(ref.getDisplayMode() != DisplayMode.AUTOCOMPLETE ||
+           ref.getSearchDisplayMode() != SearchDisplayMode.AUTOCOMPLETE) {
+            logger.warn("Selection provider {} is lazy, displaying it with autocompletion instead of {}/{}",
+                        name, ref.getDisplayMode(), ref.getSearchDisplayMode());
+        }
+        if(ref.isLazyContainsSearch()) {
+            selectionProvider.setLabelSearchMatchMode(TextMatchMode.CONTAINS);
+        }
+        selectionProvider.setCreateNewValueHref(formatCreateNewValueHref(newHref));
+        selectionProvider.setCreateNewValueText(formatCreateNewValueText(newHref, newText));
+        return selectionProvider;
+    }
+
+    @Nullable
+    protected TextFormat[] getTextFormats(TableAccessor tableAccessor) {
+        ShortName shortNameAnnotation =
+                tableAccessor.getAnnotation(ShortName.class);
+        //L'ordinamento e' usato solo in caso di chiave singola
+        if (shortNameAnnotation != null && tableAccessor.getKeyProperties().length == 1) {
+            return new TextFormat[] {
+                OgnlTextFormat.create(shortNameAnnotation.value())
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Stores the results of a selection provider's query in the cache region of the selection provider (see
+     * {@link #getQueryCache(DatabaseSelectionProvider)}). Override to use a different cache.
+     * @param sp the selection provider.
+     * @param queryWithParameters the query and its parameters.
+     * @param objects the results of the query: arrays of values for SQL selection providers; for HQL selection
+     *                providers, the {@link DefaultSelectionProvider.Row rows} computed from the entities.
+     */
     protected void putInQueryCache(
-            DatabaseSelectionProvider sp, QueryStringWithParameters queryWithParameters, Collection objects) {}
+            DatabaseSelectionProvider sp, QueryStringWithParameters queryWithParameters, Collection objects) {
+        Cache<QueryStringWithParameters, Collection> queryCache = getQueryCache(sp);
+        if(queryCache != null) {
+            queryCache.put(queryWithParameters, Collections.unmodifiableCollection(objects));
+        }
+    }
 
+    /**
+     * Returns the cached results of a selection provider's query, as stored by
+     * {@link #putInQueryCache(DatabaseSelectionProvider, QueryStringWithParameters, Collection)}.
+     * @return the results, or null if they aren't cached.
+     */
     protected Collection getFromQueryCache(
             DatabaseSelectionProvider sp, QueryStringWithParameters queryWithParameters) {
-        return null;
+        Cache<QueryStringWithParameters, Collection> queryCache = getQueryCache(sp);
+        return queryCache != null ? queryCache.getIfPresent(queryWithParameters) : null;
+    }
+
+    protected static boolean isRows(Collection<?> objects) {
+        return !objects.isEmpty() && objects.iterator().next() instanceof DefaultSelectionProvider.Row;
+    }
+
+    /**
+     * Copies rows, so that a selection provider and the cache don't share them.
+     */
+    protected static List<DefaultSelectionProvider.Row> copyRows(Collection<DefaultSelectionProvider.Row> rows) {
+        List<DefaultSelectionProvider.Row> copy = new ArrayList<DefaultSelectionProvider.Row>(rows.size());
+        for(DefaultSelectionProvider.Row row : rows) {
+            copy.add(copyRow(row));
+        }
+        return copy;
+    }
+
+    protected static DefaultSelectionProvider.Row copyRow(DefaultSelectionProvider.Row row) {
+        return new DefaultSelectionProvider.Row(row.getValues().clone(), row.getLabels().clone(), row.isActive());
+    }
+
+    /**
+     * Returns the cache region for the given selection provider, using the settings of the corresponding
+     * {@link SelectionProviderReference}, if any.
+     * @param sp the selection provider.
+     * @return the cache region, or null if the results of the selection provider must not be cached.
+     */
+    protected Cache<QueryStringWithParameters, Collection> getQueryCache(DatabaseSelectionProvider sp) {
+        SelectionProviderCache selectionProviderCache = crudAction.selectionProviderCache;
+        if(selectionProviderCache == null) {
+            return null;
+        }
+        Integer timeToLive = null;
+        Long maxRows = null;
+        for(SelectionProviderReference ref : crudAction.getCrudConfiguration().getSelectionProviders()) {
+            if(ref.getActualSelectionProvider() == sp) {
+                timeToLive = ref.getCacheTimeToLive();
+                maxRows = ref.getCacheMaxRows();
+                break;
+            }
+        }
+        Table table = getReadTable(sp);
+        String name = sp.getName();
+        if(sp.getFromTable() != null) {
+            name = sp.getFromTable().getQualifiedName() + "." + name;
+        }
+        return selectionProviderCache.getRegion(name, table, timeToLive, maxRows);
+    }
+
+    /**
+     * Returns the only table whose contents a selection provider depends on, so that its cached rows can be
+     * discarded when that table is written to.
+     * @return the table, or null if the selection provider may read other tables too (SQL queries, HQL joins,
+     * labels that navigate associations), in which case its rows are discarded on every write.
+     */
+    @Nullable
+    protected Table getReadTable(DatabaseSelectionProvider sp) {
+        if(!StringUtils.isEmpty(sp.getSql())) {
+            return null;
+        }
+        Database database = DatabaseLogic.findDatabaseByName(persistence.getModel(), sp.getToDatabase());
+        Table table = sp.getToTable();
+        String hql = sp.getHql();
+        if(!StringUtils.isEmpty(hql)) {
+            if(!readsSingleEntity(hql)) {
+                return null;
+            }
+            if(table == null) {
+                table = QueryUtils.getTableFromQueryString(database, hql);
+            }
+        }
+        if(table == null || database == null) {
+            return null;
+        }
+        TableAccessor tableAccessor =
+                persistence.getTableAccessor(database.getDatabaseName(), table.getActualEntityName());
+        TextFormat[] textFormats = getTextFormats(tableAccessor);
+        if(textFormats != null) {
+            for(String expression : ((OgnlTextFormat) textFormats[0]).getOgnlExpressions()) {
+                if(expression.contains(".")) {
+                    return null;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return true if the given HQL query has a single entity in its from clause and no subqueries.
+     */
+    protected static boolean readsSingleEntity(String hql) {
+        String query = " " + hql.toLowerCase().replaceAll("\\s+", " ") + " ";
+        int from = query.indexOf(" from ");
+        if(from < 0 || query.indexOf(" from ", from + 1) >= 0) {
+            return false;
+        }
+        int end = query.length();
+        for(String clause : new String[] { " where ", " order by ", " group by " }) {
+            int index = query.indexOf(clause, from);
+            if(index >= 0) {
+                end = Math.min(end, index);
+            }
+        }
+        String fromClause = query.substring(from, end);
+        return !fromClause.contains(",") && !fromClause.contains(" join ");
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.pageactions.crud;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.manydesigns.elements.text.QueryStringWithParameters;
+import com.manydesigns.portofino.model.database.Table;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-wide cache of the options (values and labels) of model selection providers. Each selection
+ * provider gets its own region, with its own time to live and maximum number of cached rows. Regions are
+ * associated with the table the selection provider reads from, so that they can be invalidated when
+ * that table is written to; regions of selection providers that may read several tables are invalidated
+ * on every write. Only the writes made through {@link CrudAction} and
+ * {@link com.manydesigns.portofino.pageactions.m2m.ManyToManyAction} are tracked: changes made by other means
+ * (page scripts, other applications, direct SQL) are seen once the cached rows expire, or after a cache reset.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class SelectionProviderCache {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(SelectionProviderCache.class);
+
+    //Configuration properties
+    public static final String SELECTION_PROVIDER_CACHE_TTL = "selection.provider.cache.ttl";
+    public static final String SELECTION_PROVIDER_CACHE_MAX_ROWS = "selection.provider.cache.max.rows";
+
+    protected final int defaultTimeToLive;
+    protected final long defaultMaxRows;
+
+    protected final ConcurrentMap<String, Cache<QueryStringWithParameters, Collection>> regions =
+            new ConcurrentHashMap<String, Cache<QueryStringWithParameters, Collection>>();
+    protected final ConcurrentMap<String, Set<String>> regionsByTable =
+            new ConcurrentHashMap<String, Set<String>>();
+    protected final Set<String> regionsWithUnknownTables = new CopyOnWriteArraySet<String>();
+
+    /**
+     * Creates a new cache.
+     * @param defaultTimeToLive the time to live of cached results, in seconds, for selection providers that
+     *                          don't specify one. If zero or negative, those selection providers are not cached.
+     * @param defaultMaxRows the maximum number of rows held by each region, for selection providers that don't
+     *                       specify it.
+     */
+    public SelectionProviderCache(int defaultTimeToLive, long defaultMaxRows) {
+        this.defaultTimeToLive = defaultTimeToLive;
+        this.defaultMaxRows = defaultMaxRows;
+    }
+
+    /**
+     * Returns the region for a selection provider, creating it if necessary.
+     * @param name the name of the region, usually the qualified name of the selection provider.
+     * @param table the only table read by the selection provider, used for invalidation; null if unknown, or
+     *              if the selection provider may read several tables.
+     * @param timeToLive the time to live of cached results in seconds, or null to use the default.
+     * @param maxRows the maximum number of rows in the region, or null to use the default.
+     * @return the region, or null if results for this selection provider must not be cached.
+     */
+    public Cache<QueryStringWithParameters, Collection> getRegion(
+            String name, @Nullable Table table, @Nullable Integer timeToLive, @Nullable Long maxRows) {
+        int actualTimeToLive = timeToLive != null ? timeToLive : defaultTimeToLive;
+        long actualMaxRows = maxRows != null ? maxRows : defaultMaxRows;
+        if(actualTimeToLive <= 0 || actualMaxRows <= 0) {
+            return null;
+        }
+        //Settings are part of the key so that a configuration change produces a fresh region
+        String key = name + "@" + actualTimeToLive + "/" + actualMaxRows;
+        Cache<QueryStringWithParameters, Collection> region = regions.get(key);
+        if(region == null) {
+            logger.debug("Creating selection provider cache region {}", key);
+            Cache<QueryStringWithParameters, Collection> newRegion = CacheBuilder.newBuilder()
+                    .expireAfterWrite(actualTimeToLive, TimeUnit.SECONDS)
+                    .maximumWeight(actualMaxRows)
+                    .weigher(new Weigher<QueryStringWithParameters, Collection>() {
+                        @Override
+                        public int weigh(QueryStringWithParameters key, Collection value) {
+                            return Math.max(1, value.size());
+                        }
+                    })
+                    .recordStats()
+                    .build();
+            region = regions.putIfAbsent(key, newRegion);
+            if(region == null) {
+                region = newRegion;
+            }
+        }
+        if(table != null) {
+            String tableName = table.getQualifiedName();
+            Set<String> tableRegions = regionsByTable.get(tableName);
+            if(tableRegions == null) {
+                Set<String> newTableRegions = new CopyOnWriteArraySet<String>();
+                tableRegions = regionsByTable.putIfAbsent(tableName, newTableRegions);
+                if(tableRegions == null) {
+                    tableRegions = newTableRegions;
+                }
+            }
+            tableRegions.add(key);
+        } else {
+            regionsWithUnknownTables.add(key);
+        }
+        return region;
+    }
+
+    /**
+     * Discards all the cached results of the selection providers that read from the given table, or that
+     * may read from it.
+     * @param table the table that has been modified.
+     */
+    public void invalidate(Table table) {
+        Set<String> tableRegions = regionsByTable.get(table.getQualifiedName());
+        if(tableRegions != null) {
+            invalidateRegions(tableRegions);
+        }
+        invalidateRegions(regionsWithUnknownTables);
+    }
+
+    protected void invalidateRegions(Set<String> keys) {
+        for(String key : keys) {
+            Cache<QueryStringWithParameters, Collection> region = regions.get(key);
+            if(region != null) {
+                logger.debug("Invalidating selection provider cache region {}", key);
+                region.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Discards all the regions.
+     */
+    public void clear() {
+        regions.clear();
+        regionsByTable.clear();
+        regionsWithUnknownTables.clear();
+    }
+
+    /**
+     * @return the statistics of each region, keyed by region name.
+     */
+    public Map<String, CacheStats> getRegionStats() {
+        Map<String, CacheStats> stats = new TreeMap<String, CacheStats>();
+        for(Map.Entry<String, Cache<QueryStringWithParameters, Collection>> entry : regions.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().stats());
+        }
+        return stats;
+    }
+
+    /**
+     * @return the statistics of all the regions, summed.
+     */
+    public CacheStats getStats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+        for(Cache<QueryStringWithParameters, Collection> region : regions.values()) {
+            stats = stats.plus(region.stats());
+        }
+        return stats;
+    }
+
+    public long getHitCount() {
+        return getStats().hitCount();
+    }
+
+    public long getMissCount() {
+        return getStats().missCount();
+    }
+}
@@ -19,7 +19,7 @@ import java.util.List;
 */
 
 @XmlRootElement(name = "configuration")
-@XmlType(name = "configuration",propOrder = {"name", "searchTitle","createTitle","readTitle","editTitle","variable","largeResultSet","rowsPerPage","columns","useLocalOrder","properties"})
+@XmlType(name = "configuration",propOrder = {"name", "searchTitle","createTitle","readTitle","editTitle","variable","largeResultSet","countStrategy","keysetPagination","rowsPerPage","columns","useLocalOrder","properties"})
 @XmlAccessorType(value = XmlAccessType.NONE)
 public class CrudConfiguration implements PageActionConfiguration, ConfigurationWithDefaults {
     public static final String copyright =
@@ -37,6 +37,8 @@ public class CrudConfiguration implements PageActionConfiguration, Configuration
     protected String editTitle;
     protected String variable;
     protected boolean largeResultSet;
+    protected CountStrategy countStrategy;
+    protected boolean keysetPagination;
     protected boolean useLocalOrder = false;
     protected Integer rowsPerPage;
     protected Integer columns = 1;
@@ -132,6 +134,33 @@ public class CrudConfiguration implements PageActionConfiguration, Configuration
         this.largeResultSet = largeResultSet;
     }
 
+    @XmlAttribute(required = false)
+    public CountStrategy getCountStrategy() {
+        return countStrategy;
+    }
+
+    public void setCountStrategy(CountStrategy countStrategy) {
+        this.countStrategy = countStrategy;
+    }
+
+    @XmlAttribute(required = false)
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    public void setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+    }
+
+    /**
+     * The count strategy actually in use: the configured one for large result sets, {@link CountStrategy#EXACT}
+     * otherwise.
+     * @return the count strategy.
+     */
+    public CountStrategy getActualCountStrategy() {
+        return largeResultSet && countStrategy != null ? countStrategy : CountStrategy.EXACT;
+    }
+
     @CssClass(BootstrapSizes.COL_SM_1)
     @XmlAttribute(required = false)
     public Integer getRowsPerPage() {
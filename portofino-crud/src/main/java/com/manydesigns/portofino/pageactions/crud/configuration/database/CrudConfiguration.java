@@ -45,7 +45,7 @@ import java.util.List;
 */
 
 @XmlRootElement(name = "configuration")
-@XmlType(name = "databaseConfiguration",propOrder = {"database","query","selectionProviders"})
+@XmlType(name = "databaseConfiguration",propOrder = {"database","query","fetchRelationships","selectionProviders"})
 @XmlAccessorType(value = XmlAccessType.NONE)
 public class CrudConfiguration extends com.manydesigns.portofino.pageactions.crud.configuration.CrudConfiguration {
     public static final String copyright =
@@ -59,6 +59,7 @@ public class CrudConfiguration extends com.manydesigns.portofino.pageactions.cru
 
     protected String database;
     protected String query;
+    protected boolean fetchRelationships;
 
     @Inject(DatabaseModule.PERSISTENCE)
     public Persistence persistence;
@@ -144,6 +145,20 @@ public class CrudConfiguration extends com.manydesigns.portofino.pageactions.cru
         this.query = query;
     }
 
+    /**
+     * Whether the many-to-one relationships whose columns are shown in the search results are loaded together
+     * with the results, with a join, and used to label those columns instead of querying their selection
+     * providers.
+     */
+    @XmlAttribute(required = false)
+    public boolean isFetchRelationships() {
+        return fetchRelationships;
+    }
+
+    public void setFetchRelationships(boolean fetchRelationships) {
+        this.fetchRelationships = fetchRelationships;
+    }
+
     @XmlElementWrapper(name="selectionProviders")
     @XmlElements({
           @XmlElement(name="selectionProvider",type=SelectionProviderReference.class)
@@ -40,7 +40,7 @@ import javax.xml.bind.annotation.XmlType;
  * @author Alessio Stalla       - alessio.stalla@manydesigns.com
  */
 @XmlAccessorType(XmlAccessType.NONE)
-@XmlType(propOrder = {"enabled", "selectionProviderName","foreignKeyName","displayModeName","searchDisplayModeName","createNewValueHref","createNewValueText"})
+@XmlType(propOrder = {"enabled", "selectionProviderName","foreignKeyName","displayModeName","searchDisplayModeName","createNewValueHref","createNewValueText","cacheTimeToLive","cacheMaxRows","lazy","lazyContainsSearch"})
 public class SelectionProviderReference {
     public static final String copyright =
             "Copyright (C) 2005-2017 ManyDesigns srl";
@@ -58,6 +58,15 @@ public class SelectionProviderReference {
     protected String createNewValueHref;
     protected String createNewValueText;
 
+    //Query cache settings (seconds, rows); null means application default, a time to live of 0 disables caching
+    protected Integer cacheTimeToLive;
+    protected Long cacheMaxRows;
+
+    //If true, options are queried on demand instead of being loaded all at once
+    protected Boolean lazy;
+    //If true, lazy label searches match anywhere in the label rather than at its start; that requires a full scan
+    protected Boolean lazyContainsSearch;
+
     //**************************************************************************
     // Fields for wire-up
     //**************************************************************************
@@ -184,4 +193,48 @@ public class SelectionProviderReference {
     public void setCreateNewValueText(String createNewValueText) {
         this.createNewValueText = createNewValueText;
     }
+
+    @XmlAttribute(name = "cacheTimeToLive")
+    public Integer getCacheTimeToLive() {
+        return cacheTimeToLive;
+    }
+
+    public void setCacheTimeToLive(Integer cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    @XmlAttribute(name = "cacheMaxRows")
+    public Long getCacheMaxRows() {
+        return cacheMaxRows;
+    }
+
+    public void setCacheMaxRows(Long cacheMaxRows) {
+        this.cacheMaxRows = cacheMaxRows;
+    }
+
+    @XmlAttribute(name = "lazy")
+    public Boolean getLazy() {
+        return lazy;
+    }
+
+    public void setLazy(Boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy != null && lazy;
+    }
+
+    @XmlAttribute(name = "lazyContainsSearch")
+    public Boolean getLazyContainsSearch() {
+        return lazyContainsSearch;
+    }
+
+    public void setLazyContainsSearch(Boolean lazyContainsSearch) {
+        this.lazyContainsSearch = lazyContainsSearch;
+    }
+
+    public boolean isLazyContainsSearch() {
+        return lazyContainsSearch != null && lazyContainsSearch;
+    }
 }
@@ -46,11 +46,14 @@ import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.logic.SecurityLogic;
 import com.manydesigns.portofino.logic.SelectionProviderLogic;
 import com.manydesigns.portofino.model.database.*;
+import com.manydesigns.portofino.modules.CrudModule;
 import com.manydesigns.portofino.modules.DatabaseModule;
 import com.manydesigns.portofino.pageactions.AbstractPageAction;
 import com.manydesigns.portofino.pageactions.PageActionName;
 import com.manydesigns.portofino.pageactions.annotations.ConfigurationClass;
 import com.manydesigns.portofino.pageactions.annotations.ScriptTemplate;
+import com.manydesigns.portofino.pageactions.crud.CountCache;
+import com.manydesigns.portofino.pageactions.crud.SelectionProviderCache;
 import com.manydesigns.portofino.pageactions.m2m.configuration.ManyToManyConfiguration;
 import com.manydesigns.portofino.pageactions.m2m.configuration.SelectionProviderReference;
 import com.manydesigns.portofino.pageactions.m2m.configuration.ViewType;
@@ -100,11 +103,18 @@ public class ManyToManyAction extends AbstractPageAction {
 
     public static final String PERMISSION_UPDATE = "m2m-update";
 
+    /**
+     * The maximum number of keys in a single IN list when deleting associations.
+     */
+    public static final int DELETE_BATCH_SIZE = 500;
+
     protected ManyToManyConfiguration m2mConfiguration;
 
     protected Object onePk;
 
     protected List existingAssociations;
+    //The "many" keys of the existing associations, as strings
+    protected Set<String> existingManyKeys;
     protected List availableAssociations;
     protected List potentiallyAvailableAssociations;
 
@@ -131,6 +141,12 @@ public class ManyToManyAction extends AbstractPageAction {
     @Inject(DatabaseModule.PERSISTENCE)
     public Persistence persistence;
 
+    @Inject(CrudModule.SELECTION_PROVIDER_CACHE)
+    public SelectionProviderCache selectionProviderCache;
+
+    @Inject(CrudModule.COUNT_CACHE)
+    public CountCache countCache;
+
     public Resolution preparePage() {
         if(!pageInstance.getParameters().isEmpty()) {
             return new ErrorResolution(404);
@@ -151,8 +167,8 @@ public class ManyToManyAction extends AbstractPageAction {
             return;
         }
         Table table = m2mConfiguration.getActualRelationTable();
-        relationTableAccessor = new TableAccessor(table);
-        manyTableAccessor = new TableAccessor(m2mConfiguration.getActualManyTable());
+        relationTableAccessor = persistence.getTableAccessor(table);
+        manyTableAccessor = persistence.getTableAccessor(m2mConfiguration.getActualManyTable());
         if(StringUtils.isBlank(m2mConfiguration.getActualOnePropertyName())) {
             logger.error("One property name not set");
             return;
@@ -175,7 +191,8 @@ public class ManyToManyAction extends AbstractPageAction {
                     return;
                 }
 
-                TableAccessor tableAccessor = new TableAccessor(m2mConfiguration.getActualRelationTable());
+                TableAccessor tableAccessor =
+                        persistence.getTableAccessor(m2mConfiguration.getActualRelationTable());
                 PropertyAccessor onePkAccessor = tableAccessor.getProperty(m2mConfiguration.getActualOnePropertyName());
 
                 if(onePkAccessor == null) {
@@ -268,8 +285,14 @@ public class ManyToManyAction extends AbstractPageAction {
             case CHECKBOXES_VERTICAL:
                 booleanRelation = new LinkedHashMap<Object, Boolean>();
                 if(potentiallyAvailableAssociations != null) {
+                    PropertyAccessor manyPkAccessor;
+                    try {
+                        manyPkAccessor = getManyPkAccessor();
+                    } catch (NoSuchFieldException e) {
+                        return forwardToPageActionNotConfigured();
+                    }
                     for(Object o : potentiallyAvailableAssociations) {
-                        booleanRelation.put(o, !availableAssociations.contains(o));
+                        booleanRelation.put(o, isExistingAssociation(manyPkAccessor.get(o)));
                     }
                 }
                 return new ForwardResolution("/m/crud/many2many/checkboxes.jsp");
@@ -278,19 +301,38 @@ public class ManyToManyAction extends AbstractPageAction {
         }
     }
 
+    /**
+     * Loads the existing associations and all the candidate "many" objects, i.e. everything needed to display
+     * the associations.
+     */
     protected void loadAssociations() throws NoSuchFieldException {
+        loadExistingAssociations();
+        availableAssociations = new ArrayList<Object>();
+        SelectionProviderReference manySelectionProvider = m2mConfiguration.getManySelectionProvider();
+        String manyQueryString = ((DatabaseSelectionProvider) manySelectionProvider.getActualSelectionProvider()).getHql();
+        if(manyQueryString == null) {
+            throw new RuntimeException("Couldn't determine many query");
+        }
+        QueryStringWithParameters manyQuery =
+                QueryUtils.mergeQuery(manyQueryString, null, this);
+        potentiallyAvailableAssociations =
+                QueryUtils.runHqlQuery(session, manyQuery.getQueryString(), manyQuery.getParameters());
+        PropertyAccessor manyPkAccessor = getManyPkAccessor();
+        for(Object o : potentiallyAvailableAssociations) {
+            if(!isExistingAssociation(manyPkAccessor.get(o))) {
+                availableAssociations.add(o);
+            }
+        }
+    }
+
+    /**
+     * Loads the existing associations of the current "one" object and indexes them by "many" key. Saving only
+     * needs these, not the whole list of candidates.
+     */
+    protected void loadExistingAssociations() throws NoSuchFieldException {
         Table table = m2mConfiguration.getActualRelationTable();
         TableCriteria criteria = new TableCriteria(table);
-        //TODO chiave multipla
-        String onePropertyName = m2mConfiguration.getActualOnePropertyName();
-        PropertyAccessor onePropertyAccessor =
-                relationTableAccessor.getProperty(onePropertyName);
-        //TODO chiave multipla
-        SelectionProviderReference manySelectionProvider = m2mConfiguration.getManySelectionProvider();
-        String manyPropertyName = manySelectionProvider.getActualSelectionProvider().getReferences().get(0).getActualFromColumn().getActualPropertyName();
-        PropertyAccessor manyPropertyAccessor =
-                relationTableAccessor.getProperty(manyPropertyName);
-        criteria = criteria.eq(onePropertyAccessor, onePk);
+        criteria = criteria.eq(getOnePropertyAccessor(), onePk);
         QueryStringWithParameters queryString;
         try {
             queryString = QueryUtils.mergeQuery(m2mConfiguration.getQuery(), criteria, this);
@@ -300,36 +342,136 @@ public class ManyToManyAction extends AbstractPageAction {
         }
         existingAssociations =
                 QueryUtils.runHqlQuery(session, queryString.getQueryString(), queryString.getParameters());
-        availableAssociations = new ArrayList<Object>();
-        String manyQueryString = ((DatabaseSelectionProvider) manySelectionProvider.getActualSelectionProvider()).getHql();
-        if(manyQueryString == null) {
-            throw new RuntimeException("Couldn't determine many query");
+        PropertyAccessor manyPropertyAccessor = getManyPropertyAccessor();
+        existingManyKeys = new HashSet<String>();
+        for(Object a : existingAssociations) {
+            existingManyKeys.add(toKeyString(manyPropertyAccessor.get(a)));
         }
-        QueryStringWithParameters manyQuery =
-                QueryUtils.mergeQuery(manyQueryString, null, this);
-        potentiallyAvailableAssociations =
-                QueryUtils.runHqlQuery(session, manyQuery.getQueryString(), manyQuery.getParameters());
+    }
+
+    protected boolean isExistingAssociation(Object manyPk) {
+        return manyPk != null && existingManyKeys.contains(toKeyString(manyPk));
+    }
+
+    //Keys are compared in string form, so that e.g. an Integer primary key matches a Long foreign key
+    protected static String toKeyString(Object key) {
+        return (String) OgnlUtils.convertValue(key, String.class);
+    }
+
+    //TODO chiave multipla
+    protected PropertyAccessor getOnePropertyAccessor() throws NoSuchFieldException {
+        return relationTableAccessor.getProperty(m2mConfiguration.getActualOnePropertyName());
+    }
+
+    protected PropertyAccessor getManyPropertyAccessor() throws NoSuchFieldException {
+        String manyPropertyName = m2mConfiguration.getManySelectionProvider().getActualSelectionProvider().getReferences().get(0).getActualFromColumn().getActualPropertyName();
+        return relationTableAccessor.getProperty(manyPropertyName);
+    }
+
+    //TODO handle manyKeyProperties.length > 1
+    protected PropertyAccessor getManyPkAccessor() throws NoSuchFieldException {
         PropertyAccessor[] manyKeyProperties = manyTableAccessor.getKeyProperties();
-        //TODO handle manyKeyProperties.length > 1
-        PropertyAccessor manyPkAccessor = manyTableAccessor.getProperty(manyKeyProperties[0].getName());
-        for(Object o : potentiallyAvailableAssociations) {
-            Object oPk = manyPkAccessor.get(o);
-            boolean existing = isExistingAssociation(manyPropertyAccessor, oPk);
-            if(!existing) {
-                availableAssociations.add(o);
+        return manyTableAccessor.getProperty(manyKeyProperties[0].getName());
+    }
+
+    /**
+     * Makes the existing associations match {@link #selectedPrimaryKeys}: creates the missing ones and deletes
+     * those that are no longer selected. The existing associations must have been loaded already.
+     */
+    protected void synchronizeAssociations() throws NoSuchFieldException {
+        PkHelper pkHelper = new PkHelper(manyTableAccessor);
+        PropertyAccessor onePropertyAccessor = getOnePropertyAccessor();
+        PropertyAccessor manyPropertyAccessor = getManyPropertyAccessor();
+        PropertyAccessor manyPkAccessor = getManyPkAccessor();
+        Map<String, Object> selectedKeys = new LinkedHashMap<String, Object>();
+        for(String pkString : selectedPrimaryKeys) {
+            Serializable pkObject = pkHelper.getPrimaryKey(pkString.split("/"));
+            Object pk = manyPkAccessor.get(pkObject);
+            selectedKeys.put(toKeyString(pk), pk);
+        }
+        for(Map.Entry<String, Object> entry : selectedKeys.entrySet()) {
+            if(!existingManyKeys.contains(entry.getKey())) {
+                Object newRelation = saveNewRelation(entry.getValue(), onePropertyAccessor, manyPropertyAccessor);
+                existingAssociations.add(newRelation);
+                existingManyKeys.add(entry.getKey());
             }
         }
+        List<Object> kept = new ArrayList<Object>(existingAssociations.size());
+        List<Object> removed = new ArrayList<Object>();
+        for(Object o : existingAssociations) {
+            String key = toKeyString(manyPropertyAccessor.get(o));
+            if(selectedKeys.containsKey(key)) {
+                kept.add(o);
+            } else {
+                removed.add(o);
+                existingManyKeys.remove(key);
+            }
+        }
+        if(!removed.isEmpty()) {
+            if(isSetBasedDeleteEnabled()) {
+                deleteRelations(removed, onePropertyAccessor, manyPropertyAccessor);
+            } else {
+                for(Object o : removed) {
+                    deleteRelation(o);
+                }
+            }
+        }
+        existingAssociations = kept;
     }
 
-    private boolean isExistingAssociation(PropertyAccessor manyPropertyAccessor, Object oPk) {
-        boolean existing = false;
-        for(Object a : existingAssociations) {
-            if(oPk.equals(manyPropertyAccessor.get(a))) {
-                existing = true;
-                break;
+    /**
+     * Whether removed associations can be deleted with HQL DELETE statements rather than one by one. This is
+     * not the case if {@link #deleteRelation(Object)} is overridden, or if other tables reference the relation
+     * table.
+     */
+    protected boolean isSetBasedDeleteEnabled() {
+        return m2mConfiguration.getActualRelationTable().getOneToManyRelationships().isEmpty() &&
+               !isOverridden("deleteRelation", Object.class);
+    }
+
+    /**
+     * Deletes associations of the current "one" object with HQL DELETE statements, each covering up to
+     * {@link #DELETE_BATCH_SIZE} associations.
+     */
+    protected void deleteRelations
+            (List<Object> relations, PropertyAccessor onePropertyAccessor, PropertyAccessor manyPropertyAccessor) {
+        String hql =
+                "delete from " + m2mConfiguration.getActualRelationTable().getActualEntityName() +
+                " where " + onePropertyAccessor.getName() + " = :one" +
+                " and " + manyPropertyAccessor.getName() + " in (:many)";
+        for(int i = 0; i < relations.size(); i += DELETE_BATCH_SIZE) {
+            List<Object> batch = relations.subList(i, Math.min(i + DELETE_BATCH_SIZE, relations.size()));
+            Set<Object> keys = new LinkedHashSet<Object>(batch.size());
+            for(Object relation : batch) {
+                keys.add(manyPropertyAccessor.get(relation));
+                session.evict(relation);
             }
+            session.createQuery(hql)
+                    .setParameter("one", onePk)
+                    .setParameterList("many", keys)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Commits the transaction and discards the cached options and counts that depend on the relation table.
+     */
+    protected void commitTransaction() {
+        session.getTransaction().commit();
+        Table relationTable = m2mConfiguration.getActualRelationTable();
+        if(selectionProviderCache != null) {
+            selectionProviderCache.invalidate(relationTable);
+        }
+        if(countCache != null) {
+            countCache.invalidate(relationTable);
         }
-        return existing;
+    }
+
+    /**
+     * Whether a subclass (e.g. the Groovy script of the page) overrides a method of this class.
+     */
+    protected boolean isOverridden(String methodName, Class<?>... parameterTypes) {
+        return ReflectionUtil.isOverridden(getClass(), ManyToManyAction.class, methodName, parameterTypes);
     }
 
     @Button(list = "m2m-checkboxes-edit", key = "save", type = Button.TYPE_PRIMARY)
@@ -340,45 +482,14 @@ public class ManyToManyAction extends AbstractPageAction {
             return forwardToPageActionNotConfigured();
         }
         try {
-            loadAssociations();
+            loadExistingAssociations();
         } catch (Exception e) {
             logger.error("Could not load associations", e);
             SessionMessages.addErrorMessage("Could not save associations");
             return view();
         }
-        PkHelper pkHelper = new PkHelper(manyTableAccessor);
-        //TODO chiave multipla
-        String onePropertyName = m2mConfiguration.getActualOnePropertyName();
-        PropertyAccessor onePropertyAccessor =
-                relationTableAccessor.getProperty(onePropertyName);
-        //TODO chiave multipla
-        String manyPropertyName = m2mConfiguration.getManySelectionProvider().getActualSelectionProvider().getReferences().get(0).getActualFromColumn().getActualPropertyName();
-        PropertyAccessor manyPropertyAccessor =
-                relationTableAccessor.getProperty(manyPropertyName);
-        PropertyAccessor[] manyKeyProperties = manyTableAccessor.getKeyProperties();
-        //TODO handle manyKeyProperties.length > 1
-        PropertyAccessor manyPkAccessor = manyTableAccessor.getProperty(manyKeyProperties[0].getName());
-        for(String pkString : selectedPrimaryKeys) {
-            Serializable pkObject = pkHelper.getPrimaryKey(pkString.split("/"));
-            Object pk = manyPkAccessor.get(pkObject);
-            if(!isExistingAssociation(manyPropertyAccessor, pk)) {
-                Object newRelation = saveNewRelation(pk, onePropertyAccessor, manyPropertyAccessor);
-                existingAssociations.add(newRelation);
-            }
-        }
-        Iterator it = existingAssociations.iterator();
-        while(it.hasNext()) {
-            Object o = it.next();
-            //TODO handle manyKeyProperties.length > 1
-            Object pkObject = manyPropertyAccessor.get(o);
-            String pkString =
-                    (String) OgnlUtils.convertValue(pkObject, String.class);
-            if(!selectedPrimaryKeys.contains(pkString)) {
-                deleteRelation(o);
-                it.remove();
-            }
-        }
-        session.getTransaction().commit();
+        synchronizeAssociations();
+        commitTransaction();
         SessionMessages.addInfoMessage(ElementsThreadLocals.getText("object.updated.successfully"));
         if(oneSelectField != null) {
             session.beginTransaction();
@@ -612,7 +723,7 @@ public class ManyToManyAction extends AbstractPageAction {
     }
 
     protected void loadOnePk(Object key) throws Exception{
-        TableAccessor tableAccessor = new TableAccessor(m2mConfiguration.getActualRelationTable());
+        TableAccessor tableAccessor = persistence.getTableAccessor(m2mConfiguration.getActualRelationTable());
         PropertyAccessor onePkAccessor = tableAccessor.getProperty(m2mConfiguration.getActualOnePropertyName());
 
         if(onePkAccessor == null) {
@@ -656,43 +767,15 @@ public class ManyToManyAction extends AbstractPageAction {
             }
 
             try {
-                loadAssociations();
+                loadExistingAssociations();
             } catch (Exception e) {
                 logger.error("Could not load associations", e);
                 return Response.serverError().entity(e).build();
             }
 
-            PkHelper pkHelper = new PkHelper(manyTableAccessor);
-            //TODO chiave multipla
-            String onePropertyName = m2mConfiguration.getActualOnePropertyName();
-            PropertyAccessor onePropertyAccessor = relationTableAccessor.getProperty(onePropertyName);
-            //TODO chiave multipla
-            String manyPropertyName = m2mConfiguration.getManySelectionProvider().getActualSelectionProvider().getReferences().get(0).getActualFromColumn().getActualPropertyName();
-            PropertyAccessor manyPropertyAccessor = relationTableAccessor.getProperty(manyPropertyName);
-            PropertyAccessor[] manyKeyProperties = manyTableAccessor.getKeyProperties();
-            //TODO handle manyKeyProperties.length > 1
-            PropertyAccessor manyPkAccessor = manyTableAccessor.getProperty(manyKeyProperties[0].getName());
-            for(String pkString : selectedPrimaryKeys) {
-                Serializable pkObject = pkHelper.getPrimaryKey(pkString.split("/"));
-                Object pk = manyPkAccessor.get(pkObject);
-                if(!isExistingAssociation(manyPropertyAccessor, pk)) {
-                    Object newRelation = saveNewRelation(pk, onePropertyAccessor, manyPropertyAccessor);
-                    existingAssociations.add(newRelation);
-                }
-            }
-            Iterator it = existingAssociations.iterator();
-            while(it.hasNext()) {
-                Object o = it.next();
-                //TODO handle manyKeyProperties.length > 1
-                Object pkObject = manyPropertyAccessor.get(o);
-                String pkString = (String) OgnlUtils.convertValue(pkObject, String.class);
-                if(!selectedPrimaryKeys.contains(pkString)) {
-                    deleteRelation(o);
-                    it.remove();
-                }
-            }
+            synchronizeAssociations();
         }
-        session.getTransaction().commit();
+        commitTransaction();
         return objectCreated();
     }
 
@@ -754,6 +837,12 @@ public class ManyToManyAction extends AbstractPageAction {
             if(potentiallyAvailableAssociations != null) {
                 ClassAccessor ca = getManyTableAccessor();
                 PkHelper pkHelper = new PkHelper(ca);
+                PropertyAccessor manyPkAccessor;
+                try {
+                    manyPkAccessor = getManyPkAccessor();
+                } catch (NoSuchFieldException e) {
+                    return forwardToPageActionNotConfigured();
+                }
 
                 for(Object obj : potentiallyAvailableAssociations) {
                     String pk = StringUtils.join(pkHelper.generatePkStringArray(obj), "/");
@@ -761,7 +850,7 @@ public class ManyToManyAction extends AbstractPageAction {
                     titleMap.put(pk,ShortNameUtils.getName(ca, obj));
                     StringUtils.join(pkHelper.generatePkStringArray(obj), "/");
 
-                    if(!availableAssociations.contains(obj)) {
+                    if(isExistingAssociation(manyPkAccessor.get(obj))) {
                         trueRelations.put(pk);
                     }
                 }
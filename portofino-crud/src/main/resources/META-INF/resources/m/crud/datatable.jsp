@@ -41,6 +41,8 @@
         if(totalSearchRecords % rowsPerPage == 0) {
             lastPage--;
         }
+        //If the total is not exact, the last page is unknown
+        boolean exact = actionBean.isTotalSearchRecordsExact();
 
         XhtmlBuffer buf = new XhtmlBuffer(out);
 
@@ -96,7 +98,9 @@
             buf.openElement("a");
             buf.addAttribute("class", "paginator-link");
             buf.addAttribute("href", actionBean.getLinkToPage(pg));
-            buf.addAttribute("title", ElementsThreadLocals.getText("page._.of._", pg + 1, lastPage + 1));
+            if(exact) {
+                buf.addAttribute("title", ElementsThreadLocals.getText("page._.of._", pg + 1, lastPage + 1));
+            }
             buf.write("" + (pg + 1));
             buf.closeElement("a");
             buf.closeElement("li");
@@ -118,6 +122,9 @@
         buf.closeElement("li");
 
         //Last
+        if(!exact) {
+            return;
+        }
         buf.openElement("li");
         if(currentPage == lastPage) {
             buf.addAttribute("class", "disabled");
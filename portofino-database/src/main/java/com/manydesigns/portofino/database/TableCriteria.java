@@ -25,6 +25,9 @@ import com.manydesigns.elements.fields.search.TextMatchMode;
 import com.manydesigns.elements.reflection.PropertyAccessor;
 import com.manydesigns.portofino.model.database.Table;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
 * @author Angelo Lupo          - angelo.lupo@manydesigns.com
@@ -40,6 +43,8 @@ public class TableCriteria extends BaseCriteria {
     //**************************************************************************
 
     protected final Table table;
+    protected final List<OrderBy> secondaryOrderBy = new ArrayList<OrderBy>();
+    protected final List<String> fetchProperties = new ArrayList<String>();
 
 
     //**************************************************************************
@@ -60,6 +65,94 @@ public class TableCriteria extends BaseCriteria {
         return table;
     }
 
+    /**
+     * @return the orderings applied after the main one ({@link #getOrderBy()}), to break ties.
+     */
+    public List<OrderBy> getSecondaryOrderBy() {
+        return secondaryOrderBy;
+    }
+
+    /**
+     * @return the names of the many-to-one relationships to be join-fetched, see {@link #fetch(String)}.
+     */
+    public List<String> getFetchProperties() {
+        return fetchProperties;
+    }
+
+    //**************************************************************************
+    // Fetching
+    //**************************************************************************
+
+    /**
+     * Hints that a many-to-one relationship of the table is going to be accessed on each of the results, so
+     * it should be loaded together with them using a join, rather than with one query per row. Only to-one
+     * relationships should be fetched this way, as fetching collections is incompatible with paging.
+     * The hint is ignored if it cannot be applied to the query the criteria are merged with.
+     * @param propertyName the name of the relationship property (see
+     * {@link com.manydesigns.portofino.model.database.ForeignKey#getActualOnePropertyName()}).
+     * @return this object.
+     */
+    public TableCriteria fetch(String propertyName) {
+        if(!fetchProperties.contains(propertyName)) {
+            fetchProperties.add(propertyName);
+        }
+        return this;
+    }
+
+    //**************************************************************************
+    // Keyset pagination
+    //**************************************************************************
+
+    /**
+     * Adds an ordering to be applied after the main one, to break ties. It has no effect if the main ordering
+     * is not set.
+     * @param accessor the property to order by.
+     * @param direction the direction, "asc" or "desc".
+     * @return this object.
+     */
+    public TableCriteria thenOrderBy(PropertyAccessor accessor, String direction) {
+        secondaryOrderBy.add(new OrderBy(accessor, direction));
+        return this;
+    }
+
+    /**
+     * Restricts the results to those that come after a given row, according to an ordering on the given
+     * properties. The properties must identify a row uniquely and must not be null.
+     * @param accessors the properties that define the ordering.
+     * @param values the values of the properties in the row after which results start.
+     * @param ascending for each property, whether the ordering is ascending.
+     * @return this object.
+     */
+    public TableCriteria after(PropertyAccessor[] accessors, Object[] values, boolean[] ascending) {
+        add(new AfterCriterion(accessors, values, ascending));
+        return this;
+    }
+
+    public static class AfterCriterion extends AbstractCriterion {
+        protected final PropertyAccessor[] accessors;
+        protected final Object[] values;
+        protected final boolean[] ascending;
+
+        public AfterCriterion(PropertyAccessor[] accessors, Object[] values, boolean[] ascending) {
+            super(accessors[0]);
+            this.accessors = accessors;
+            this.values = values;
+            this.ascending = ascending;
+        }
+
+        public PropertyAccessor[] getPropertyAccessors() {
+            return accessors;
+        }
+
+        public Object[] getValues() {
+            return values;
+        }
+
+        public boolean[] getAscending() {
+            return ascending;
+        }
+    }
+
     //**************************************************************************
     // Overrides to simplify type casting
     //**************************************************************************
@@ -20,10 +20,14 @@
 
 package com.manydesigns.portofino.modules;
 
+import com.manydesigns.portofino.cache.CacheResetEvent;
+import com.manydesigns.portofino.cache.CacheResetListener;
+import com.manydesigns.portofino.cache.CacheResetListenerRegistry;
 import com.manydesigns.portofino.model.database.platforms.DatabasePlatformsRegistry;
 import com.manydesigns.portofino.di.Inject;
 import com.manydesigns.portofino.di.Injections;
 import com.manydesigns.portofino.persistence.Persistence;
+import com.manydesigns.portofino.persistence.QueryUtils;
 import org.apache.commons.configuration.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +58,9 @@ public class DatabaseModule implements Module {
     @Inject(BaseModule.APPLICATION_DIRECTORY)
     public File applicationDirectory;
 
+    @Inject(BaseModule.CACHE_RESET_LISTENER_REGISTRY)
+    public CacheResetListenerRegistry cacheResetListenerRegistry;
+
     protected Persistence persistence;
 
     protected ModuleStatus status = ModuleStatus.CREATED;
@@ -68,6 +75,10 @@ public class DatabaseModule implements Module {
             "com.manydesigns.portofino.modules.DatabaseModule.databasePlatformsRegistry";
     //Liquibase properties
     public static final String LIQUIBASE_ENABLED = "liquibase.enabled";
+    public static final String HIBERNATE_CACHE_MAX_ENTRIES = "hibernate.cache.max.entries";
+    public static final String HIBERNATE_CACHE_TTL = "hibernate.cache.ttl";
+    public static final String HIBERNATE_QUERY_CACHE_ENABLED = "hibernate.query.cache.enabled";
+    public static final String HIBERNATE_COMPACT_ROWS = "hibernate.compact.rows";
 
     //**************************************************************************
     // Logging
@@ -109,12 +120,16 @@ public class DatabaseModule implements Module {
     @Override
     public void init() {
         logger.info("Initializing persistence");
+        QueryUtils.init(configuration);
+        cacheResetListenerRegistry.getCacheResetListeners().add(new QueryCacheResetListener());
+
         DatabasePlatformsRegistry databasePlatformsRegistry = new DatabasePlatformsRegistry(configuration);
 
         persistence = new Persistence(applicationDirectory, configuration, databasePlatformsRegistry);
         Injections.inject(persistence, servletContext, null);
         servletContext.setAttribute(DATABASE_PLATFORMS_REGISTRY, databasePlatformsRegistry);
         servletContext.setAttribute(PERSISTENCE, persistence);
+        cacheResetListenerRegistry.getCacheResetListeners().add(new SecondLevelCacheResetListener(persistence));
 
         status = ModuleStatus.ACTIVE;
     }
@@ -142,4 +157,24 @@ public class DatabaseModule implements Module {
     public ModuleStatus getStatus() {
         return status;
     }
+
+    private static class QueryCacheResetListener implements CacheResetListener {
+        @Override
+        public void handleReset(CacheResetEvent e) {
+            QueryUtils.clearQueryCache();
+        }
+    }
+
+    private static class SecondLevelCacheResetListener implements CacheResetListener {
+        private final Persistence persistence;
+
+        public SecondLevelCacheResetListener(Persistence persistence) {
+            this.persistence = persistence;
+        }
+
+        @Override
+        public void handleReset(CacheResetEvent e) {
+            persistence.evictCaches();
+        }
+    }
 }
@@ -67,7 +67,7 @@ public class DatabaseCredentialStore implements CredentialStore {
             throw new IllegalArgumentException("Table not found: " + entityName);
         }
         try {
-            TableAccessor tableAccessor = new TableAccessor(table);
+            TableAccessor tableAccessor = persistence.getTableAccessor(table);
             tableAccessor.getProperty(idProperty);
             tableAccessor.getProperty(accessTokenProperty);
             tableAccessor.getProperty(refreshTokenProperty);
@@ -83,7 +83,7 @@ public class DatabaseCredentialStore implements CredentialStore {
         Object idValue = OgnlUtils.convertValue(userId, idColumn.getActualJavaType());
         Criteria criteria =
                 session.createCriteria(table.getActualEntityName()).add(Restrictions.eq(idProperty, idValue));
-        TableAccessor tableAccessor = new TableAccessor(table);
+        TableAccessor tableAccessor = persistence.getTableAccessor(table);
         Object record = criteria.uniqueResult();
         if(record == null) {
             return false;
@@ -109,7 +109,7 @@ public class DatabaseCredentialStore implements CredentialStore {
         Object idValue = OgnlUtils.convertValue(userId, idColumn.getActualJavaType());
         Criteria criteria =
                 session.createCriteria(table.getActualEntityName()).add(Restrictions.eq(idProperty, idValue));
-        TableAccessor tableAccessor = new TableAccessor(table);
+        TableAccessor tableAccessor = persistence.getTableAccessor(table);
         Object record = criteria.uniqueResult();
         boolean isNew = record == null;
         if(isNew) {
@@ -150,7 +150,7 @@ public class DatabaseCredentialStore implements CredentialStore {
         Object idValue = OgnlUtils.convertValue(userId, idColumn.getActualJavaType());
         Criteria criteria =
                 session.createCriteria(table.getActualEntityName()).add(Restrictions.eq(idProperty, idValue));
-        TableAccessor tableAccessor = new TableAccessor(table);
+        TableAccessor tableAccessor = persistence.getTableAccessor(table);
         Object record = criteria.uniqueResult();
         if(record == null) {
             throw new IllegalArgumentException("No record exists with id: " + userId);
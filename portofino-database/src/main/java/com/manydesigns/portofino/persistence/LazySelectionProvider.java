@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.persistence;
+
+import com.manydesigns.elements.fields.search.TextMatchMode;
+import com.manydesigns.elements.ognl.OgnlUtils;
+import com.manydesigns.elements.options.DisplayMode;
+import com.manydesigns.elements.options.SearchDisplayMode;
+import com.manydesigns.elements.options.SelectionModel;
+import com.manydesigns.elements.options.SelectionProvider;
+import com.manydesigns.elements.reflection.PropertyAccessor;
+import com.manydesigns.elements.text.TextFormat;
+import com.manydesigns.portofino.database.TableCriteria;
+import com.manydesigns.portofino.model.database.Table;
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.Session;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Single-field selection provider backed by a HQL query, that does not load all of its options in memory.
+ * Labels are resolved only for the values actually used by the selection models created by this provider, with
+ * a single batched <code>IN</code> query; label searches (e.g. for autocompletion) are run against the database
+ * with a <code>LIKE</code> query and a limit on the number of results. By default the label must start with the
+ * search string, so that the database can use an index on the search property; matching anywhere in the label is
+ * opt-in (see {@link #setLabelSearchMatchMode(TextMatchMode)}). Without a label search, only the first
+ * <code>maxResults</code> options are offered, so this provider only supports autocomplete display modes.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class LazySelectionProvider implements SelectionProvider {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(LazySelectionProvider.class);
+
+    //Keeps IN lists within the limits of all the supported databases
+    public static final int MAX_IN_LIST_SIZE = 500;
+
+    //**************************************************************************
+    // Fields
+    //**************************************************************************
+
+    protected final String name;
+    protected final Session session;
+    protected final Table table;
+    protected final String queryString;
+    protected final Object rootObject;
+    protected final PropertyAccessor keyProperty;
+    protected final PropertyAccessor searchProperty;
+    @Nullable
+    protected final TextFormat textFormat;
+    protected final int maxResults;
+
+    protected DisplayMode displayMode;
+    protected SearchDisplayMode searchDisplayMode;
+    protected TextMatchMode labelSearchMatchMode = TextMatchMode.STARTS_WITH;
+    protected String createNewValueHref;
+    protected String createNewValueText;
+
+    //Options resolved so far, shared by all the selection models
+    protected final Map<Object, SelectionModel.Option> knownOptions = new HashMap<Object, SelectionModel.Option>();
+    protected final Set<Object> unknownValues = new HashSet<Object>();
+    protected final Set<Object> pendingValues = new LinkedHashSet<Object>();
+    protected final Set<Object> forcedActiveValues = new HashSet<Object>();
+    protected List<SelectionModel.Option> firstOptions;
+
+    //**************************************************************************
+    // Constructor
+    //**************************************************************************
+
+    /**
+     * Creates a new lazy selection provider.
+     * @param name the name of the selection provider.
+     * @param session the session used to run the queries.
+     * @param table the table queried by <code>queryString</code>.
+     * @param queryString the HQL query that selects all the options. It can return either entities or arrays
+     *                    whose first element is an entity and whose second element is its active flag.
+     * @param rootObject the OGNL root object used to evaluate the query.
+     * @param keyProperty the property holding the value of the options.
+     * @param searchProperty the (string) property used for label searches.
+     * @param textFormat the format used to compute labels; if null, the value is used as the label.
+     * @param maxResults the maximum number of options returned by a label search.
+     */
+    public LazySelectionProvider(
+            String name, Session session, Table table, String queryString, Object rootObject,
+            PropertyAccessor keyProperty, PropertyAccessor searchProperty, @Nullable TextFormat textFormat,
+            int maxResults) {
+        this.name = name;
+        this.session = session;
+        this.table = table;
+        this.queryString = queryString;
+        this.rootObject = rootObject;
+        this.keyProperty = keyProperty;
+        this.searchProperty = searchProperty;
+        this.textFormat = textFormat;
+        this.maxResults = maxResults;
+        displayMode = DisplayMode.AUTOCOMPLETE;
+        searchDisplayMode = SearchDisplayMode.AUTOCOMPLETE;
+    }
+
+    //**************************************************************************
+    // SelectionProvider implementation
+    //**************************************************************************
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFieldCount() {
+        return 1;
+    }
+
+    public SelectionModel createSelectionModel() {
+        return new LazySelectionModel();
+    }
+
+    public void ensureActive(Object... values) {
+        if(values.length == 0 || values[0] == null) {
+            return;
+        }
+        Object value = convertValue(values[0]);
+        forcedActiveValues.add(value);
+        SelectionModel.Option option = knownOptions.get(value);
+        if(option != null && !option.active) {
+            knownOptions.put(value, new SelectionModel.Option(value, option.label, true));
+        } else if(option == null) {
+            pendingValues.add(value);
+        }
+    }
+
+    //**************************************************************************
+    // Queries
+    //**************************************************************************
+
+    /**
+     * Loads the options for all the values registered by the selection models and not yet resolved,
+     * using as few queries as possible.
+     */
+    protected void resolvePendingValues() {
+        if(pendingValues.isEmpty()) {
+            return;
+        }
+        List<Object> values = new ArrayList<Object>(pendingValues);
+        pendingValues.clear();
+        for(int i = 0; i < values.size(); i += MAX_IN_LIST_SIZE) {
+            List<Object> chunk = values.subList(i, Math.min(i + MAX_IN_LIST_SIZE, values.size()));
+            TableCriteria criteria = new TableCriteria(table);
+            criteria.in(keyProperty, chunk.toArray());
+            logger.debug("Resolving {} values of selection provider {}", chunk.size(), name);
+            for(Object object : QueryUtils.getObjects(session, queryString, criteria, rootObject, null, null)) {
+                addOption(object);
+            }
+        }
+        for(Object value : values) {
+            if(!knownOptions.containsKey(value)) {
+                unknownValues.add(value);
+            }
+        }
+    }
+
+    protected List<SelectionModel.Option> searchOptions(String labelSearch) {
+        TableCriteria criteria = new TableCriteria(table);
+        criteria.ilike(searchProperty, labelSearch, labelSearchMatchMode);
+        criteria.orderBy(searchProperty, "asc");
+        return loadOptions(criteria);
+    }
+
+    protected List<SelectionModel.Option> getFirstOptions() {
+        if(firstOptions == null) {
+            TableCriteria criteria = new TableCriteria(table);
+            criteria.orderBy(searchProperty, "asc");
+            firstOptions = loadOptions(criteria);
+        }
+        return firstOptions;
+    }
+
+    protected List<SelectionModel.Option> loadOptions(TableCriteria criteria) {
+        List<Object> objects = QueryUtils.getObjects(
+                session, queryString, criteria, rootObject, null, maxResults > 0 ? maxResults : null);
+        List<SelectionModel.Option> options = new ArrayList<SelectionModel.Option>(objects.size());
+        for(Object object : objects) {
+            options.add(addOption(object));
+        }
+        return options;
+    }
+
+    protected SelectionModel.Option addOption(Object object) {
+        boolean active = true;
+        if(object instanceof Object[]) {
+            Object[] entityAndActive = (Object[]) object;
+            if(entityAndActive.length > 1) {
+                active = entityAndActive[1] instanceof Boolean && (Boolean) entityAndActive[1];
+            }
+            if(entityAndActive.length > 0) {
+                object = entityAndActive[0];
+            } else {
+                throw new IllegalArgumentException("Invalid selection provider query result - sp: " + name);
+            }
+        }
+        Object value = keyProperty.get(object);
+        String label;
+        if(textFormat == null) {
+            label = OgnlUtils.convertValueToString(value);
+        } else {
+            label = textFormat.format(object);
+        }
+        SelectionModel.Option option =
+                new SelectionModel.Option(value, label, active || forcedActiveValues.contains(value));
+        knownOptions.put(value, option);
+        unknownValues.remove(value);
+        return option;
+    }
+
+    protected Object convertValue(Object value) {
+        return OgnlUtils.convertValue(value, keyProperty.getType());
+    }
+
+    protected void register(Object value) {
+        if(value instanceof Object[]) {
+            for(Object current : (Object[]) value) {
+                register(current);
+            }
+        } else if(value != null && !knownOptions.containsKey(value) && !unknownValues.contains(value)) {
+            pendingValues.add(value);
+        }
+    }
+
+    //**************************************************************************
+    // Getters/setters
+    //**************************************************************************
+
+    public Table getTable() {
+        return table;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public DisplayMode getDisplayMode() {
+        return displayMode;
+    }
+
+    /**
+     * @param displayMode the display mode. Only {@link DisplayMode#AUTOCOMPLETE} is supported, as the other modes
+     *                    would only show the first <code>maxResults</code> options.
+     * @throws IllegalArgumentException if the display mode is not supported.
+     */
+    public void setDisplayMode(DisplayMode displayMode) {
+        if(displayMode != DisplayMode.AUTOCOMPLETE) {
+            throw new IllegalArgumentException("Unsupported display mode for lazy selection provider " + name + ": " + displayMode);
+        }
+        this.displayMode = displayMode;
+    }
+
+    public SearchDisplayMode getSearchDisplayMode() {
+        return searchDisplayMode;
+    }
+
+    /**
+     * @param searchDisplayMode the search display mode. Only {@link SearchDisplayMode#AUTOCOMPLETE} is supported.
+     * @throws IllegalArgumentException if the search display mode is not supported.
+     */
+    public void setSearchDisplayMode(SearchDisplayMode searchDisplayMode) {
+        if(searchDisplayMode != SearchDisplayMode.AUTOCOMPLETE) {
+            throw new IllegalArgumentException(
+                    "Unsupported search display mode for lazy selection provider " + name + ": " + searchDisplayMode);
+        }
+        this.searchDisplayMode = searchDisplayMode;
+    }
+
+    public TextMatchMode getLabelSearchMatchMode() {
+        return labelSearchMatchMode;
+    }
+
+    /**
+     * @param labelSearchMatchMode how label searches match the search property. {@link TextMatchMode#STARTS_WITH}
+     *                             by default; other modes generally can't use an index and scan the whole table.
+     */
+    public void setLabelSearchMatchMode(TextMatchMode labelSearchMatchMode) {
+        this.labelSearchMatchMode = labelSearchMatchMode;
+    }
+
+    public String getCreateNewValueHref() {
+        return createNewValueHref;
+    }
+
+    public void setCreateNewValueHref(String createNewValueHref) {
+        this.createNewValueHref = createNewValueHref;
+    }
+
+    public String getCreateNewValueText() {
+        return createNewValueText;
+    }
+
+    public void setCreateNewValueText(String createNewValueText) {
+        this.createNewValueText = createNewValueText;
+    }
+
+    //**************************************************************************
+    // Inner class: LazySelectionModel
+    //**************************************************************************
+
+    class LazySelectionModel implements SelectionModel {
+        public static final String copyright =
+                "Copyright (C) 2005-2017 ManyDesigns srl";
+
+        private Object value;
+        private String labelSearch;
+
+        public SelectionProvider getSelectionProvider() {
+            return LazySelectionProvider.this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Object getValue(int index) {
+            checkIndex(index);
+            resolvePendingValues();
+            if(value instanceof Object[]) {
+                for(Object current : (Object[]) value) {
+                    if(knownOptions.containsKey(current)) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+            return knownOptions.containsKey(value) ? value : null;
+        }
+
+        public void setValue(int index, Object value) {
+            checkIndex(index);
+            if(value instanceof Object[]) {
+                Object[] values = (Object[]) value;
+                Object[] converted = new Object[values.length];
+                for(int i = 0; i < values.length; i++) {
+                    converted[i] = convertValue(values[i]);
+                }
+                value = converted;
+            } else if(value != null) {
+                value = convertValue(value);
+            }
+            this.value = value;
+            register(value);
+        }
+
+        public String getLabelSearch(int index) {
+            checkIndex(index);
+            return labelSearch;
+        }
+
+        public void setLabelSearch(int index, String labelSearch) {
+            checkIndex(index);
+            this.labelSearch = labelSearch;
+        }
+
+        public Map<Object, Option> getOptions(int index) {
+            checkIndex(index);
+            resolvePendingValues();
+            Map<Object, Option> options = new LinkedHashMap<Object, Option>();
+            if(StringUtils.isEmpty(labelSearch)) {
+                addSelectedOptions(options);
+                for(Option option : getFirstOptions()) {
+                    if(!options.containsKey(option.value)) {
+                        options.put(option.value, knownOptions.get(option.value));
+                    }
+                }
+            } else {
+                for(Option option : searchOptions(labelSearch)) {
+                    options.put(option.value, option);
+                }
+            }
+            return options;
+        }
+
+        protected void addSelectedOptions(Map<Object, Option> options) {
+            Object[] values = value instanceof Object[] ? (Object[]) value : new Object[] { value };
+            for(Object current : values) {
+                Option option = knownOptions.get(current);
+                if(option != null) {
+                    options.put(current, option);
+                }
+            }
+        }
+
+        public String getOption(int index, Object value, boolean includeInactive) {
+            checkIndex(index);
+            if(value == null) {
+                return null;
+            }
+            value = convertValue(value);
+            register(value);
+            resolvePendingValues();
+            Option option = knownOptions.get(value);
+            if(option != null && (option.active || includeInactive)) {
+                return option.label;
+            }
+            return null;
+        }
+
+        private void checkIndex(int index) {
+            if(index != 0) {
+                throw new IndexOutOfBoundsException("Lazy selection providers have a single field: " + index);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@
 package com.manydesigns.portofino.persistence;
 
 import com.manydesigns.elements.util.ElementsFileUtils;
+import com.manydesigns.elements.xml.JAXBContextRegistry;
 import com.manydesigns.portofino.PortofinoProperties;
 import com.manydesigns.portofino.cache.CacheResetEvent;
 import com.manydesigns.portofino.cache.CacheResetListenerRegistry;
@@ -62,6 +63,8 @@ import java.sql.Connection;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -90,6 +93,11 @@ public class Persistence {
     protected Model model;
     protected final Map<String, HibernateDatabaseSetup> setups;
 
+    //Incremented each time the model is initialized; table accessors are cached for the current generation only
+    protected volatile int modelGeneration;
+    protected volatile ConcurrentMap<Table, TableAccessor> tableAccessors =
+            new ConcurrentHashMap<Table, TableAccessor>();
+
     protected final File appDir;
     protected final File appDbsDir;
     protected final File appModelFile;
@@ -140,7 +148,7 @@ public class Persistence {
         logger.info("Loading xml model from file: {}", appModelFile.getAbsolutePath());
 
         try {
-            JAXBContext jc = JAXBContext.newInstance(Model.class.getPackage().getName());
+            JAXBContext jc = JAXBContextRegistry.getContext(Model.class);
             Unmarshaller um = jc.createUnmarshaller();
             Model model = (Model) um.unmarshal(appModelFile);
             File modelDir = getModelDirectory();
@@ -230,7 +238,7 @@ public class Persistence {
         //TODO gestire conflitti con modifiche esterne?
         File tempFile = File.createTempFile(appModelFile.getName(), "");
 
-        JAXBContext jc = JAXBContext.newInstance(Model.class.getPackage().getName());
+        JAXBContext jc = JAXBContextRegistry.getContext(Model.class);
         Marshaller m = jc.createMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
         m.marshal(model, tempFile);
@@ -316,9 +324,19 @@ public class Persistence {
             }
         }
 
+        tableAccessors = new ConcurrentHashMap<Table, TableAccessor>();
+        modelGeneration++;
         cacheResetListenerRegistry.fireReset(new CacheResetEvent(this));
     }
 
+    /**
+     * @return a number that changes each time the model is initialized, so that data derived from it can be
+     * cached until the next initialization.
+     */
+    public int getModelGeneration() {
+        return modelGeneration;
+    }
+
     //**************************************************************************
     // Database stuff
     //**************************************************************************
@@ -409,13 +427,43 @@ public class Persistence {
         assert database != null;
         Table table = DatabaseLogic.findTableByEntityName(database, entityName);
         assert table != null;
-        return new TableAccessor(table);
+        return getTableAccessor(table);
+    }
+
+    /**
+     * Returns an accessor for a table. Accessors are immutable and they are shared until the model is
+     * initialized again. They must not be used for tables that have been modified and not yet re-initialized
+     * (e.g. while editing the model); in that case, create a new TableAccessor.
+     * @param table the table
+     * @return the accessor.
+     */
+    public @NotNull TableAccessor getTableAccessor(@NotNull Table table) {
+        ConcurrentMap<Table, TableAccessor> currentTableAccessors = tableAccessors;
+        TableAccessor tableAccessor = currentTableAccessors.get(table);
+        if(tableAccessor == null) {
+            tableAccessor = new TableAccessor(table);
+            TableAccessor existing = currentTableAccessors.putIfAbsent(table, tableAccessor);
+            if(existing != null) {
+                tableAccessor = existing;
+            }
+        }
+        return tableAccessor;
     }
 
     //**************************************************************************
     // User
     //**************************************************************************
 
+    /**
+     * Discards the contents of the second-level and query caches of all the databases.
+     */
+    public synchronized void evictCaches() {
+        for(Map.Entry<String, HibernateDatabaseSetup> current : setups.entrySet()) {
+            logger.debug("Evicting second-level cache for: {}", current.getKey());
+            current.getValue().getSessionFactory().getCache().evictAllRegions();
+        }
+    }
+
     public void start() {
         loadXmlModel();
         for(Database database : model.getDatabases()) {
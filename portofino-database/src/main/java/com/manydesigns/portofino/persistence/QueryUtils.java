@@ -20,6 +20,9 @@
 
 package com.manydesigns.portofino.persistence;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.manydesigns.elements.fields.search.Criteria;
 import com.manydesigns.elements.fields.search.Criterion;
 import com.manydesigns.elements.fields.search.TextMatchMode;
 import com.manydesigns.elements.reflection.ClassAccessor;
@@ -34,15 +37,18 @@ import com.manydesigns.portofino.reflection.TableAccessor;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
 import net.sf.jsqlparser.expression.JdbcParameter;
 import net.sf.jsqlparser.expression.Parenthesis;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
 import net.sf.jsqlparser.parser.CCJSqlParserManager;
 import net.sf.jsqlparser.statement.select.*;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.jdbc.Work;
@@ -56,7 +62,10 @@ import java.sql.*;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -80,6 +89,9 @@ public class QueryUtils {
 
     protected static final Logger logger = LoggerFactory.getLogger(QueryUtils.class);
 
+    //Number of rows fetched at a time when scrolling through results
+    protected static final int SCROLL_FETCH_SIZE = 100;
+
     /**
      * Runs a SQL query against a session. The query is processed with an {@link OgnlSqlFormat}, so it can
      * access values from the OGNL context.
@@ -156,7 +168,8 @@ public class QueryUtils {
                 queryStringWithParameters.getQueryString(),
                 queryStringWithParameters.getParameters(),
                 firstResult,
-                maxResults
+                maxResults,
+                isCacheable(criteria.getTable())
         );
     }
 
@@ -314,6 +327,10 @@ public class QueryUtils {
                     hqlFormat = "lower({0}) like lower(?" + (parametersList.size() + initialParameterIndex) + ")";
                     parametersList.add(pattern);
                 }
+            } else if (criterion instanceof TableCriteria.AfterCriterion) {
+                TableCriteria.AfterCriterion afterCriterion =
+                        (TableCriteria.AfterCriterion) criterion;
+                hqlFormat = getAfterCondition(afterCriterion, alias, parametersList, initialParameterIndex);
             } else if (criterion instanceof TableCriteria.IsNullCriterion) {
                 hqlFormat = "{0} is null";
             } else if (criterion instanceof TableCriteria.IsNotNullCriterion) {
@@ -361,6 +378,41 @@ public class QueryUtils {
         return new QueryStringWithParameters(queryString, parameters);
     }
 
+    /**
+     * Builds the condition for a {@link TableCriteria.AfterCriterion}, in the form
+     * <code>(a &gt; ?) OR (a = ? AND b &gt; ?) OR ...</code>, using &lt; for descending properties.
+     * The condition does not contain MessageFormat placeholders.
+     */
+    protected static String getAfterCondition(
+            TableCriteria.AfterCriterion criterion, @Nullable String alias,
+            List<Object> parametersList, int initialParameterIndex) {
+        PropertyAccessor[] accessors = criterion.getPropertyAccessors();
+        Object[] values = criterion.getValues();
+        boolean[] ascending = criterion.getAscending();
+        StringBuilder sb = new StringBuilder("(");
+        for(int i = 0; i < accessors.length; i++) {
+            if(i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append("(");
+            for(int j = 0; j <= i; j++) {
+                String accessorName = accessors[j].getName();
+                if(alias != null) {
+                    accessorName = alias + "." + accessorName;
+                }
+                if(j > 0) {
+                    sb.append(" AND ");
+                }
+                String operator = j < i ? " = " : (ascending[j] ? " > " : " < ");
+                sb.append(accessorName).append(operator).append("?")
+                  .append(parametersList.size() + initialParameterIndex);
+                parametersList.add(values[j]);
+            }
+            sb.append(")");
+        }
+        return sb.append(")").toString();
+    }
+
     protected static String processTextMatchMode(TextMatchMode textMatchMode,
                                           String value) {
         String pattern;
@@ -429,7 +481,66 @@ public class QueryUtils {
             @Nullable Integer maxResults) {
         QueryStringWithParameters result = mergeQuery(queryString, criteria, rootObject);
 
-        return runHqlQuery(session, result.getQueryString(), result.getParameters(), firstResult, maxResults);
+        return runHqlQuery(
+                session, result.getQueryString(), result.getParameters(), firstResult, maxResults,
+                criteria != null && isCacheable(criteria.getTable()));
+    }
+
+    /**
+     * Runs a query like {@link #getObjects(Session, String, TableCriteria, Object, Integer, Integer)}, but
+     * instead of loading all the results in memory, returns an iterator that reads them from a database cursor.
+     * Each object is evicted from the session when the iterator moves on to the next one.
+     * The iterator must be closed after use.
+     * @param session the session
+     * @param queryString the query
+     * @param criteria the search criteria to merge with the query.
+     * @param rootObject the root object passed to the ognl evaluator (can be null).
+     * @param firstResult index of the first result to return
+     * @param maxResults maximum number of results to return
+     * @return an iterator over at most <code>maxResults</code> results from the query
+     */
+    public static ScrollableResultsIterator scrollObjects(
+            Session session,
+            String queryString,
+            TableCriteria criteria,
+            @Nullable Object rootObject,
+            @Nullable Integer firstResult,
+            @Nullable Integer maxResults) {
+        return scrollObjects(session, queryString, criteria, rootObject, firstResult, maxResults, 1);
+    }
+
+    /**
+     * Runs a query like {@link #scrollObjects(Session, String, TableCriteria, Object, Integer, Integer)}, but
+     * keeps the last <code>retainedObjects</code> objects returned by the iterator in the session, so that they
+     * can be processed in groups.
+     * @param session the session
+     * @param queryString the query
+     * @param criteria the search criteria to merge with the query.
+     * @param rootObject the root object passed to the ognl evaluator (can be null).
+     * @param firstResult index of the first result to return
+     * @param maxResults maximum number of results to return
+     * @param retainedObjects the number of objects that are kept in the session
+     * @return an iterator over at most <code>maxResults</code> results from the query
+     */
+    public static ScrollableResultsIterator scrollObjects(
+            Session session,
+            String queryString,
+            TableCriteria criteria,
+            @Nullable Object rootObject,
+            @Nullable Integer firstResult,
+            @Nullable Integer maxResults,
+            int retainedObjects) {
+        QueryStringWithParameters result = mergeQuery(queryString, criteria, rootObject);
+        Query query = createHqlQuery(session, result.getQueryString(), result.getParameters(), firstResult, maxResults);
+        query.setFetchSize(SCROLL_FETCH_SIZE);
+        try {
+            return new ScrollableResultsIterator(query.scroll(ScrollMode.FORWARD_ONLY), session, retainedObjects);
+        } catch (HibernateException e) {
+            logger.error("Error running query", e);
+            session.getTransaction().rollback();
+            session.beginTransaction();
+            throw e;
+        }
     }
 
     /**
@@ -447,6 +558,55 @@ public class QueryUtils {
         String formatString = hqlFormat.getFormatString();
         Object[] parameters = hqlFormat.evaluateOgnlExpressions(rootObject);
 
+        //The criteria query without alias identifies the "shape" of the criteria (properties, operators and number
+        //of parameters), independently of the actual parameter values. It's cheap to compute and it doesn't
+        //require parsing, so we use it as part of the key of the merged query cache.
+        QueryStringWithParameters criteriaQuery =
+                getQueryStringWithParametersForCriteria(criteria, null, parameters.length + 1);
+        Object[] criteriaParameters = criteriaQuery.getParameters();
+
+        List<Object> cacheKey = new ArrayList<Object>(4);
+        cacheKey.add(formatString);
+        cacheKey.add(criteriaQuery.getQueryString());
+        if(criteria != null && criteria.getOrderBy() != null) {
+            cacheKey.add(criteria.getOrderBy().getPropertyAccessor().getName());
+            cacheKey.add(criteria.getOrderBy().isAsc());
+            for(Criteria.OrderBy orderBy : criteria.getSecondaryOrderBy()) {
+                cacheKey.add(orderBy.getPropertyAccessor().getName());
+                cacheKey.add(orderBy.isAsc());
+            }
+        }
+        if(criteria != null && !criteria.getFetchProperties().isEmpty()) {
+            cacheKey.add(new ArrayList<String>(criteria.getFetchProperties()));
+        }
+        String fullQueryString = mergedQueryCache.getIfPresent(cacheKey);
+        if(fullQueryString == null) {
+            fullQueryString = mergeQueryString(formatString, criteria, parameters.length);
+            mergedQueryCache.put(cacheKey, fullQueryString);
+        } else {
+            logger.debug("Merged query found in cache: {}", fullQueryString);
+        }
+
+        // merge the parameters
+        ArrayList<Object> mergedParametersList = new ArrayList<Object>();
+        mergedParametersList.addAll(Arrays.asList(parameters));
+        mergedParametersList.addAll(Arrays.asList(criteriaParameters));
+        Object[] mergedParameters = new Object[mergedParametersList.size()];
+        mergedParametersList.toArray(mergedParameters);
+
+        return new QueryStringWithParameters(fullQueryString, mergedParameters);
+    }
+
+    /**
+     * Merges a HQL query string, already processed by {@link OgnlHqlFormat}, with a {@link TableCriteria}
+     * object, by parsing both. Only the resulting query string is returned; parameters are handled by the caller.
+     * @param formatString the base query, with OGNL expressions replaced by positional parameters
+     * @param criteria the criteria to merge with the query
+     * @param parameterCount the number of parameters in the base query
+     * @return the merged query string
+     */
+    protected static String mergeQueryString
+            (String formatString, @Nullable TableCriteria criteria, int parameterCount) {
         CCJSqlParserManager parserManager = new CCJSqlParserManager();
         PlainSelect parsedQueryString;
         PlainSelect parsedCriteriaQuery;
@@ -457,15 +617,25 @@ public class QueryUtils {
         }
 
         Alias mainEntityAlias = null;
+        List<String> fetchProperties = Collections.emptyList();
         if(criteria != null) {
             mainEntityAlias = getEntityAlias(criteria.getTable().getActualEntityName(), parsedQueryString);
+            fetchProperties = criteria.getFetchProperties();
+            if(!fetchProperties.isEmpty() && !canFetchJoin(formatString, parsedQueryString)) {
+                logger.debug("Cannot apply join fetching to query {}, ignoring it", formatString);
+                fetchProperties = Collections.emptyList();
+            }
+            if(!fetchProperties.isEmpty() && mainEntityAlias == null) {
+                //The query is a plain "from Entity": give the entity an alias so that relationships can be joined
+                mainEntityAlias = new Alias(FETCH_ROOT_ALIAS, false);
+                parsedQueryString.getFromItem().setAlias(mainEntityAlias);
+            }
         }
 
         QueryStringWithParameters criteriaQuery =
                 getQueryStringWithParametersForCriteria(
-                        criteria, mainEntityAlias != null ? mainEntityAlias.getName() : null, parameters.length + 1);
+                        criteria, mainEntityAlias != null ? mainEntityAlias.getName() : null, parameterCount + 1);
         String criteriaQueryString = criteriaQuery.getQueryString();
-        Object[] criteriaParameters = criteriaQuery.getParameters();
 
         try {
             if(StringUtils.isEmpty(criteriaQueryString)) {
@@ -494,22 +664,30 @@ public class QueryUtils {
         parsedQueryString.setWhere(whereExpression);
         if(criteria != null && criteria.getOrderBy() != null) {
             List orderByElements = new ArrayList();
-            OrderByElement orderByElement = new OrderByElement();
-            orderByElement.setAsc(criteria.getOrderBy().isAsc());
-            String propertyName = criteria.getOrderBy().getPropertyAccessor().getName();
-            if(mainEntityAlias != null) {
-                propertyName = mainEntityAlias.getName() + "." + propertyName;
+            List<Criteria.OrderBy> orderBys = new ArrayList<Criteria.OrderBy>();
+            orderBys.add(criteria.getOrderBy());
+            orderBys.addAll(criteria.getSecondaryOrderBy());
+            Set<String> propertyNames = new HashSet<String>();
+            for(Criteria.OrderBy orderBy : orderBys) {
+                OrderByElement orderByElement = new OrderByElement();
+                orderByElement.setAsc(orderBy.isAsc());
+                String propertyName = orderBy.getPropertyAccessor().getName();
+                if(mainEntityAlias != null) {
+                    propertyName = mainEntityAlias.getName() + "." + propertyName;
+                }
+                orderByElement.setExpression(
+                        new net.sf.jsqlparser.schema.Column(
+                                new net.sf.jsqlparser.schema.Table(), propertyName));
+                orderByElements.add(orderByElement);
+                propertyNames.add(propertyName);
             }
-            orderByElement.setExpression(
-                    new net.sf.jsqlparser.schema.Column(
-                            new net.sf.jsqlparser.schema.Table(), propertyName));
-            orderByElements.add(orderByElement);
             if(parsedQueryString.getOrderByElements() != null) {
                 for(Object el : parsedQueryString.getOrderByElements()) {
                     OrderByElement toAdd = (OrderByElement) el;
                     if(toAdd.getExpression() instanceof net.sf.jsqlparser.schema.Column) {
                         net.sf.jsqlparser.schema.Column column = (net.sf.jsqlparser.schema.Column) toAdd.getExpression();
-                        if(StringUtils.isEmpty(column.getTable().getName()) && propertyName.equals(column.getColumnName())) {
+                        if(StringUtils.isEmpty(column.getTable().getName()) &&
+                           propertyNames.contains(column.getColumnName())) {
                             continue; //do not add
                         }
                     }
@@ -518,22 +696,121 @@ public class QueryUtils {
             }
             parsedQueryString.setOrderByElements(orderByElements);
         }
+        if(!fetchProperties.isEmpty()) {
+            List joins = new ArrayList();
+            for(String propertyName : fetchProperties) {
+                //jsqlparser does not know about fetch joins, but it outputs the table name verbatim
+                Join join = new Join();
+                join.setLeft(true);
+                join.setRightItem(new net.sf.jsqlparser.schema.Table(
+                        "fetch " + mainEntityAlias.getName() + "." + propertyName));
+                joins.add(join);
+            }
+            parsedQueryString.setJoins(joins);
+        }
         String fullQueryString = parsedQueryString.toString();
         if(fullQueryString.toLowerCase().startsWith(FAKE_SELECT_PREFIX)) {
             fullQueryString = fullQueryString.substring(FAKE_SELECT_PREFIX.length());
         }
+        return fullQueryString;
+    }
 
-        // merge the parameters
-        ArrayList<Object> mergedParametersList = new ArrayList<Object>();
-        mergedParametersList.addAll(Arrays.asList(parameters));
-        mergedParametersList.addAll(Arrays.asList(criteriaParameters));
-        Object[] mergedParameters = new Object[mergedParametersList.size()];
-        mergedParametersList.toArray(mergedParameters);
+    /**
+     * Transforms a HQL query in a query that counts the number of records the original query would return.
+     * The result is cached, so that the query is parsed only once.
+     * @param queryString the query to transform
+     * @return the count query, or null if it cannot be generated.
+     * @throws JSQLParserException if the query cannot be parsed.
+     */
+    public static String generateCountQuery(String queryString) throws JSQLParserException {
+        String countQueryString = countQueryCache.getIfPresent(queryString);
+        if(countQueryString == null) {
+            countQueryString = doGenerateCountQuery(queryString);
+            if(countQueryString != null) {
+                countQueryCache.put(queryString, countQueryString);
+            }
+        }
+        return countQueryString;
+    }
 
-        return new QueryStringWithParameters(fullQueryString, mergedParameters);
+    protected static String doGenerateCountQuery(String queryString) throws JSQLParserException {
+        CCJSqlParserManager parserManager = new CCJSqlParserManager();
+        try {
+            PlainSelect plainSelect =
+                (PlainSelect) ((Select) parserManager.parse(new StringReader(queryString))).getSelectBody();
+            logger.debug("Query string {} contains select", queryString);
+            List items = plainSelect.getSelectItems();
+            if(items.size() != 1) {
+                logger.error("I don't know how to generate a count query for {}", queryString);
+                return null;
+            }
+            SelectExpressionItem item = (SelectExpressionItem) items.get(0);
+            Function function = new Function();
+            function.setName("count");
+            function.setParameters(new ExpressionList(Arrays.asList(item.getExpression())));
+            item.setExpression(function);
+            plainSelect.setOrderByElements(null);
+            return plainSelect.toString();
+        } catch(Exception e) {
+            logger.debug("Query string {} does not contain select", queryString);
+            queryString = "SELECT count(*) " + queryString;
+            PlainSelect plainSelect =
+                (PlainSelect) ((Select) parserManager.parse(new StringReader(queryString))).getSelectBody();
+            plainSelect.setOrderByElements(null);
+            return plainSelect.toString();
+        }
+    }
+
+    //Cache configuration properties
+    public static final String QUERY_CACHE_SIZE = "query.cache.size";
+
+    protected static Cache<List<Object>, String> mergedQueryCache;
+    protected static Cache<String, String> countQueryCache;
+
+    static {
+        initQueryCache(1000);
+    }
+
+    public static void init(org.apache.commons.configuration.Configuration portofinoConfiguration) {
+        initQueryCache(portofinoConfiguration.getInt(QUERY_CACHE_SIZE, 1000));
+    }
+
+    /**
+     * Initializes the caches of merged and count queries. The caches only hold query strings, never
+     * parameter values.
+     * @param maxSize the maximum number of entries in each cache.
+     */
+    public static void initQueryCache(int maxSize) {
+        mergedQueryCache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        countQueryCache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    public static void clearQueryCache() {
+        mergedQueryCache.invalidateAll();
+        countQueryCache.invalidateAll();
     }
 
     public static final String FAKE_SELECT_PREFIX = "select __portofino_fake_select__ ";
+    public static final String FETCH_ROOT_ALIAS = "__portofino_root__";
+
+    /**
+     * Tells whether fetch joins can be added to a query: it must select a single entity, without an explicit
+     * select clause, and without joins. If the entity has no alias, the query must have no where and order by
+     * clauses either, since they could refer to properties without qualifying them.
+     * @param formatString the query, with OGNL expressions replaced by positional parameters
+     * @param parsedQuery the parsed query
+     * @return true if fetch joins can be added to the query.
+     */
+    protected static boolean canFetchJoin(String formatString, PlainSelect parsedQuery) {
+        if(formatString.toLowerCase().trim().startsWith("select") ||
+           !(parsedQuery.getFromItem() instanceof net.sf.jsqlparser.schema.Table) ||
+           (parsedQuery.getJoins() != null && !parsedQuery.getJoins().isEmpty())) {
+            return false;
+        }
+        Alias alias = parsedQuery.getFromItem().getAlias();
+        return (alias != null && !StringUtils.isBlank(alias.getName())) ||
+               (parsedQuery.getWhere() == null && parsedQuery.getOrderByElements() == null);
+    }
 
     public static PlainSelect parseQuery(CCJSqlParserManager parserManager, String query) throws JSQLParserException {
         PlainSelect parsedQueryString;
@@ -577,7 +854,61 @@ public class QueryUtils {
             @Nullable Object[] parameters,
             @Nullable Integer firstResult,
             @Nullable Integer maxResults) {
+        return runHqlQuery(session, queryString, parameters, firstResult, maxResults, false);
+    }
 
+    /**
+     * Runs a HQL query against the database, possibly using the query cache.
+     * @see QueryUtils#runHqlQuery(Session, String, Object[], Integer, Integer)
+     * @param session the session
+     * @param queryString the query
+     * @param parameters the query parameters
+     * @param firstResult index of the first result to return
+     * @param maxResults maximum number of results to return
+     * @param cacheable whether the results can be taken from, and stored in, the query cache. It has no effect
+     *                  if the query cache is not enabled.
+     * @return the results of the query
+     */
+    public static List<Object> runHqlQuery(
+            Session session,
+            String queryString,
+            @Nullable Object[] parameters,
+            @Nullable Integer firstResult,
+            @Nullable Integer maxResults,
+            boolean cacheable) {
+
+        Query query = createHqlQuery(session, queryString, parameters, firstResult, maxResults);
+        query.setCacheable(cacheable);
+
+        //noinspection unchecked
+        try {
+            List<Object> result = query.list();
+            return result;
+        } catch (HibernateException e) {
+            logger.error("Error running query", e);
+            session.getTransaction().rollback();
+            session.beginTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether queries on a table should use the query cache, i.e. if the table is marked as cacheable in
+     * the model. Caching queries over other tables would be counterproductive, since the query cache only
+     * holds identifiers and entities would then be loaded one at a time.
+     * @param table the table
+     * @return true if queries over the table can be cached.
+     */
+    public static boolean isCacheable(Table table) {
+        return table != null && Boolean.TRUE.equals(table.getCacheable());
+    }
+
+    protected static Query createHqlQuery(
+            Session session,
+            String queryString,
+            @Nullable Object[] parameters,
+            @Nullable Integer firstResult,
+            @Nullable Integer maxResults) {
         Query query = session.createQuery(queryString);
         if (parameters != null) {
             for (int i = 0; i < parameters.length; i++) {
@@ -592,17 +923,7 @@ public class QueryUtils {
         if(maxResults != null) {
             query.setMaxResults(maxResults);
         }
-
-        //noinspection unchecked
-        try {
-            List<Object> result = query.list();
-            return result;
-        } catch (HibernateException e) {
-            logger.error("Error running query", e);
-            session.getTransaction().rollback();
-            session.beginTransaction();
-            throw e;
-        }
+        return query;
     }
 
     /**
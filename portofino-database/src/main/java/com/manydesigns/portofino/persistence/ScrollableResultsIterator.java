@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.persistence;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Iterates over Hibernate {@link ScrollableResults}, returning the same objects that
+ * {@link org.hibernate.Query#list()} would: single-column rows are unwrapped. If a session is given, each
+ * entity is evicted from it once the iterator has moved a given number of objects past it (by default, when
+ * it moves on to the next one), so that iterating a large result does not fill the session cache; rows made
+ * of multiple columns are not evicted. The iterator must be closed to release the underlying JDBC resources.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class ScrollableResultsIterator implements Iterator<Object>, Closeable {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    protected final ScrollableResults results;
+    @Nullable
+    protected final Session session;
+    protected final int retainedObjects;
+    protected final Queue<Object> returned;
+    protected boolean advanced;
+    protected boolean hasNext;
+    protected boolean closed;
+
+    public ScrollableResultsIterator(ScrollableResults results, @Nullable Session session) {
+        this(results, session, 1);
+    }
+
+    /**
+     * @param results the results to iterate.
+     * @param session the session to evict the objects from, or null.
+     * @param retainedObjects the number of most recently returned objects that are kept in the session, so
+     *                        that callers can process them in groups.
+     */
+    public ScrollableResultsIterator(ScrollableResults results, @Nullable Session session, int retainedObjects) {
+        this.results = results;
+        this.session = session;
+        this.retainedObjects = Math.max(retainedObjects, 1);
+        this.returned = new ArrayDeque<Object>(this.retainedObjects);
+    }
+
+    public boolean hasNext() {
+        if(!advanced) {
+            while(returned.size() >= retainedObjects) {
+                evict(returned.poll());
+            }
+            hasNext = !closed && results.next();
+            advanced = true;
+        }
+        return hasNext;
+    }
+
+    public Object next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        Object[] row = results.get();
+        Object current = row.length == 1 ? row[0] : row;
+        if(session != null && !(current instanceof Object[])) {
+            returned.offer(current);
+        }
+        return current;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    //Only single entities are evicted; rows with multiple columns may contain scalars
+    protected void evict(Object object) {
+        if(object != null) {
+            try {
+                if(session.contains(object)) {
+                    session.evict(object);
+                }
+            } catch (IllegalArgumentException e) {
+                //Not an entity
+            }
+        }
+    }
+
+    public void close() {
+        if(!closed) {
+            closed = true;
+            while(!returned.isEmpty()) {
+                evict(returned.poll());
+            }
+            results.close();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.persistence.hibernate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.*;
+import org.hibernate.cache.spi.access.*;
+import org.hibernate.cfg.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process Hibernate second-level cache, backed by Guava caches. Each region holds at most a configurable
+ * number of entries for a configurable time. Entity and collection regions use a non-strict read-write
+ * strategy: entries are evicted when the corresponding rows are modified through Hibernate, and they
+ * expire anyway, so changes made by other applications are eventually seen.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class CacheRegionFactory implements RegionFactory {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(CacheRegionFactory.class);
+
+    //Hibernate properties
+    public static final String MAX_ENTRIES = "hibernate.cache.portofino.max_entries";
+    public static final String TIME_TO_LIVE = "hibernate.cache.portofino.ttl";
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final int DEFAULT_TIME_TO_LIVE = 600;
+    //Timeout of the locks taken while rows are updated, in the unit of nextTimestamp() (milliseconds)
+    public static final int LOCK_TIMEOUT = 60000;
+
+    protected long maxEntries = DEFAULT_MAX_ENTRIES;
+    protected long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    //**************************************************************************
+    // RegionFactory implementation
+    //**************************************************************************
+
+    public void start(Settings settings, Properties properties) throws CacheException {
+        maxEntries = Long.parseLong(properties.getProperty(MAX_ENTRIES, String.valueOf(DEFAULT_MAX_ENTRIES)));
+        timeToLive = Long.parseLong(properties.getProperty(TIME_TO_LIVE, String.valueOf(DEFAULT_TIME_TO_LIVE)));
+        logger.debug("Second-level cache started, max entries per region: {}, time to live: {}s",
+                maxEntries, timeToLive);
+    }
+
+    public void stop() {}
+
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+
+    public AccessType getDefaultAccessType() {
+        return AccessType.NONSTRICT_READ_WRITE;
+    }
+
+    public long nextTimestamp() {
+        return System.currentTimeMillis();
+    }
+
+    public EntityRegion buildEntityRegion(
+            String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        return new DataRegion(regionName, createCache(), metadata);
+    }
+
+    public NaturalIdRegion buildNaturalIdRegion(
+            String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        return new DataRegion(regionName, createCache(), metadata);
+    }
+
+    public CollectionRegion buildCollectionRegion(
+            String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        return new DataRegion(regionName, createCache(), metadata);
+    }
+
+    public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties)
+            throws CacheException {
+        return new GeneralRegion(regionName, createCache());
+    }
+
+    public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties)
+            throws CacheException {
+        //Never evicted: a missing timestamp would make stale query results look up to date
+        return new GeneralRegion(regionName, CacheBuilder.newBuilder().<Object, Object>build());
+    }
+
+    protected Cache<Object, Object> createCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .<Object, Object>build();
+    }
+
+    //**************************************************************************
+    // Regions
+    //**************************************************************************
+
+    public abstract static class BaseRegion implements Region {
+        protected final String name;
+        protected final Cache<Object, Object> cache;
+
+        protected BaseRegion(String name, Cache<Object, Object> cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void destroy() throws CacheException {
+            cache.invalidateAll();
+        }
+
+        public boolean contains(Object key) {
+            return cache.getIfPresent(key) != null;
+        }
+
+        public long getSizeInMemory() {
+            return -1;
+        }
+
+        public long getElementCountInMemory() {
+            return cache.size();
+        }
+
+        public long getElementCountOnDisk() {
+            return 0;
+        }
+
+        public Map toMap() {
+            return new HashMap<Object, Object>(cache.asMap());
+        }
+
+        public long nextTimestamp() {
+            return System.currentTimeMillis();
+        }
+
+        public int getTimeout() {
+            return LOCK_TIMEOUT;
+        }
+
+        public Object get(Object key) throws CacheException {
+            return cache.getIfPresent(key);
+        }
+
+        public void put(Object key, Object value) throws CacheException {
+            cache.put(key, value);
+        }
+
+        public void evict(Object key) throws CacheException {
+            cache.invalidate(key);
+        }
+
+        public void evictAll() throws CacheException {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Region for query results and update timestamps.
+     */
+    public static class GeneralRegion extends BaseRegion implements QueryResultsRegion, TimestampsRegion {
+        public GeneralRegion(String name, Cache<Object, Object> cache) {
+            super(name, cache);
+        }
+    }
+
+    /**
+     * Region for entities, collections and natural ids.
+     */
+    public static class DataRegion extends BaseRegion implements EntityRegion, CollectionRegion, NaturalIdRegion {
+        protected final CacheDataDescription metadata;
+
+        public DataRegion(String name, Cache<Object, Object> cache, CacheDataDescription metadata) {
+            super(name, cache);
+            this.metadata = metadata;
+        }
+
+        public boolean isTransactionAware() {
+            return false;
+        }
+
+        public CacheDataDescription getCacheDataDescription() {
+            return metadata;
+        }
+
+        public NonstrictReadWriteAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            if(accessType == AccessType.TRANSACTIONAL) {
+                throw new CacheException("Transactional access is not supported: " + name);
+            }
+            //Read-write access is served by the non-strict strategy: it never returns stale entries after a
+            //write in this JVM, though a concurrent load may repopulate an entry while it is being updated.
+            return new NonstrictReadWriteAccessStrategy(this);
+        }
+    }
+
+    //**************************************************************************
+    // Access strategy
+    //**************************************************************************
+
+    public static class NonstrictReadWriteAccessStrategy
+            implements EntityRegionAccessStrategy, CollectionRegionAccessStrategy, NaturalIdRegionAccessStrategy {
+        protected final DataRegion region;
+
+        public NonstrictReadWriteAccessStrategy(DataRegion region) {
+            this.region = region;
+        }
+
+        public DataRegion getRegion() {
+            return region;
+        }
+
+        public Object get(Object key, long txTimestamp) throws CacheException {
+            return region.get(key);
+        }
+
+        public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version)
+                throws CacheException {
+            return putFromLoad(key, value, txTimestamp, version, false);
+        }
+
+        public boolean putFromLoad(
+                Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride)
+                throws CacheException {
+            if(minimalPutOverride && region.contains(key)) {
+                return false;
+            }
+            region.put(key, value);
+            return true;
+        }
+
+        public SoftLock lockItem(Object key, Object version) throws CacheException {
+            region.evict(key);
+            return null;
+        }
+
+        public SoftLock lockRegion() throws CacheException {
+            return null;
+        }
+
+        public void unlockItem(Object key, SoftLock lock) throws CacheException {
+            region.evict(key);
+        }
+
+        public void unlockRegion(SoftLock lock) throws CacheException {
+            region.evictAll();
+        }
+
+        public void remove(Object key) throws CacheException {
+            region.evict(key);
+        }
+
+        public void removeAll() throws CacheException {
+            region.evictAll();
+        }
+
+        public void evict(Object key) throws CacheException {
+            region.evict(key);
+        }
+
+        public void evictAll() throws CacheException {
+            region.evictAll();
+        }
+
+        //Inserted and updated entities are not cached until they are loaded again
+
+        public boolean insert(Object key, Object value, Object version) throws CacheException {
+            return false;
+        }
+
+        public boolean afterInsert(Object key, Object value, Object version) throws CacheException {
+            return false;
+        }
+
+        public boolean update(Object key, Object value, Object currentVersion, Object previousVersion)
+                throws CacheException {
+            region.evict(key);
+            return false;
+        }
+
+        public boolean afterUpdate(
+                Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock)
+                throws CacheException {
+            unlockItem(key, lock);
+            return false;
+        }
+
+        public boolean insert(Object key, Object value) throws CacheException {
+            return false;
+        }
+
+        public boolean afterInsert(Object key, Object value) throws CacheException {
+            return false;
+        }
+
+        public boolean update(Object key, Object value) throws CacheException {
+            region.evict(key);
+            return false;
+        }
+
+        public boolean afterUpdate(Object key, Object value, SoftLock lock) throws CacheException {
+            unlockItem(key, lock);
+            return false;
+        }
+    }
+}
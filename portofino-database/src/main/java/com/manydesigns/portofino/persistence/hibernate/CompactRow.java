@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.persistence.hibernate;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Map used in place of a HashMap to hold the state of a dynamic-map entity. The values of the properties known
+ * in advance are stored in an array, with the same slot for each row of the same entity, and the mapping from
+ * property names to slots is shared by all those rows, as a {@link Layout}. Other keys, if any, are stored in
+ * an ordinary map, created on demand. Compared to a HashMap, this saves an entry object per property and the
+ * hash table itself.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class CompactRow extends AbstractMap<String, Object> implements Serializable {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    //Marks the slots of the keys that are not in the map
+    protected enum Absent { INSTANCE }
+
+    protected final Layout layout;
+    protected final Object[] values;
+    protected Map<String, Object> extraValues;
+    protected transient Set<Entry<String, Object>> entrySet;
+
+    public CompactRow(Layout layout) {
+        this.layout = layout;
+        values = new Object[layout.size()];
+        Arrays.fill(values, Absent.INSTANCE);
+    }
+
+    //**************************************************************************
+    // Slot access
+    //**************************************************************************
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param slot the slot, as given by {@link Layout#indexOf(String)}.
+     * @return the value in the slot, or null if the corresponding key is not in the map.
+     */
+    public Object getAt(int slot) {
+        Object value = values[slot];
+        return value == Absent.INSTANCE ? null : value;
+    }
+
+    /**
+     * Stores a value in a slot, as {@link #put(String, Object)} would do with the corresponding key.
+     * @param slot the slot, as given by {@link Layout#indexOf(String)}.
+     * @param value the value.
+     */
+    public void setAt(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    //**************************************************************************
+    // Map implementation
+    //**************************************************************************
+
+    @Override
+    public Object get(Object key) {
+        int slot = layout.indexOf(key);
+        if(slot >= 0) {
+            return getAt(slot);
+        }
+        return extraValues != null ? extraValues.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = layout.indexOf(key);
+        if(slot >= 0) {
+            return values[slot] != Absent.INSTANCE;
+        }
+        return extraValues != null && extraValues.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = layout.indexOf(key);
+        if(slot >= 0) {
+            Object old = getAt(slot);
+            values[slot] = value;
+            return old;
+        }
+        if(extraValues == null) {
+            extraValues = new HashMap<String, Object>();
+        }
+        return extraValues.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = layout.indexOf(key);
+        if(slot >= 0) {
+            Object old = getAt(slot);
+            values[slot] = Absent.INSTANCE;
+            return old;
+        }
+        return extraValues != null ? extraValues.remove(key) : null;
+    }
+
+    @Override
+    public int size() {
+        int size = extraValues != null ? extraValues.size() : 0;
+        for(Object value : values) {
+            if(value != Absent.INSTANCE) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, Absent.INSTANCE);
+        extraValues = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if(entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return CompactRow.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    protected class EntryIterator implements Iterator<Entry<String, Object>> {
+        protected int nextSlot = -1;
+        protected int currentSlot = -1;
+        protected Iterator<Entry<String, Object>> extraIterator;
+
+        protected EntryIterator() {
+            advance();
+        }
+
+        protected void advance() {
+            do {
+                nextSlot++;
+            } while(nextSlot < values.length && values[nextSlot] == Absent.INSTANCE);
+        }
+
+        public boolean hasNext() {
+            if(nextSlot < values.length) {
+                return true;
+            }
+            if(extraIterator == null && extraValues != null) {
+                extraIterator = extraValues.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        public Entry<String, Object> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if(nextSlot < values.length) {
+                currentSlot = nextSlot;
+                advance();
+                return new SlotEntry(currentSlot);
+            }
+            currentSlot = -1;
+            return extraIterator.next();
+        }
+
+        public void remove() {
+            if(currentSlot >= 0) {
+                if(values[currentSlot] == Absent.INSTANCE) {
+                    throw new IllegalStateException();
+                }
+                values[currentSlot] = Absent.INSTANCE;
+            } else if(extraIterator != null) {
+                extraIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    protected class SlotEntry implements Entry<String, Object> {
+        protected final int slot;
+
+        protected SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        public String getKey() {
+            return layout.getName(slot);
+        }
+
+        public Object getValue() {
+            return getAt(slot);
+        }
+
+        public Object setValue(Object value) {
+            Object old = getAt(slot);
+            values[slot] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) &&
+                   (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    //**************************************************************************
+    // Layout
+    //**************************************************************************
+
+    /**
+     * The names of the properties stored in slots, shared by all the rows of an entity.
+     */
+    public static class Layout implements Serializable {
+        protected final String[] names;
+        protected final Map<String, Integer> slots;
+
+        public Layout(Collection<String> names) {
+            this.names = new LinkedHashSet<String>(names).toArray(new String[0]);
+            Map<String, Integer> slots = new HashMap<String, Integer>(this.names.length * 2);
+            for(int i = 0; i < this.names.length; i++) {
+                slots.put(this.names[i], i);
+            }
+            this.slots = slots;
+        }
+
+        /**
+         * @param name the name of a property.
+         * @return the slot of the property, or -1 if the property is not stored in a slot.
+         */
+        public int indexOf(Object name) {
+            Integer slot = slots.get(name);
+            return slot != null ? slot : -1;
+        }
+
+        public String getName(int slot) {
+            return names[slot];
+        }
+
+        public int size() {
+            return names.length;
+        }
+    }
+}
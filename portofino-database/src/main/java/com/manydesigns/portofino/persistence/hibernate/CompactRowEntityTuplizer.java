@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.persistence.hibernate;
+
+import org.hibernate.EntityMode;
+import org.hibernate.EntityNameResolver;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.metamodel.binding.AttributeBinding;
+import org.hibernate.metamodel.binding.BasicAttributeBinding;
+import org.hibernate.metamodel.binding.EntityBinding;
+import org.hibernate.property.Getter;
+import org.hibernate.property.PropertyAccessor;
+import org.hibernate.property.PropertyAccessorFactory;
+import org.hibernate.property.Setter;
+import org.hibernate.proxy.ProxyFactory;
+import org.hibernate.proxy.map.MapProxyFactory;
+import org.hibernate.tuple.DynamicMapInstantiator;
+import org.hibernate.tuple.Instantiator;
+import org.hibernate.tuple.entity.AbstractEntityTuplizer;
+import org.hibernate.tuple.entity.DynamicMapEntityTuplizer;
+import org.hibernate.tuple.entity.EntityMetamodel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dynamic-map tuplizer that instantiates entities as {@link CompactRow}s rather than HashMaps. Apart from that,
+ * it behaves like Hibernate's {@link DynamicMapEntityTuplizer}, which cannot be extended.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class CompactRowEntityTuplizer extends AbstractEntityTuplizer {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(CompactRowEntityTuplizer.class);
+
+    public CompactRowEntityTuplizer(EntityMetamodel entityMetamodel, PersistentClass mappedEntity) {
+        super(entityMetamodel, mappedEntity);
+    }
+
+    public CompactRowEntityTuplizer(EntityMetamodel entityMetamodel, EntityBinding mappedEntity) {
+        super(entityMetamodel, mappedEntity);
+    }
+
+    public EntityMode getEntityMode() {
+        return EntityMode.MAP;
+    }
+
+    protected PropertyAccessor buildPropertyAccessor(Property mappedProperty) {
+        if(mappedProperty.isBackRef()) {
+            return mappedProperty.getPropertyAccessor(null);
+        } else {
+            return PropertyAccessorFactory.getDynamicMapPropertyAccessor();
+        }
+    }
+
+    @Override
+    protected Getter buildPropertyGetter(Property mappedProperty, PersistentClass mappedEntity) {
+        return buildPropertyAccessor(mappedProperty).getGetter(null, mappedProperty.getName());
+    }
+
+    @Override
+    protected Setter buildPropertySetter(Property mappedProperty, PersistentClass mappedEntity) {
+        return buildPropertyAccessor(mappedProperty).getSetter(null, mappedProperty.getName());
+    }
+
+    @Override
+    protected Instantiator buildInstantiator(PersistentClass mappingInfo) {
+        return new CompactRowInstantiator(mappingInfo, createLayout(mappingInfo));
+    }
+
+    /**
+     * Computes the layout shared by the rows of an entity: the type key, the identifier and all the properties.
+     * @param mappingInfo the entity.
+     * @return the layout.
+     */
+    protected CompactRow.Layout createLayout(PersistentClass mappingInfo) {
+        List<String> names = new ArrayList<String>();
+        names.add(DynamicMapInstantiator.KEY);
+        if(mappingInfo.getIdentifierProperty() != null) {
+            names.add(mappingInfo.getIdentifierProperty().getName());
+        } else if(mappingInfo.getIdentifier() instanceof Component) {
+            //Embedded composite identifier: its properties are stored in the entity itself
+            Iterator<?> it = ((Component) mappingInfo.getIdentifier()).getPropertyIterator();
+            while(it.hasNext()) {
+                names.add(((Property) it.next()).getName());
+            }
+        }
+        Iterator<?> it = mappingInfo.getPropertyClosureIterator();
+        while(it.hasNext()) {
+            names.add(((Property) it.next()).getName());
+        }
+        return new CompactRow.Layout(names);
+    }
+
+    @Override
+    protected ProxyFactory buildProxyFactory(PersistentClass mappingInfo, Getter idGetter, Setter idSetter) {
+        return buildMapProxyFactory();
+    }
+
+    protected ProxyFactory buildMapProxyFactory() {
+        ProxyFactory pf = new MapProxyFactory();
+        try {
+            pf.postInstantiate(getEntityName(), null, null, null, null, null);
+        } catch (HibernateException e) {
+            logger.warn("Unable to create proxy factory for " + getEntityName(), e);
+            pf = null;
+        }
+        return pf;
+    }
+
+    //**************************************************************************
+    // New metamodel
+    //**************************************************************************
+
+    //Portofino builds its mappings with the Configuration API, so Hibernate doesn't call these methods.
+    //They mirror DynamicMapEntityTuplizer so that the tuplizer still works if the new metamodel is enabled.
+
+    @Override
+    protected Getter buildPropertyGetter(AttributeBinding mappedProperty) {
+        //Like DynamicMapEntityTuplizer, backrefs are not supported by the new metamodel
+        return PropertyAccessorFactory.getDynamicMapPropertyAccessor().getGetter(
+                null, mappedProperty.getAttribute().getName());
+    }
+
+    @Override
+    protected Setter buildPropertySetter(AttributeBinding mappedProperty) {
+        return PropertyAccessorFactory.getDynamicMapPropertyAccessor().getSetter(
+                null, mappedProperty.getAttribute().getName());
+    }
+
+    @Override
+    protected Instantiator buildInstantiator(EntityBinding mappingInfo) {
+        return new CompactRowInstantiator(mappingInfo, createLayout(mappingInfo));
+    }
+
+    /**
+     * Computes the layout shared by the rows of an entity mapped with the new metamodel.
+     * @param mappingInfo the entity.
+     * @return the layout.
+     */
+    protected CompactRow.Layout createLayout(EntityBinding mappingInfo) {
+        List<String> names = new ArrayList<String>();
+        names.add(DynamicMapInstantiator.KEY);
+        BasicAttributeBinding identifier =
+                mappingInfo.getHierarchyDetails().getEntityIdentifier().getValueBinding();
+        if(identifier != null) {
+            names.add(identifier.getAttribute().getName());
+        }
+        for(AttributeBinding attributeBinding : mappingInfo.getAttributeBindingClosure()) {
+            names.add(attributeBinding.getAttribute().getName());
+        }
+        return new CompactRow.Layout(names);
+    }
+
+    @Override
+    protected ProxyFactory buildProxyFactory(EntityBinding mappingInfo, Getter idGetter, Setter idSetter) {
+        return buildMapProxyFactory();
+    }
+
+    //**************************************************************************
+    // Map entities
+    //**************************************************************************
+
+    public Class getMappedClass() {
+        return Map.class;
+    }
+
+    public Class getConcreteProxyClass() {
+        return Map.class;
+    }
+
+    public boolean isInstrumented() {
+        return false;
+    }
+
+    public EntityNameResolver[] getEntityNameResolvers() {
+        return new EntityNameResolver[] { DynamicMapEntityTuplizer.BasicEntityNameResolver.INSTANCE };
+    }
+
+    public String determineConcreteSubclassEntityName(Object entityInstance, SessionFactoryImplementor factory) {
+        return DynamicMapEntityTuplizer.extractEmbeddedEntityName((Map) entityInstance);
+    }
+
+    public static class CompactRowInstantiator extends DynamicMapInstantiator {
+        protected final CompactRow.Layout layout;
+
+        public CompactRowInstantiator(PersistentClass mappingInfo, CompactRow.Layout layout) {
+            super(mappingInfo);
+            this.layout = layout;
+        }
+
+        public CompactRowInstantiator(EntityBinding mappingInfo, CompactRow.Layout layout) {
+            super(mappingInfo);
+            this.layout = layout;
+        }
+
+        @Override
+        protected Map generateMap() {
+            return new CompactRow(layout);
+        }
+    }
+}
@@ -26,11 +26,15 @@ import com.manydesigns.portofino.database.StringBooleanType;
 import com.manydesigns.portofino.model.database.*;
 import com.manydesigns.portofino.model.database.ForeignKey;
 import com.manydesigns.portofino.model.database.platforms.DatabasePlatform;
+import com.manydesigns.portofino.modules.DatabaseModule;
 import liquibase.structure.core.ForeignKeyConstraintType;
+import org.hibernate.EntityMode;
 import org.hibernate.FetchMode;
+import org.hibernate.cache.spi.access.AccessType;
 import org.hibernate.MappingException;
 import org.hibernate.cfg.BinderHelper;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
 import org.hibernate.cfg.Mappings;
 import org.hibernate.cfg.annotations.TableBinder;
 import org.hibernate.id.IncrementGenerator;
@@ -67,6 +71,9 @@ public class HibernateConfig {
     protected final ConnectionProvider connectionProvider;
     protected final org.apache.commons.configuration.Configuration portofinoConfiguration;
     private static final boolean LAZY = true;
+    //Defaults for the batch settings, which can be overridden in portofino.properties using the Hibernate keys
+    public static final int DEFAULT_JDBC_BATCH_SIZE = 50;
+    public static final int DEFAULT_BATCH_FETCH_SIZE = 16;
     public static final Logger logger =
             LoggerFactory.getLogger(HibernateConfig.class);
 
@@ -91,6 +98,7 @@ public class HibernateConfig {
 
             //Class Mapping
             classMapping(database, mappings);
+            setupCache(configuration, database);
             //One2Many Mapping
             o2mMapping(database, configuration, mappings);
 
@@ -111,18 +119,62 @@ public class HibernateConfig {
         configuration
                 .setProperty("hibernate.current_session_context_class", "org.hibernate.context.internal.ThreadLocalSessionContext")
                 .setProperty("org.hibernate.hql.ast.AST", "true")
-                .setProperty("hibernate.globally_quoted_identifiers", "false");
+                .setProperty("hibernate.globally_quoted_identifiers", "false")
+                //Group inserts and updates by entity so that they can be sent to the database in JDBC batches
+                .setProperty(Environment.STATEMENT_BATCH_SIZE, String.valueOf(
+                        portofinoConfiguration.getInt(Environment.STATEMENT_BATCH_SIZE, DEFAULT_JDBC_BATCH_SIZE)))
+                .setProperty("hibernate.order_inserts", "true")
+                .setProperty("hibernate.order_updates", "true")
+                //Initialize lazy relationships of several entities with a single query
+                .setProperty(Environment.DEFAULT_BATCH_FETCH_SIZE, String.valueOf(
+                        portofinoConfiguration.getInt(Environment.DEFAULT_BATCH_FETCH_SIZE, DEFAULT_BATCH_FETCH_SIZE)));
         // mettendo la modalità dynamic map, non funzionano le entità mappate su bean.
         // configuration.setProperty("hibernate.default_entity_mode", "dynamic-map");
     }
 
+    /**
+     * Enables the second-level cache if some tables are marked as cacheable or if the query cache is enabled.
+     * @param configuration the Hibernate configuration.
+     * @param database the database being mapped.
+     */
+    protected void setupCache(Configuration configuration, Database database) {
+        boolean queryCache = portofinoConfiguration.getBoolean(DatabaseModule.HIBERNATE_QUERY_CACHE_ENABLED, false);
+        boolean cacheableTables = false;
+        for(com.manydesigns.portofino.model.database.Table table : database.getAllTables()) {
+            if(Boolean.TRUE.equals(table.getCacheable())) {
+                cacheableTables = true;
+                break;
+            }
+        }
+        if(!cacheableTables && !queryCache) {
+            return;
+        }
+        configuration
+                .setProperty("hibernate.cache.use_second_level_cache", "true")
+                .setProperty("hibernate.cache.use_query_cache", String.valueOf(queryCache))
+                .setProperty("hibernate.cache.region.factory_class", CacheRegionFactory.class.getName())
+                .setProperty(CacheRegionFactory.MAX_ENTRIES, String.valueOf(portofinoConfiguration.getInt(
+                        DatabaseModule.HIBERNATE_CACHE_MAX_ENTRIES, CacheRegionFactory.DEFAULT_MAX_ENTRIES)))
+                .setProperty(CacheRegionFactory.TIME_TO_LIVE, String.valueOf(portofinoConfiguration.getInt(
+                        DatabaseModule.HIBERNATE_CACHE_TTL, CacheRegionFactory.DEFAULT_TIME_TO_LIVE)));
+    }
+
     protected void setupConnection(Configuration configuration) {
         if(!connectionProvider.isHibernateDialectAutodetected()) {
             configuration.setProperty(
                     "hibernate.dialect",
                     connectionProvider.getActualHibernateDialectName());
         }
-        if(connectionProvider instanceof JdbcConnectionProvider) {
+        if(connectionProvider instanceof PooledJdbcConnectionProvider) {
+            //Share the pool with the model tools; Hibernate does not close a data source passed this way
+            PooledJdbcConnectionProvider pooledConnectionProvider =
+                    (PooledJdbcConnectionProvider) connectionProvider;
+            try {
+                configuration.getProperties().put(Environment.DATASOURCE, pooledConnectionProvider.getDataSource());
+            } catch (Exception e) {
+                throw new Error("Could not set up the connection pool for " + connectionProvider, e);
+            }
+        } else if(connectionProvider instanceof JdbcConnectionProvider) {
             JdbcConnectionProvider jdbcConnectionProvider =
                     (JdbcConnectionProvider) connectionProvider;
             configuration.setProperty("hibernate.connection.url", jdbcConnectionProvider.getActualUrl());
@@ -200,9 +252,15 @@ public class HibernateConfig {
         if (aTable.getJavaClass() != null) {
             clazz.setClassName(aTable.getJavaClass());
             clazz.setProxyInterfaceName(aTable.getJavaClass());
+        } else if(portofinoConfiguration.getBoolean(DatabaseModule.HIBERNATE_COMPACT_ROWS, false)) {
+            //Store rows in arrays rather than in HashMaps
+            clazz.addTuplizer(EntityMode.MAP, CompactRowEntityTuplizer.class.getName());
         }
         clazz.setLazy(LAZY);
         clazz.setTable(tab);
+        if(Boolean.TRUE.equals(aTable.getCacheable())) {
+            clazz.setCacheConcurrencyStrategy(AccessType.NONSTRICT_READ_WRITE.getExternalName());
+        }
         //clazz.setNodeName(aTable.getTableName());
 
         List<com.manydesigns.portofino.model.database.Column> columnList =
@@ -583,6 +641,13 @@ public class HibernateConfig {
 
         set.setSorted(false);
         set.setFetchMode(FetchMode.DEFAULT);
+        if(relationship.getBatchSize() != null) {
+            set.setBatchSize(relationship.getBatchSize());
+        }
+        if(Boolean.TRUE.equals(relationship.getSubselectFetch())) {
+            //Load the collections of all the entities returned by the same query at once
+            set.setSubselectLoadable(true);
+        }
         //Riferimenti alle colonne
 
         ToOne m2o = createM2O(config, mappings, relationship);
@@ -786,6 +851,11 @@ public class HibernateConfig {
         }
         m2o.createForeignKey();
         m2o.createPropertyRefConstraints(persistentClasses);
+        PersistentClass oneClass = persistentClasses.get(oneMDQualifiedTableName);
+        if(relationship.getBatchSize() != null && oneClass != null) {
+            //Proxies are batch-loaded per entity, so the largest batch size among the relationships wins
+            oneClass.setBatchSize(Math.max(oneClass.getBatchSize(), relationship.getBatchSize()));
+        }
 
         Property prop = new Property();
         prop.setName(relationship.getActualOnePropertyName());
@@ -24,6 +24,7 @@ import com.manydesigns.elements.annotations.*;
 import com.manydesigns.elements.annotations.impl.*;
 import com.manydesigns.elements.reflection.PropertyAccessor;
 import com.manydesigns.portofino.model.database.Column;
+import com.manydesigns.portofino.persistence.hibernate.CompactRow;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +50,8 @@ public class ColumnAccessor
 
     protected final Column column;
     protected final PropertyAccessor nestedPropertyAccessor;
+    //Slot of this column in the last CompactRow layout seen
+    protected volatile LayoutSlot layoutSlot;
 
     public static final Logger logger =
             LoggerFactory.getLogger(ColumnAccessor.class);
@@ -98,6 +101,13 @@ public class ColumnAccessor
 
     public Object get(Object obj) {
         if (nestedPropertyAccessor == null) {
+            if (obj instanceof CompactRow) {
+                CompactRow row = (CompactRow) obj;
+                int slot = getSlot(row.getLayout());
+                if (slot >= 0) {
+                    return row.getAt(slot);
+                }
+            }
             return ((Map)obj).get(column.getActualPropertyName());
         } else {
             return nestedPropertyAccessor.get(obj);
@@ -106,6 +116,14 @@ public class ColumnAccessor
 
     public void set(Object obj, Object value) {
         if (nestedPropertyAccessor == null) {
+            if (obj instanceof CompactRow) {
+                CompactRow row = (CompactRow) obj;
+                int slot = getSlot(row.getLayout());
+                if (slot >= 0) {
+                    row.setAt(slot, value);
+                    return;
+                }
+            }
             //noinspection unchecked
             ((Map)obj).put(column.getActualPropertyName(), value);
         } else {
@@ -113,6 +131,25 @@ public class ColumnAccessor
         }
     }
 
+    protected int getSlot(CompactRow.Layout layout) {
+        LayoutSlot current = layoutSlot;
+        if (current == null || current.layout != layout) {
+            current = new LayoutSlot(layout, layout.indexOf(column.getActualPropertyName()));
+            layoutSlot = current;
+        }
+        return current.slot;
+    }
+
+    protected static class LayoutSlot {
+        protected final CompactRow.Layout layout;
+        protected final int slot;
+
+        protected LayoutSlot(CompactRow.Layout layout, int slot) {
+            this.layout = layout;
+            this.slot = slot;
+        }
+    }
+
     //**************************************************************************
     // Getters/setters
     //**************************************************************************
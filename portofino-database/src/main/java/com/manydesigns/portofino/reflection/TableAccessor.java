@@ -33,9 +33,12 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -54,7 +57,8 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
     protected final Table table;
     protected final ColumnAccessor[] columnAccessors;
     protected final ColumnAccessor[] keyColumnAccessors;
-    protected ClassAccessor javaClassAccessor = null;
+    protected final Map<String, ColumnAccessor> columnAccessorsByName;
+    protected final ClassAccessor javaClassAccessor;
 
     public final static Logger logger =
             LoggerFactory.getLogger(TableAccessor.class);
@@ -74,6 +78,8 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
         Class clazz = table.getActualJavaClass();
         if (clazz != null) {
             javaClassAccessor = JavaClassAccessor.getClassAccessor(clazz);
+        } else {
+            javaClassAccessor = null;
         }
 
         this.table = table;
@@ -82,6 +88,7 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
         PrimaryKey pk = table.getPrimaryKey();
         columnAccessors = new ColumnAccessor[columns.size()];
         keyColumnAccessors = new ColumnAccessor[pkColumns.size()];
+        columnAccessorsByName = new HashMap<String, ColumnAccessor>(columns.size() * 2);
 
         setupColumns(columns, pkColumns, pk);
         setupKeyColumns(columns, pkColumns);
@@ -89,9 +96,11 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
 
     private void setupColumns(List<Column> columns, List<Column> pkColumns,
                               PrimaryKey pk) {
+        Set<Column> pkColumnSet = Collections.newSetFromMap(new IdentityHashMap<Column, Boolean>());
+        pkColumnSet.addAll(pkColumns);
         int i = 0;
         for (Column current : columns) {
-            boolean inPk = pkColumns.contains(current);
+            boolean inPk = pkColumnSet.contains(current);
             PropertyAccessor nestedPropertyAccessor;
             if (javaClassAccessor == null) {
                 nestedPropertyAccessor = null;
@@ -112,6 +121,10 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
                     new ColumnAccessor(current,
                             inPk, autoGenerated, nestedPropertyAccessor);
             columnAccessors[i] = columnAccessor;
+            //In case of duplicate names, the first column wins, as with a linear search
+            if(!columnAccessorsByName.containsKey(columnAccessor.getName())) {
+                columnAccessorsByName.put(columnAccessor.getName(), columnAccessor);
+            }
             i++;
         }
     }
@@ -146,10 +159,9 @@ public class TableAccessor extends AbstractAnnotatedAccessor implements ClassAcc
 
     public PropertyAccessor getProperty(String propertyName)
             throws NoSuchFieldException {
-        for (ColumnAccessor current : columnAccessors) {
-            if (current.getName().equals(propertyName)) {
-                return current;
-            }
+        ColumnAccessor columnAccessor = columnAccessorsByName.get(propertyName);
+        if (columnAccessor != null) {
+            return columnAccessor;
         }
 
         throw new NoSuchFieldException(propertyName);
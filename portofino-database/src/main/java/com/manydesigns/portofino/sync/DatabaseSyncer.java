@@ -295,6 +295,8 @@ public class DatabaseSyncer {
                 logger.debug("Found a foreign key with the same name in the previous version of the schema");
                 targetFK.setManyPropertyName(sourceFK.getManyPropertyName());
                 targetFK.setOnePropertyName(sourceFK.getOnePropertyName());
+                targetFK.setBatchSize(sourceFK.getBatchSize());
+                targetFK.setSubselectFetch(sourceFK.getSubselectFetch());
             }
 
             logger.debug("FK creation successfull. Adding FK to table.");
@@ -427,6 +429,7 @@ public class DatabaseSyncer {
             targetTable.setEntityName(sourceTable.getEntityName());
             targetTable.setJavaClass(sourceTable.getJavaClass());
             targetTable.setShortName(sourceTable.getShortName());
+            targetTable.setCacheable(sourceTable.getCacheable());
             copyAnnotations(sourceTable, targetTable);
 
             syncColumns(liquibaseTable, sourceTable, targetTable);
@@ -65,4 +65,9 @@ public class IbmDb2DatabasePlatform extends AbstractDatabasePlatform {
     public boolean isApplicable(ConnectionProvider connectionProvider) {
         return connectionProvider.getDatabaseProductName().startsWith("DB2/");
     }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1 from sysibm.sysdummy1";
+    }
 }
@@ -67,4 +67,9 @@ public class IbmDb2ZosDatabasePlatform extends AbstractDatabasePlatform {
     public boolean isApplicable(ConnectionProvider connectionProvider) {
         return connectionProvider.getDatabaseProductName().startsWith("DB2");
     }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1 from sysibm.sysdummy1";
+    }
 }
@@ -61,4 +61,9 @@ public class IbmDb2iDatabasePlatform extends AbstractDatabasePlatform {
     public boolean isApplicable(ConnectionProvider connectionProvider) {
         return connectionProvider.getDatabaseProductName().startsWith("DB2 UDB for AS/400");
     }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1 from sysibm.sysdummy1";
+    }
 }
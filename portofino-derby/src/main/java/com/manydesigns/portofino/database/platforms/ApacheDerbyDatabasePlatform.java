@@ -61,4 +61,9 @@ public class ApacheDerbyDatabasePlatform extends AbstractDatabasePlatform {
     public boolean isApplicable(ConnectionProvider connectionProvider) {
         return "Apache Derby".equals(connectionProvider.getDatabaseProductName());
     }
+
+    @Override
+    public String getValidationQuery() {
+        return "values 1";
+    }
 }
@@ -90,5 +90,9 @@ public class GoogleCloudSQLDatabasePlatform extends AbstractDatabasePlatform {
     public boolean isDialectAutodetected() {
         return false;
     }
-}
 
+    @Override
+    public String getValidationQuery() {
+        return "select 1";
+    }
+}
@@ -78,4 +78,9 @@ public class H2DatabasePlatform extends AbstractDatabasePlatform {
             connectionProvider.releaseConnection(connection);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1";
+    }
+}
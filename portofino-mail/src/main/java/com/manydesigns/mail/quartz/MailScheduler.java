@@ -20,6 +20,9 @@
 
 package com.manydesigns.mail.quartz;
 
+import com.manydesigns.mail.sender.DefaultMailSender;
+import com.manydesigns.mail.sender.MailBatchStatistics;
+import com.manydesigns.mail.sender.MailSender;
 import com.manydesigns.mail.setup.MailProperties;
 import com.manydesigns.mail.setup.MailQueueSetup;
 import org.apache.commons.configuration.Configuration;
@@ -41,6 +44,22 @@ public class MailScheduler {
     public static final Logger logger = LoggerFactory.getLogger(MailScheduler.class);
     public static final int DEFAULT_POLL_INTERVAL = 1000;
 
+    /**
+     * Returns the statistics of the last batch of emails sent, either by the scheduled job or by a request
+     * to the mail sender URL.
+     * @param mailQueueSetup the mail setup.
+     * @return the statistics, or null if no mail sender is configured, it does not collect statistics,
+     * or it has not run yet.
+     */
+    public static MailBatchStatistics getLastBatchStatistics(MailQueueSetup mailQueueSetup) {
+        MailSender mailSender = mailQueueSetup.getMailSender();
+        if(mailSender instanceof DefaultMailSender) {
+            return ((DefaultMailSender) mailSender).getLastBatchStatistics();
+        } else {
+            return null;
+        }
+    }
+
     public static void setupMailScheduler(MailQueueSetup mailQueueSetup) {
         String group = "portofino-mail";
         setupMailScheduler(mailQueueSetup, group);
@@ -20,6 +20,7 @@
 
 package com.manydesigns.mail.quartz;
 
+import com.manydesigns.mail.sender.DefaultMailSender;
 import com.manydesigns.mail.sender.MailSender;
 import com.manydesigns.mail.setup.MailProperties;
 import org.apache.commons.configuration.Configuration;
@@ -68,6 +69,9 @@ public class MailSenderJob implements Job {
             } else if(serverErrors > 0) {
                 logger.warn("Mail sender encountered {} server errors.", serverErrors);
             }
+            if(sender instanceof DefaultMailSender) {
+                logger.debug("Mail batch statistics: {}", ((DefaultMailSender) sender).getLastBatchStatistics());
+            }
             jobDataMap.put(MAIL_IDS_TO_MARK_AS_SENT, idsToMarkAsSent);
         }
     }
@@ -35,10 +35,23 @@ import javax.mail.IllegalWriteException;
 import javax.mail.MessagingException;
 import javax.mail.MethodNotSupportedException;
 import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
 import javax.mail.internet.ParseException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -58,6 +71,11 @@ public class DefaultMailSender implements MailSender {
     protected boolean tls = false;
     protected String login;
     protected String password;
+    protected int connectionPoolSize = 0;
+    protected int maxMessagesPerConnection = 100;
+
+    protected volatile MailBatchStatistics lastBatchStatistics;
+    protected ExecutorService executor;
 
     public static final Logger logger = LoggerFactory.getLogger(DefaultMailSender.class);
 
@@ -73,65 +91,159 @@ public class DefaultMailSender implements MailSender {
             logger.error("Couldn't read email queue", e);
             return -1;
         }
-        int serverErrors = 0;
-        for(String id : ids) {
-            if(idsToMarkAsSent.contains(id)) {
-                logger.info("Mail with id {} already sent but mark failed, retrying", id);
-                try {
-                    queue.markSent(id);
-                    idsToMarkAsSent.remove(id);
-                } catch (Throwable e) {
-                    logger.error("Couldn't mark mail as sent", e);
+        MailBatchStatistics statistics = new MailBatchStatistics();
+        statistics.enqueued.set(ids.size());
+        if(connectionPoolSize > 0 && ids.size() > 1) {
+            runPooled(ids, idsToMarkAsSent, statistics);
+        } else {
+            for(String id : ids) {
+                processEmail(id, idsToMarkAsSent, null, statistics);
+            }
+        }
+        statistics.end();
+        lastBatchStatistics = statistics;
+        if(!ids.isEmpty()) {
+            logger.info("Mail batch completed - {}", statistics);
+        }
+        return statistics.getServerErrors();
+    }
+
+    /**
+     * Sends a batch of emails concurrently, each worker thread keeping its own SMTP connection open for
+     * several messages. The worker threads belong to an executor that is kept across batches and shut down
+     * by {@link #stop()}.
+     */
+    protected void runPooled(List<String> ids, Set<String> idsToMarkAsSent, final MailBatchStatistics statistics) {
+        final Queue<String> pending = new ConcurrentLinkedQueue<String>(ids);
+        final Set<String> sharedIdsToMarkAsSent = Collections.synchronizedSet(idsToMarkAsSent);
+        int workers = Math.min(connectionPoolSize, ids.size());
+        logger.debug("Sending {} emails using {} connections", ids.size(), workers);
+        ExecutorService executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        for(int i = 0; i < workers; i++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    SmtpConnection connection = new SmtpConnection(statistics);
+                    try {
+                        String id;
+                        while((id = pending.poll()) != null) {
+                            processEmail(id, sharedIdsToMarkAsSent, connection, statistics);
+                        }
+                    } finally {
+                        connection.close();
+                    }
                 }
-                continue;
+            }));
+        }
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("Unexpected error sending emails", e.getCause());
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while sending emails", e);
+                for(Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
             }
-            Email email;
+        }
+    }
+
+    protected synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(connectionPoolSize, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "mail-sender-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the threads used to send emails over pooled connections. Emails being sent are completed;
+     * if the sender runs again afterwards, new threads are started.
+     */
+    public synchronized void stop() {
+        if(executor != null) {
+            logger.debug("Shutting down mail sender threads");
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    protected void processEmail(
+            String id, Set<String> idsToMarkAsSent, SmtpConnection connection, MailBatchStatistics statistics) {
+        if(idsToMarkAsSent.contains(id)) {
+            logger.info("Mail with id {} already sent but mark failed, retrying", id);
             try {
-                email = queue.loadEmail(id);
-            } catch (MailParseException e) {
-                logger.error("Mail with id " + id + " is corrupted, marking as failed", e);
-                markFailed(id, e);
-                continue;
+                queue.markSent(id);
+                idsToMarkAsSent.remove(id);
             } catch (Throwable e) {
-                logger.error("Unexpected error loading mail with id " + id + ", skipping", e);
-                continue;
+                logger.error("Couldn't mark mail as sent", e);
             }
-            if(email != null) {
-                boolean sent = false;
-                try {
-                    logger.info("Sending email with id {}", id);
+            return;
+        }
+        Email email;
+        try {
+            email = queue.loadEmail(id);
+        } catch (MailParseException e) {
+            logger.error("Mail with id " + id + " is corrupted, marking as failed", e);
+            markFailed(id, e);
+            statistics.failed.incrementAndGet();
+            return;
+        } catch (Throwable e) {
+            logger.error("Unexpected error loading mail with id " + id + ", skipping", e);
+            return;
+        }
+        if(email != null) {
+            boolean sent = false;
+            try {
+                logger.info("Sending email with id {}", id);
+                if(connection != null) {
+                    connection.send(email);
+                } else {
                     send(email);
-                    sent = true;
-                } catch (EmailException e) {
-                    Throwable cause = e.getCause();
-                    if(cause instanceof ParseException ||
-                       cause instanceof IllegalWriteException ||
-                       cause instanceof MethodNotSupportedException) {
-                        markFailed(id, cause);
-                    } else if(cause instanceof MessagingException) {
-                        if(e.getCause() instanceof SendFailedException && e.getCause().getCause() instanceof SMTPAddressFailedException) {
-                            logger.warn("Mail not sent due to known server error, marking as failed");
-                            markFailed(id, e);
-                        } else {
-                            logger.warn("Mail not sent due to known server error, NOT marking as failed", e);
-                            serverErrors++;
-                        }
-                    } else {
+                }
+                sent = true;
+                statistics.sent.incrementAndGet();
+            } catch (EmailException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof ParseException ||
+                   cause instanceof IllegalWriteException ||
+                   cause instanceof MethodNotSupportedException) {
+                    markFailed(id, cause);
+                    statistics.failed.incrementAndGet();
+                } else if(cause instanceof MessagingException) {
+                    if(e.getCause() instanceof SendFailedException && e.getCause().getCause() instanceof SMTPAddressFailedException) {
+                        logger.warn("Mail not sent due to known server error, marking as failed");
                         markFailed(id, e);
+                        statistics.failed.incrementAndGet();
+                    } else {
+                        logger.warn("Mail not sent due to known server error, NOT marking as failed", e);
+                        statistics.serverErrors.incrementAndGet();
                     }
-                } catch (Throwable e) {
+                } else {
                     markFailed(id, e);
+                    statistics.failed.incrementAndGet();
                 }
-                if(sent) try {
-                    logger.info("Email with id {} sent, marking as sent ", id);
-                    queue.markSent(id);
-                } catch (Throwable e) {
-                    logger.error("Couldn't mark mail as sent", e);
-                    idsToMarkAsSent.add(id);
-                }
+            } catch (Throwable e) {
+                markFailed(id, e);
+                statistics.failed.incrementAndGet();
+            }
+            if(sent) try {
+                logger.info("Email with id {} sent, marking as sent ", id);
+                queue.markSent(id);
+            } catch (Throwable e) {
+                logger.error("Couldn't mark mail as sent", e);
+                idsToMarkAsSent.add(id);
             }
         }
-        return serverErrors;
     }
 
     protected void markFailed(String id, Throwable e) {
@@ -146,6 +258,14 @@ public class DefaultMailSender implements MailSender {
 
     protected void send(Email emailBean) throws EmailException {
         logger.debug("Entering send(Email)");
+        createEmail(emailBean).send();
+        logger.debug("Exiting send(Email)");
+    }
+
+    /**
+     * Converts a queued email to a commons-email object, ready to be sent.
+     */
+    protected org.apache.commons.mail.Email createEmail(Email emailBean) throws EmailException {
         org.apache.commons.mail.Email email;
         String textBody = emailBean.getTextBody();
         String htmlBody = emailBean.getHtmlBody();
@@ -214,8 +334,108 @@ public class DefaultMailSender implements MailSender {
         email.setStartTLSEnabled(tls);
         email.setSslSmtpPort(port + "");
         email.setCharset("UTF-8");
-        email.send();
-        logger.debug("Exiting send(Email)");
+        return email;
+    }
+
+    //**************************************************************************
+    // Pooled connections
+    //**************************************************************************
+
+    /**
+     * An SMTP connection used to send several messages in a row. It is opened lazily, renewed after
+     * {@link #getMaxMessagesPerConnection()} messages, and reopened for the next message if the server drops
+     * it. A message whose sending fails is never sent again over the new connection, since the server might
+     * have received it already: it stays in the queue and is handled like any other server error. Not thread
+     * safe: each sending thread has its own.
+     */
+    protected class SmtpConnection {
+        protected final MailBatchStatistics statistics;
+        protected Transport transport;
+        protected int messagesSent;
+
+        public SmtpConnection(MailBatchStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        public void send(Email emailBean) throws EmailException {
+            org.apache.commons.mail.Email email = createEmail(emailBean);
+            email.buildMimeMessage();
+            MimeMessage message = email.getMimeMessage();
+            try {
+                Session session = email.getMailSession();
+                if(transport == null || (maxMessagesPerConnection > 0 && messagesSent >= maxMessagesPerConnection)) {
+                    connect(session);
+                }
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                } catch (MessagingException e) {
+                    if(!transport.isConnected()) {
+                        //The next message will use a new connection
+                        logger.debug("SMTP connection lost", e);
+                        close();
+                    }
+                    throw e;
+                }
+                messagesSent++;
+            } catch (MessagingException e) {
+                throw new EmailException(e);
+            }
+        }
+
+        protected void connect(Session session) throws MessagingException {
+            close();
+            logger.debug("Opening SMTP connection to {}:{}", server, port);
+            Transport newTransport = session.getTransport();
+            newTransport.connect(server, port, login, password);
+            transport = newTransport;
+            messagesSent = 0;
+            statistics.connectionsOpened.incrementAndGet();
+        }
+
+        public void close() {
+            if(transport != null) {
+                try {
+                    transport.close();
+                } catch (MessagingException e) {
+                    logger.debug("Error closing SMTP connection", e);
+                }
+                transport = null;
+            }
+        }
+    }
+
+    /**
+     * @return the statistics of the last run, or null if the sender has never run.
+     */
+    public MailBatchStatistics getLastBatchStatistics() {
+        return lastBatchStatistics;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * Sets the number of SMTP connections used to send emails concurrently. With 0 (the default), emails
+     * are sent one at a time, each over a new connection.
+     */
+    public synchronized void setConnectionPoolSize(int connectionPoolSize) {
+        if(connectionPoolSize != this.connectionPoolSize) {
+            stop();
+        }
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    public int getMaxMessagesPerConnection() {
+        return maxMessagesPerConnection;
+    }
+
+    /**
+     * Sets the number of messages sent over a pooled connection before it is closed and reopened.
+     * 0 means no limit.
+     */
+    public void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
     }
 
     public String getServer() {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.mail.sender;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statistics about a single run of a {@link MailSender}, i.e. a batch of emails taken from the queue.
+ * Counters are updated concurrently when emails are sent in parallel.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class MailBatchStatistics {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    protected final long startTime = System.currentTimeMillis();
+    protected volatile long endTime;
+    protected final AtomicInteger enqueued = new AtomicInteger();
+    protected final AtomicInteger sent = new AtomicInteger();
+    protected final AtomicInteger failed = new AtomicInteger();
+    protected final AtomicInteger serverErrors = new AtomicInteger();
+    protected final AtomicInteger connectionsOpened = new AtomicInteger();
+
+    public void end() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return the duration of the batch in milliseconds, or the time elapsed so far if it's still running.
+     */
+    public long getElapsedTime() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    public int getEnqueued() {
+        return enqueued.get();
+    }
+
+    public int getSent() {
+        return sent.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getServerErrors() {
+        return serverErrors.get();
+    }
+
+    public int getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    @Override
+    public String toString() {
+        return "enqueued: " + getEnqueued() + ", sent: " + getSent() + ", failed: " + getFailed() +
+               ", server errors: " + getServerErrors() + ", connections opened: " + getConnectionsOpened() +
+               ", elapsed: " + getElapsedTime() + "ms";
+    }
+}
@@ -37,6 +37,8 @@ public class MailProperties {
     public static final String MAIL_SMTP_TLS_ENABLED = "mail.smtp.tls.enabled";
     public static final String MAIL_SMTP_LOGIN = "mail.smtp.login";
     public static final String MAIL_SMTP_PASSWORD = "mail.smtp.password";
+    public static final String MAIL_SMTP_POOL_SIZE = "mail.smtp.pool.size";
+    public static final String MAIL_SMTP_POOL_MAX_MESSAGES = "mail.smtp.pool.max.messages";
     public static final String MAIL_KEEP_SENT = "mail.keep.sent";
     public static final String MAIL_QUEUE_LOCATION = "mail.queue.location";
 
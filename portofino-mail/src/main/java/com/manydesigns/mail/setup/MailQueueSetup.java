@@ -77,8 +77,18 @@ public class MailQueueSetup {
                         MailProperties.MAIL_SMTP_LOGIN);
                 String password = mailConfiguration.getString(
                         MailProperties.MAIL_SMTP_PASSWORD);
-                
-                mailSender = new DefaultMailSender(mailQueue);
+                int poolSize = mailConfiguration.getInt(
+                        MailProperties.MAIL_SMTP_POOL_SIZE, 0);
+                int maxMessagesPerConnection = mailConfiguration.getInt(
+                        MailProperties.MAIL_SMTP_POOL_MAX_MESSAGES, 100);
+
+                DefaultMailSender defaultMailSender = new DefaultMailSender(mailQueue);
+                if(poolSize > 0) {
+                    logger.info("Sending mail over {} pooled connections", poolSize);
+                    defaultMailSender.setConnectionPoolSize(poolSize);
+                    defaultMailSender.setMaxMessagesPerConnection(maxMessagesPerConnection);
+                }
+                mailSender = defaultMailSender;
                 mailSender.setServer(mailHost);
                 mailSender.setLogin(login);
                 mailSender.setPassword(password);
@@ -22,6 +22,8 @@ package com.manydesigns.portofino.modules;
 
 import com.manydesigns.mail.quartz.MailScheduler;
 import com.manydesigns.mail.queue.MailQueue;
+import com.manydesigns.mail.sender.DefaultMailSender;
+import com.manydesigns.mail.sender.MailSender;
 import com.manydesigns.mail.setup.MailQueueSetup;
 import com.manydesigns.portofino.di.Inject;
 import org.apache.commons.configuration.Configuration;
@@ -130,6 +132,10 @@ public class MailModule implements Module {
 
     @Override
     public void stop() {
+        MailSender mailSender = mailQueueSetup != null ? mailQueueSetup.getMailSender() : null;
+        if(mailSender instanceof DefaultMailSender) {
+            ((DefaultMailSender) mailSender).stop();
+        }
         status = ModuleStatus.STOPPED;
     }
 
@@ -21,6 +21,7 @@
 package com.manydesigns.portofino.model;
 
 import com.manydesigns.portofino.model.database.Database;
+import com.manydesigns.portofino.model.database.ModelIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +47,11 @@ public class Model {
 
     protected final ArrayList<Database> databases;
 
+    /**
+     * Index of the model objects by name, rebuilt on each initialization.
+     */
+    protected volatile ModelIndex index;
+
     public static final Logger logger = LoggerFactory.getLogger(Model.class);
 
     //**************************************************************************
@@ -62,11 +68,17 @@ public class Model {
 
     public void init() {
         for (Database database : databases) {
-            init(database);
+            initObject(database);
         }
+        index = new ModelIndex(this);
     }
 
     public void init(ModelObject rootObject) {
+        initObject(rootObject);
+        index = new ModelIndex(this);
+    }
+
+    protected void initObject(ModelObject rootObject) {
         new ResetVisitor().visit(rootObject);
         new InitVisitor(this).visit(rootObject);
         new LinkVisitor(this).visit(rootObject);
@@ -83,4 +95,12 @@ public class Model {
         return databases;
     }
 
+    /**
+     * @return the index of the model objects as of the last initialization, or null if the model has never
+     * been initialized.
+     */
+    public ModelIndex getIndex() {
+        return index;
+    }
+
 }
\ No newline at end of file
@@ -57,6 +57,12 @@ public class Database implements ModelObject {
 
     protected ConnectionProvider connectionProvider;
 
+    //**************************************************************************
+    // Fields for wire-up
+    //**************************************************************************
+
+    protected Model model;
+
     
     //**************************************************************************
     // Logging
@@ -86,6 +92,7 @@ public class Database implements ModelObject {
 
     public void init(Model model) {
         assert databaseName != null;
+        this.model = model;
     }
 
     public void link(Model model) {}
@@ -109,6 +116,13 @@ public class Database implements ModelObject {
         this.databaseName = databaseName;
     }
 
+    /**
+     * @return the model this database has been last initialized with.
+     */
+    public Model getModel() {
+        return model;
+    }
+
     @XmlElementWrapper(name="schemas")
     @XmlElement(name = "schema",
             type = Schema.class)
@@ -183,6 +197,7 @@ public class Database implements ModelObject {
 
     @XmlElements({
         @XmlElement(name="jdbcConnection", type=JdbcConnectionProvider.class),
+        @XmlElement(name="pooledJdbcConnection", type=PooledJdbcConnectionProvider.class),
         @XmlElement(name="jndiConnection", type=JndiConnectionProvider.class)
     })
     public ConnectionProvider getConnectionProvider() {
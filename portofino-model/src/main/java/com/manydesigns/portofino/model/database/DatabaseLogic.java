@@ -102,10 +102,35 @@ public class DatabaseLogic {
 
     //**************************************************************************
     // Search objects of a certain kind
+    //
+    // Lookups use the index built by Model.init when available. The index only
+    // returns objects still contained in the parent that was searched, results
+    // are checked against the current names, and misses fall back to a scan of
+    // the model, so objects added, removed, moved or renamed after the last
+    // initialization are handled correctly.
     //**************************************************************************
 
+    protected static @Nullable ModelIndex getIndex(@Nullable Database database) {
+        if(database == null || database.getModel() == null) {
+            return null;
+        }
+        return database.getModel().getIndex();
+    }
+
+    protected static @Nullable ModelIndex getIndex(Table table) {
+        Schema schema = table.getSchema();
+        return schema != null ? getIndex(schema.getDatabase()) : null;
+    }
+
     public static @Nullable Database findDatabaseByName(
             Model model, String databaseName) {
+        ModelIndex index = model.getIndex();
+        if(index != null) {
+            Database database = index.getDatabase(model, databaseName);
+            if(database != null && database.getDatabaseName().equals(databaseName)) {
+                return database;
+            }
+        }
         for (Database database : model.getDatabases()) {
             if (database.getDatabaseName().equals(databaseName)) {
                 return database;
@@ -117,6 +142,13 @@ public class DatabaseLogic {
 
     public static @Nullable Schema findSchemaByName(
             Database database, String schemaName) {
+        ModelIndex index = getIndex(database);
+        if(index != null) {
+            Schema schema = index.getSchema(database, schemaName, false);
+            if(schema != null && schema.getSchemaName().equals(schemaName)) {
+                return schema;
+            }
+        }
         for (Schema schema : database.getSchemas()) {
             if (schema.getSchemaName().equals(schemaName)) {
                 return schema;
@@ -128,6 +160,13 @@ public class DatabaseLogic {
 
     public static @Nullable Schema findSchemaByNameIgnoreCase(
             Database database, String schemaName) {
+        ModelIndex index = getIndex(database);
+        if(index != null) {
+            Schema schema = index.getSchema(database, schemaName, true);
+            if(schema != null && schema.getSchemaName().equalsIgnoreCase(schemaName)) {
+                return schema;
+            }
+        }
         for (Schema schema : database.getSchemas()) {
             if (schema.getSchemaName().equalsIgnoreCase(schemaName)) {
                 return schema;
@@ -157,6 +196,13 @@ public class DatabaseLogic {
     }
 
     public static @Nullable Table findTableByName(Schema schema, String tableName) {
+        ModelIndex index = getIndex(schema.getDatabase());
+        if(index != null) {
+            Table table = index.getTable(schema, tableName, false);
+            if(table != null && table.getTableName().equals(tableName)) {
+                return table;
+            }
+        }
         for (Table table : schema.getTables()) {
             if (table.getTableName().equals(tableName)) {
                 return table;
@@ -167,6 +213,13 @@ public class DatabaseLogic {
     }
 
     public static @Nullable Table findTableByNameIgnoreCase(Schema schema, String tableName) {
+        ModelIndex index = getIndex(schema.getDatabase());
+        if(index != null) {
+            Table table = index.getTable(schema, tableName, true);
+            if(table != null && table.getTableName().equalsIgnoreCase(tableName)) {
+                return table;
+            }
+        }
         for (Table table : schema.getTables()) {
             if (table.getTableName().equalsIgnoreCase(tableName)) {
                 return table;
@@ -178,6 +231,13 @@ public class DatabaseLogic {
 
     public static @Nullable Column findColumnByName(
             Table table, String columnName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            Column column = index.getColumn(table, columnName, false);
+            if(column != null && column.getColumnName().equals(columnName)) {
+                return column;
+            }
+        }
         for (Column column : table.getColumns()) {
             if (column.getColumnName().equals(columnName)) {
                 return column;
@@ -189,6 +249,13 @@ public class DatabaseLogic {
 
     public static @Nullable Column findColumnByNameIgnoreCase(
             Table table, String columnName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            Column column = index.getColumn(table, columnName, true);
+            if(column != null && column.getColumnName().equalsIgnoreCase(columnName)) {
+                return column;
+            }
+        }
         for (Column column : table.getColumns()) {
             if (column.getColumnName().equalsIgnoreCase(columnName)) {
                 return column;
@@ -199,6 +266,13 @@ public class DatabaseLogic {
     }
 
     public static Column findColumnByPropertyName(Table table, String propertyName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            Column column = index.getColumnByPropertyName(table, propertyName);
+            if(column != null && propertyName.equals(column.getActualPropertyName())) {
+                return column;
+            }
+        }
         for (Column column : table.getColumns()) {
             if (column.getActualPropertyName().equals(propertyName)) {
                 return column;
@@ -212,10 +286,9 @@ public class DatabaseLogic {
             Model model, String databaseName, String schemaName, String tableName, String columnName) {
         Table table = findTableByName(model, databaseName, schemaName, tableName);
         if (table != null) {
-            for (Column column : table.getColumns()) {
-                if (column.getColumnName().equals(columnName)) {
-                    return column;
-                }
+            Column column = findColumnByName(table, columnName);
+            if (column != null) {
+                return column;
             }
         }
         logger.debug("Column not found: {}", columnName);
@@ -232,6 +305,13 @@ public class DatabaseLogic {
     }
 
     public static Table findTableByEntityName(Database database, String entityName) {
+        ModelIndex index = getIndex(database);
+        if(index != null) {
+            Table table = index.getTableByEntityName(database, entityName);
+            if(table != null && entityName.equals(table.getActualEntityName())) {
+                return table;
+            }
+        }
         for(Schema schema : database.getSchemas()) {
             for(Table table : schema.getTables()) {
                 if(entityName.equals(table.getActualEntityName())) {
@@ -243,6 +323,13 @@ public class DatabaseLogic {
     }
 
     public static ForeignKey findForeignKeyByName(Table table, String fkName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            ForeignKey foreignKey = index.getForeignKey(table, fkName, false);
+            if(foreignKey != null && foreignKey.getName().equals(fkName)) {
+                return foreignKey;
+            }
+        }
         for (ForeignKey current : table.foreignKeys) {
             if (current.getName().equals(fkName)) {
                 return current;
@@ -253,6 +340,13 @@ public class DatabaseLogic {
     }
 
     public static ForeignKey findForeignKeyByNameIgnoreCase(Table table, String fkName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            ForeignKey foreignKey = index.getForeignKey(table, fkName, true);
+            if(foreignKey != null && foreignKey.getName().equalsIgnoreCase(fkName)) {
+                return foreignKey;
+            }
+        }
         for (ForeignKey current : table.foreignKeys) {
             if (current.getName().equalsIgnoreCase(fkName)) {
                 return current;
@@ -263,6 +357,14 @@ public class DatabaseLogic {
     }
 
     public static ModelSelectionProvider findSelectionProviderByName(Table table, String selectionProviderName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            ModelSelectionProvider selectionProvider =
+                    index.getSelectionProviderIgnoreCase(table, selectionProviderName);
+            if(selectionProvider != null && selectionProvider.getName().equalsIgnoreCase(selectionProviderName)) {
+                return selectionProvider;
+            }
+        }
         for (ModelSelectionProvider current : table.selectionProviders) {
             if (current.getName().equalsIgnoreCase(selectionProviderName)) {
                 return current;
@@ -273,6 +375,13 @@ public class DatabaseLogic {
     }
 
     public static ForeignKey findOneToManyRelationshipByName(Table table, String relationshipName) {
+        ModelIndex index = getIndex(table);
+        if(index != null) {
+            ForeignKey relationship = index.getOneToManyRelationshipIgnoreCase(table, relationshipName);
+            if(relationship != null && relationship.getName().equalsIgnoreCase(relationshipName)) {
+                return relationship;
+            }
+        }
         for (ForeignKey current : table.getOneToManyRelationships()) {
             if (current.getName().equalsIgnoreCase(relationshipName)) {
                 return current;
@@ -36,7 +36,7 @@ import java.text.MessageFormat;
 * @author Alessio Stalla       - alessio.stalla@manydesigns.com
 */
 @XmlAccessorType(value = XmlAccessType.NONE)
-@XmlType(propOrder = {"toTableName", "toSchema", "onUpdate", "onDelete"})
+@XmlType(propOrder = {"toTableName", "toSchema", "onUpdate", "onDelete", "batchSize", "subselectFetch"})
 public class ForeignKey extends DatabaseSelectionProvider
         implements HasReferences {
     public static final String copyright =
@@ -57,6 +57,8 @@ public class ForeignKey extends DatabaseSelectionProvider
     protected String manyPropertyName;
     protected String onePropertyName;
     protected String toTableName;
+    protected Integer batchSize;
+    protected Boolean subselectFetch;
 
     //**************************************************************************
     // Fields for wire-up
@@ -213,6 +215,33 @@ public class ForeignKey extends DatabaseSelectionProvider
         this.onePropertyName = onePropertyName;
     }
 
+    /**
+     * @return the number of lazy relationships initialized with a single query, or null to use the
+     * application-wide default. It applies to the collection on the "one" side and to the entities on the
+     * "one" side when referenced from the "many" side.
+     */
+    @XmlAttribute(required = false)
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return whether, when the collection on the "one" side of an entity is initialized, the collections
+     * of all the entities loaded by the same query are initialized as well, with a subselect.
+     */
+    @XmlAttribute(required = false)
+    public Boolean getSubselectFetch() {
+        return subselectFetch;
+    }
+
+    public void setSubselectFetch(Boolean subselectFetch) {
+        this.subselectFetch = subselectFetch;
+    }
+
     public String getActualManyPropertyName() {
         return actualManyPropertyName;
     }
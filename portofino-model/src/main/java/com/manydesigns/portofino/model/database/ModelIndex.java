@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.model.database;
+
+import com.manydesigns.portofino.model.Model;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of the objects of a {@link Model} by name, used by {@link DatabaseLogic} to avoid scanning
+ * the model. It is built by {@link Model#init()} and reflects the model as it was at that time. Each object
+ * is indexed together with its position in the list of its parent; a lookup only returns an object if it is
+ * still at that position and still points to the parent that was searched, so objects that have been removed,
+ * replaced or moved afterwards are never returned. In that case, and for objects added after the index was
+ * built, lookups return null and callers fall back to scanning the model.
+ * When several objects have names that differ only by case, the case-insensitive maps hold the first one,
+ * like a linear scan would.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class ModelIndex {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    //**************************************************************************
+    // Fields
+    //**************************************************************************
+
+    protected final Map<String, Indexed<Database>> databasesByName;
+    protected final Map<Database, DatabaseEntry> databases;
+    protected final Map<Schema, SchemaEntry> schemas;
+    protected final Map<Table, TableEntry> tables;
+
+    //**************************************************************************
+    // Constructors
+    //**************************************************************************
+
+    public ModelIndex(Model model) {
+        Map<String, Indexed<Database>> databasesByName = new HashMap<String, Indexed<Database>>();
+        Map<Database, DatabaseEntry> databases = new IdentityHashMap<Database, DatabaseEntry>();
+        Map<Schema, SchemaEntry> schemas = new IdentityHashMap<Schema, SchemaEntry>();
+        Map<Table, TableEntry> tables = new IdentityHashMap<Table, TableEntry>();
+        List<Database> modelDatabases = model.getDatabases();
+        for(int i = 0; i < modelDatabases.size(); i++) {
+            Database database = modelDatabases.get(i);
+            putIfAbsent(databasesByName, database.getDatabaseName(), database, i);
+            DatabaseEntry databaseEntry = new DatabaseEntry();
+            List<Schema> databaseSchemas = database.getSchemas();
+            for(int j = 0; j < databaseSchemas.size(); j++) {
+                Schema schema = databaseSchemas.get(j);
+                putIfAbsent(databaseEntry.schemasByName, schema.getSchemaName(), schema, j);
+                putIfAbsent(databaseEntry.schemasByLowerCaseName, toLowerCase(schema.getSchemaName()), schema, j);
+                SchemaEntry schemaEntry = new SchemaEntry();
+                List<Table> schemaTables = schema.getTables();
+                for(int k = 0; k < schemaTables.size(); k++) {
+                    Table table = schemaTables.get(k);
+                    putIfAbsent(databaseEntry.tablesByEntityName, table.getActualEntityName(), table, k);
+                    putIfAbsent(schemaEntry.tablesByName, table.getTableName(), table, k);
+                    putIfAbsent(schemaEntry.tablesByLowerCaseName, toLowerCase(table.getTableName()), table, k);
+                    tables.put(table, new TableEntry(table));
+                }
+                schemas.put(schema, schemaEntry);
+            }
+            databases.put(database, databaseEntry);
+        }
+        this.databasesByName = Collections.unmodifiableMap(databasesByName);
+        this.databases = Collections.unmodifiableMap(databases);
+        this.schemas = Collections.unmodifiableMap(schemas);
+        this.tables = Collections.unmodifiableMap(tables);
+    }
+
+    //**************************************************************************
+    // Lookups
+    //**************************************************************************
+
+    public @Nullable Database getDatabase(Model model, String databaseName) {
+        Indexed<Database> indexed = databasesByName.get(databaseName);
+        if(indexed != null && indexed.isAt(model.getDatabases()) && indexed.object.getModel() == model) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable Schema getSchema(Database database, String schemaName, boolean ignoreCase) {
+        DatabaseEntry entry = databases.get(database);
+        if(entry == null) {
+            return null;
+        }
+        Indexed<Schema> indexed = ignoreCase ?
+               entry.schemasByLowerCaseName.get(toLowerCase(schemaName)) :
+               entry.schemasByName.get(schemaName);
+        if(indexed != null && indexed.isAt(database.getSchemas()) && indexed.object.getDatabase() == database) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable Table getTableByEntityName(Database database, String entityName) {
+        DatabaseEntry entry = databases.get(database);
+        Indexed<Table> indexed = entry != null ? entry.tablesByEntityName.get(entityName) : null;
+        if(indexed != null) {
+            Schema schema = indexed.object.getSchema();
+            if(schema != null && schema.getDatabase() == database &&
+               isCurrent(schema, database) && indexed.isAt(schema.getTables())) {
+                return indexed.object;
+            }
+        }
+        return null;
+    }
+
+    public @Nullable Table getTable(Schema schema, String tableName, boolean ignoreCase) {
+        SchemaEntry entry = schemas.get(schema);
+        if(entry == null) {
+            return null;
+        }
+        Indexed<Table> indexed = ignoreCase ?
+               entry.tablesByLowerCaseName.get(toLowerCase(tableName)) :
+               entry.tablesByName.get(tableName);
+        if(indexed != null && indexed.isAt(schema.getTables()) && indexed.object.getSchema() == schema) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable Column getColumn(Table table, String columnName, boolean ignoreCase) {
+        TableEntry entry = tables.get(table);
+        if(entry == null) {
+            return null;
+        }
+        Indexed<Column> indexed = ignoreCase ?
+               entry.columnsByLowerCaseName.get(toLowerCase(columnName)) :
+               entry.columnsByName.get(columnName);
+        return getColumn(table, indexed);
+    }
+
+    public @Nullable Column getColumnByPropertyName(Table table, String propertyName) {
+        TableEntry entry = tables.get(table);
+        return entry != null ? getColumn(table, entry.columnsByPropertyName.get(propertyName)) : null;
+    }
+
+    protected @Nullable Column getColumn(Table table, @Nullable Indexed<Column> indexed) {
+        if(indexed != null && indexed.isAt(table.getColumns()) && indexed.object.getTable() == table) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable ForeignKey getForeignKey(Table table, String fkName, boolean ignoreCase) {
+        TableEntry entry = tables.get(table);
+        if(entry == null) {
+            return null;
+        }
+        Indexed<ForeignKey> indexed = ignoreCase ?
+               entry.foreignKeysByLowerCaseName.get(toLowerCase(fkName)) :
+               entry.foreignKeysByName.get(fkName);
+        if(indexed != null && indexed.isAt(table.getForeignKeys()) && indexed.object.getFromTable() == table) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable ModelSelectionProvider getSelectionProviderIgnoreCase(Table table, String name) {
+        TableEntry entry = tables.get(table);
+        Indexed<ModelSelectionProvider> indexed =
+                entry != null ? entry.selectionProvidersByLowerCaseName.get(toLowerCase(name)) : null;
+        if(indexed != null && indexed.isAt(table.getSelectionProviders())) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    public @Nullable ForeignKey getOneToManyRelationshipIgnoreCase(Table table, String name) {
+        TableEntry entry = tables.get(table);
+        Indexed<ForeignKey> indexed =
+                entry != null ? entry.oneToManyRelationshipsByLowerCaseName.get(toLowerCase(name)) : null;
+        if(indexed != null && indexed.isAt(table.getOneToManyRelationships()) &&
+           indexed.object.getToTable() == table) {
+            return indexed.object;
+        }
+        return null;
+    }
+
+    //**************************************************************************
+    // Utility methods
+    //**************************************************************************
+
+    /**
+     * @return true if the schema is still at its indexed position in the given database.
+     */
+    protected boolean isCurrent(Schema schema, Database database) {
+        DatabaseEntry entry = databases.get(database);
+        if(entry == null) {
+            return false;
+        }
+        Indexed<Schema> indexed = entry.schemasByName.get(schema.getSchemaName());
+        return indexed != null && indexed.object == schema && indexed.isAt(database.getSchemas());
+    }
+
+    protected static @Nullable String toLowerCase(@Nullable String name) {
+        return name != null ? name.toLowerCase(Locale.ENGLISH) : null;
+    }
+
+    protected static <T> void putIfAbsent(Map<String, Indexed<T>> map, @Nullable String key, T value, int position) {
+        if(key != null && !map.containsKey(key)) {
+            map.put(key, new Indexed<T>(value, position));
+        }
+    }
+
+    //**************************************************************************
+    // Index entries
+    //**************************************************************************
+
+    /**
+     * An object together with its position in the list of its parent at the time it was indexed.
+     */
+    protected static class Indexed<T> {
+        final T object;
+        final int position;
+
+        Indexed(T object, int position) {
+            this.object = object;
+            this.position = position;
+        }
+
+        /**
+         * @return true if the object is still at the same position in the given list.
+         */
+        boolean isAt(List<?> list) {
+            return position < list.size() && list.get(position) == object;
+        }
+    }
+
+    protected static class DatabaseEntry {
+        final Map<String, Indexed<Schema>> schemasByName = new HashMap<String, Indexed<Schema>>();
+        final Map<String, Indexed<Schema>> schemasByLowerCaseName = new HashMap<String, Indexed<Schema>>();
+        final Map<String, Indexed<Table>> tablesByEntityName = new HashMap<String, Indexed<Table>>();
+    }
+
+    protected static class SchemaEntry {
+        final Map<String, Indexed<Table>> tablesByName = new HashMap<String, Indexed<Table>>();
+        final Map<String, Indexed<Table>> tablesByLowerCaseName = new HashMap<String, Indexed<Table>>();
+    }
+
+    protected static class TableEntry {
+        final Map<String, Indexed<Column>> columnsByName = new HashMap<String, Indexed<Column>>();
+        final Map<String, Indexed<Column>> columnsByLowerCaseName = new HashMap<String, Indexed<Column>>();
+        final Map<String, Indexed<Column>> columnsByPropertyName = new HashMap<String, Indexed<Column>>();
+        final Map<String, Indexed<ForeignKey>> foreignKeysByName = new HashMap<String, Indexed<ForeignKey>>();
+        final Map<String, Indexed<ForeignKey>> foreignKeysByLowerCaseName =
+                new HashMap<String, Indexed<ForeignKey>>();
+        final Map<String, Indexed<ModelSelectionProvider>> selectionProvidersByLowerCaseName =
+                new HashMap<String, Indexed<ModelSelectionProvider>>();
+        final Map<String, Indexed<ForeignKey>> oneToManyRelationshipsByLowerCaseName =
+                new HashMap<String, Indexed<ForeignKey>>();
+
+        TableEntry(Table table) {
+            List<Column> columns = table.getColumns();
+            for(int i = 0; i < columns.size(); i++) {
+                Column column = columns.get(i);
+                putIfAbsent(columnsByName, column.getColumnName(), column, i);
+                putIfAbsent(columnsByLowerCaseName, toLowerCase(column.getColumnName()), column, i);
+                putIfAbsent(columnsByPropertyName, column.getActualPropertyName(), column, i);
+            }
+            List<ForeignKey> foreignKeys = table.getForeignKeys();
+            for(int i = 0; i < foreignKeys.size(); i++) {
+                ForeignKey foreignKey = foreignKeys.get(i);
+                putIfAbsent(foreignKeysByName, foreignKey.getName(), foreignKey, i);
+                putIfAbsent(foreignKeysByLowerCaseName, toLowerCase(foreignKey.getName()), foreignKey, i);
+            }
+            List<ModelSelectionProvider> selectionProviders = table.getSelectionProviders();
+            for(int i = 0; i < selectionProviders.size(); i++) {
+                ModelSelectionProvider selectionProvider = selectionProviders.get(i);
+                putIfAbsent(selectionProvidersByLowerCaseName,
+                            toLowerCase(selectionProvider.getName()), selectionProvider, i);
+            }
+            List<ForeignKey> relationships = table.getOneToManyRelationships();
+            for(int i = 0; i < relationships.size(); i++) {
+                ForeignKey relationship = relationships.get(i);
+                putIfAbsent(oneToManyRelationshipsByLowerCaseName,
+                            toLowerCase(relationship.getName()), relationship, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.manydesigns.portofino.model.database;
+
+import com.manydesigns.portofino.model.database.platforms.DatabasePlatformsRegistry;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.apache.commons.lang.StringUtils;
+
+import javax.sql.DataSource;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JDBC connection provider backed by a connection pool. The same pool serves Hibernate and the
+ * model tools (synchronization, Liquibase, administration), so that the number of connections to the database
+ * is bounded and connections are not opened and closed for each use. When the provider is initialized again
+ * (e.g. because the model has been reloaded), the previous pool is retired: it is closed once the connections
+ * checked out from it have been returned, or after {@link #RETIRED_POOL_TIMEOUT} seconds at most.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlType(propOrder = {"minPoolSize", "maxPoolSize", "validationQuery", "validationInterval",
+                      "leakDetectionTimeout", "statementCacheSize"})
+public class PooledJdbcConnectionProvider extends JdbcConnectionProvider {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final int DEFAULT_MIN_POOL_SIZE = 1;
+    public static final int DEFAULT_MAX_POOL_SIZE = 20;
+    public static final int DEFAULT_VALIDATION_INTERVAL = 300;
+    public static final int RETIRED_POOL_TIMEOUT = 300;
+
+    //**************************************************************************
+    // Fields (configured values)
+    //**************************************************************************
+
+    protected Integer minPoolSize;
+    protected Integer maxPoolSize;
+    protected String validationQuery;
+    protected Integer validationInterval;
+    protected Integer leakDetectionTimeout;
+    protected Integer statementCacheSize;
+
+    //**************************************************************************
+    // Fields (calcuated values)
+    //**************************************************************************
+
+    protected ComboPooledDataSource dataSource;
+    protected final List<ComboPooledDataSource> retiredDataSources = new ArrayList<ComboPooledDataSource>();
+
+    //**************************************************************************
+    // Constructors
+    //**************************************************************************
+
+    public PooledJdbcConnectionProvider() {
+        super();
+    }
+
+    //**************************************************************************
+    // Overrides
+    //**************************************************************************
+
+    @Override
+    public synchronized void init(DatabasePlatformsRegistry databasePlatformsRegistry) {
+        //The connection parameters may have changed, start over with a fresh pool
+        retireDataSource();
+        super.init(databasePlatformsRegistry);
+    }
+
+    @Override
+    public String getDescription() {
+        return MessageFormat.format(
+                "Pooled JDBC connection to URL: {0}", actualUrl);
+    }
+
+    @Override
+    public Connection acquireConnection() throws Exception {
+        return getDataSource().getConnection();
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        closeDataSource();
+        closeRetiredDataSources();
+    }
+
+    //**************************************************************************
+    // Pool
+    //**************************************************************************
+
+    /**
+     * Returns the pool, creating it if necessary.
+     * @return the data source.
+     * @throws Exception if the pool cannot be configured, e.g. because the driver is not available.
+     */
+    public synchronized DataSource getDataSource() throws Exception {
+        if(dataSource == null) {
+            logger.info("Creating connection pool for {}", actualUrl);
+            ComboPooledDataSource newDataSource = new ComboPooledDataSource();
+            newDataSource.setDataSourceName(getDatabase().getDatabaseName());
+            newDataSource.setDriverClass(driver);
+            newDataSource.setJdbcUrl(actualUrl);
+            newDataSource.setUser(actualUsername);
+            newDataSource.setPassword(actualPassword);
+            int actualMinPoolSize = minPoolSize != null ? minPoolSize : DEFAULT_MIN_POOL_SIZE;
+            newDataSource.setMinPoolSize(actualMinPoolSize);
+            newDataSource.setInitialPoolSize(actualMinPoolSize);
+            newDataSource.setMaxPoolSize(maxPoolSize != null ? maxPoolSize : DEFAULT_MAX_POOL_SIZE);
+            //Fail reasonably fast if the database is down, rather than retrying for half a minute
+            newDataSource.setAcquireRetryAttempts(3);
+            //Validation: idle connections are tested periodically, and checked out ones when they are returned,
+            //unless the only available test is the (slow) default one based on the JDBC metadata
+            String actualValidationQuery = getActualValidationQuery();
+            if(actualValidationQuery != null) {
+                newDataSource.setPreferredTestQuery(actualValidationQuery);
+                newDataSource.setTestConnectionOnCheckin(true);
+            }
+            newDataSource.setIdleConnectionTestPeriod(
+                    validationInterval != null ? validationInterval : DEFAULT_VALIDATION_INTERVAL);
+            //Leak detection: connections not returned in time are closed and the culprit is logged
+            if(leakDetectionTimeout != null && leakDetectionTimeout > 0) {
+                newDataSource.setUnreturnedConnectionTimeout(leakDetectionTimeout);
+                newDataSource.setDebugUnreturnedConnectionStackTraces(true);
+            }
+            if(statementCacheSize != null && statementCacheSize > 0) {
+                newDataSource.setMaxStatementsPerConnection(statementCacheSize);
+            }
+            dataSource = newDataSource;
+        }
+        return dataSource;
+    }
+
+    /**
+     * @return the configured validation query or, if not set, the one of the database platform; null if neither
+     * is available.
+     */
+    public String getActualValidationQuery() {
+        if(!StringUtils.isBlank(validationQuery)) {
+            return validationQuery;
+        } else if(databasePlatform != null) {
+            return databasePlatform.getValidationQuery();
+        } else {
+            return null;
+        }
+    }
+
+    protected synchronized void closeDataSource() {
+        if(dataSource != null) {
+            logger.info("Closing connection pool for {}", actualUrl);
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    /**
+     * Stops using the current pool, if any, and closes it in the background once it has no checked out
+     * connections, so that the sessions using them are not disrupted.
+     */
+    protected synchronized void retireDataSource() {
+        final ComboPooledDataSource retiredDataSource = dataSource;
+        if(retiredDataSource == null) {
+            return;
+        }
+        dataSource = null;
+        retiredDataSources.add(retiredDataSource);
+        logger.info("Retiring connection pool for {}", actualUrl);
+        Thread thread = new Thread("Retired connection pool closer - " + retiredDataSource.getDataSourceName()) {
+            @Override
+            public void run() {
+                closeWhenIdle(retiredDataSource);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void closeWhenIdle(ComboPooledDataSource retiredDataSource) {
+        long deadline = System.currentTimeMillis() + RETIRED_POOL_TIMEOUT * 1000L;
+        try {
+            while(retiredDataSource.getNumBusyConnectionsAllUsers() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1000);
+            }
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if(!retiredDataSources.remove(retiredDataSource)) {
+                //Already closed by shutdown()
+                return;
+            }
+        }
+        logger.info("Closing retired connection pool for {}", retiredDataSource.getJdbcUrl());
+        retiredDataSource.close();
+    }
+
+    protected synchronized void closeRetiredDataSources() {
+        for(ComboPooledDataSource retiredDataSource : retiredDataSources) {
+            logger.info("Closing retired connection pool for {}", retiredDataSource.getJdbcUrl());
+            retiredDataSource.close();
+        }
+        retiredDataSources.clear();
+    }
+
+    //**************************************************************************
+    // Pool metrics
+    //**************************************************************************
+
+    public Integer getNumConnections() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumConnectionsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Integer getNumBusyConnections() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumBusyConnectionsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Integer getNumIdleConnections() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumIdleConnectionsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Integer getNumThreadsAwaitingCheckout() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumThreadsAwaitingCheckoutDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Long getNumFailedCheckouts() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumFailedCheckoutsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Integer getNumUnclosedOrphanedConnections() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getNumUnclosedOrphanedConnectionsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    public Integer getStatementCacheNumStatements() {
+        ComboPooledDataSource dataSource = this.dataSource;
+        try {
+            return dataSource != null ? dataSource.getStatementCacheNumStatementsDefaultUser() : null;
+        } catch (SQLException e) {
+            logger.debug("Could not read pool metrics", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of retired pools (see {@link #retireDataSource()}) not yet closed.
+     */
+    public synchronized int getNumRetiredPools() {
+        return retiredDataSources.size();
+    }
+
+    //**************************************************************************
+    // Getters
+    //**************************************************************************
+
+    @XmlAttribute(required = false)
+    public Integer getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    public void setMinPoolSize(Integer minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    @XmlAttribute(required = false)
+    public Integer getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(Integer maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * The query used to test that a connection is still valid. If not set, the one of the database platform is
+     * used, or the JDBC metadata if the platform doesn't have one.
+     */
+    @XmlAttribute(required = false)
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * How often, in seconds, idle connections are tested.
+     */
+    @XmlAttribute(required = false)
+    public Integer getValidationInterval() {
+        return validationInterval;
+    }
+
+    public void setValidationInterval(Integer validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * The time, in seconds, after which a connection that has not been returned to the pool is considered
+     * leaked; it is then closed and the stack trace of the code that acquired it is logged.
+     */
+    @XmlAttribute(required = false)
+    public Integer getLeakDetectionTimeout() {
+        return leakDetectionTimeout;
+    }
+
+    public void setLeakDetectionTimeout(Integer leakDetectionTimeout) {
+        this.leakDetectionTimeout = leakDetectionTimeout;
+    }
+
+    /**
+     * The number of prepared statements cached for each connection.
+     */
+    @XmlAttribute(required = false)
+    public Integer getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(Integer statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+}
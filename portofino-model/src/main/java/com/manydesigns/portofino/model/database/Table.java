@@ -40,7 +40,7 @@ import java.util.List;
 */
 @XmlRootElement(name = "table")
 @XmlAccessorType(XmlAccessType.NONE)
-@XmlType(propOrder = {"tableName", "entityName", "shortName", "javaClass","annotations","columns","foreignKeys","primaryKey","selectionProviders"})
+@XmlType(propOrder = {"tableName", "entityName", "shortName", "javaClass","cacheable","annotations","columns","foreignKeys","primaryKey","selectionProviders"})
 public class Table implements ModelObject, Annotated {
     public static final String copyright =
             "Copyright (C) 2005-2017 ManyDesigns srl";
@@ -62,6 +62,8 @@ public class Table implements ModelObject, Annotated {
 
     protected String shortName;
 
+    protected Boolean cacheable;
+
     protected PrimaryKey primaryKey;
 
     //**************************************************************************
@@ -277,6 +279,19 @@ public class Table implements ModelObject, Annotated {
         this.shortName = shortName;
     }
 
+    /**
+     * @return whether the entities mapped to this table are kept in the second-level cache. Meant for small
+     * tables that are read often and seldom modified, such as lookup tables.
+     */
+    @XmlAttribute(required = false)
+    public Boolean getCacheable() {
+        return cacheable;
+    }
+
+    public void setCacheable(Boolean cacheable) {
+        this.cacheable = cacheable;
+    }
+
     public List<String> getSyntheticPropertyNames() {
         return syntheticPropertyNames;
     }
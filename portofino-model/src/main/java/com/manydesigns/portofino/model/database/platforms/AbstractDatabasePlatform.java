@@ -22,12 +22,15 @@ package com.manydesigns.portofino.model.database.platforms;
 
 import com.manydesigns.portofino.model.database.Column;
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import org.apache.commons.dbutils.DbUtils;
 import org.hibernate.dialect.Dialect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -153,4 +156,42 @@ public abstract class AbstractDatabasePlatform implements DatabasePlatform {
     protected String getCatalogColumnName() {
         return TABLE_CATALOG;
     }
+
+    public Long estimateRowCount(Connection connection, Table table) throws SQLException {
+        return null;
+    }
+
+    public String getValidationQuery() {
+        return null;
+    }
+
+    /**
+     * Runs a query that returns an estimated row count as the first column of its first row.
+     * @param connection the connection to use.
+     * @param sql the query.
+     * @param parameters the (string) parameters of the query.
+     * @return the estimate, or null if the query returns no rows or a negative number.
+     * @throws SQLException if the query fails.
+     */
+    protected Long queryRowCountEstimate(Connection connection, String sql, String... parameters)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        ResultSet rs = null;
+        try {
+            for(int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            rs = statement.executeQuery();
+            if(rs.next()) {
+                Number estimate = (Number) rs.getObject(1);
+                if(estimate != null && estimate.longValue() >= 0) {
+                    return estimate.longValue();
+                }
+            }
+            return null;
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(statement);
+        }
+    }
 }
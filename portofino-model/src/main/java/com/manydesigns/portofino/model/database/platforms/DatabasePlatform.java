@@ -23,8 +23,10 @@ package com.manydesigns.portofino.model.database.platforms;
 import com.manydesigns.elements.annotations.Status;
 import com.manydesigns.portofino.model.database.Column;
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import org.hibernate.dialect.Dialect;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.List;
@@ -65,6 +67,22 @@ public interface DatabasePlatform {
     void shutdown(ConnectionProvider connectionProvider);
 
     List<String[]> getSchemaNames(DatabaseMetaData databaseMetaData) throws SQLException;
+
+    /**
+     * Estimates the number of rows in a table from the statistics kept by the database, without scanning it.
+     * @param connection the connection to use.
+     * @param table the table.
+     * @return the estimated number of rows, or null if the platform does not support estimates or they are not
+     * available for the table.
+     * @throws SQLException if the statistics cannot be read.
+     */
+    Long estimateRowCount(Connection connection, Table table) throws SQLException;
+
+    /**
+     * @return a cheap query that succeeds if and only if the connection it's run on is working, used to
+     * validate pooled connections; null if the platform doesn't know one.
+     */
+    String getValidationQuery();
     
     class TypeDescriptor {
         
@@ -21,9 +21,13 @@
 package com.manydesigns.portofino.database.platforms;
 
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import com.manydesigns.portofino.model.database.platforms.AbstractDatabasePlatform;
 import org.hibernate.dialect.SQLServerDialect;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 /*
 * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
 * @author Angelo Lupo          - angelo.lupo@manydesigns.com
@@ -79,4 +83,19 @@ public class JTDSDatabasePlatform extends AbstractDatabasePlatform {
                 .startsWith("Microsoft SQL Server") &&
 	       connectionProvider.getDriverName().contains("jTDS");
     }
+
+    @Override
+    public Long estimateRowCount(Connection connection, Table table) throws SQLException {
+        return queryRowCountEstimate(connection,
+                "select sum(p.rows) from sys.partitions p " +
+                "join sys.tables t on t.object_id = p.object_id " +
+                "join sys.schemas s on s.schema_id = t.schema_id " +
+                "where s.name = ? and t.name = ? and p.index_id in (0, 1)",
+                table.getSchemaName(), table.getTableName());
+    }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1";
+    }
 }
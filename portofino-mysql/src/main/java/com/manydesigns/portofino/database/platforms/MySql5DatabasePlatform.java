@@ -21,10 +21,12 @@
 package com.manydesigns.portofino.database.platforms;
 
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import com.manydesigns.portofino.model.database.platforms.AbstractDatabasePlatform;
 import org.apache.commons.dbutils.DbUtils;
 import org.hibernate.dialect.MySQLDialect;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -83,5 +85,20 @@ public class MySql5DatabasePlatform extends AbstractDatabasePlatform {
         }
         return schemaNames;
     }
-}
 
+    @Override
+    public Long estimateRowCount(Connection connection, Table table) throws SQLException {
+        return queryRowCountEstimate(connection,
+                "select table_rows from information_schema.tables where table_schema = ? and table_name = ?",
+                table.getSchemaName(), table.getTableName());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The "ping" comment makes the driver check the connection without running a query.</p>
+     */
+    @Override
+    public String getValidationQuery() {
+        return "/* ping */ select 1";
+    }
+}
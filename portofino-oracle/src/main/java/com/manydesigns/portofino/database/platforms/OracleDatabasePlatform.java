@@ -21,9 +21,11 @@
 package com.manydesigns.portofino.database.platforms;
 
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import com.manydesigns.portofino.model.database.platforms.AbstractDatabasePlatform;
 import org.hibernate.dialect.Oracle9iDialect;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.Iterator;
@@ -79,4 +81,16 @@ public class OracleDatabasePlatform extends AbstractDatabasePlatform {
         }
         return schemaNames;
     }
+
+    @Override
+    public Long estimateRowCount(Connection connection, Table table) throws SQLException {
+        return queryRowCountEstimate(connection,
+                "select num_rows from all_tables where owner = ? and table_name = ?",
+                table.getSchemaName(), table.getTableName());
+    }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1 from dual";
+    }
 }
@@ -29,10 +29,13 @@ import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.elements.options.DefaultSelectionProvider;
 import com.manydesigns.elements.options.SelectionProvider;
 import com.manydesigns.elements.util.ElementsFileUtils;
+import com.manydesigns.elements.xml.JAXBContextRegistry;
 import com.manydesigns.portofino.actions.safemode.SafeModeAction;
 import com.manydesigns.portofino.di.Injections;
 import com.manydesigns.portofino.pageactions.PageActionLogic;
+import com.manydesigns.portofino.pageactions.registry.PageActionInfo;
 import com.manydesigns.portofino.pages.ChildPage;
+import com.manydesigns.portofino.pages.Layout;
 import com.manydesigns.portofino.pages.Page;
 import com.manydesigns.portofino.scripting.ScriptingUtil;
 import org.apache.commons.configuration.Configuration;
@@ -144,7 +147,7 @@ public class DispatcherLogic {
 
     static {
         try {
-            pagesJaxbContext = JAXBContext.newInstance(Page.class.getPackage().getName());
+            pagesJaxbContext = JAXBContextRegistry.getContext(Page.class);
         } catch (JAXBException e) {
             throw new Error("Can't instantiate pages jaxb context", e);
         }
@@ -173,6 +176,12 @@ public class DispatcherLogic {
         marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
         marshaller.marshal(page, pageFile);
         pageCache.invalidate(pageFile);
+        PageTree tree = pageTree;
+        if(tree != null) {
+            //Don't wait for the watcher: the caller will likely read back the page right away
+            tree.invalidate(directory);
+            tree.invalidate(directory.getParentFile());
+        }
         return pageFile;
     }
 
@@ -181,6 +190,8 @@ public class DispatcherLogic {
     public static final String PAGE_CACHE_CHECK_FREQUENCY = "page.cache.check.frequency";
     public static final String CONFIGURATION_CACHE_SIZE = "configuration.cache.size";
     public static final String CONFIGURATION_CACHE_CHECK_FREQUENCY = "configuration.cache.check.frequency";
+    public static final String CONFIGURATION_PRELOAD_JAXB_CONTEXTS = "configuration.preload.jaxb.contexts";
+    public static final String PAGE_TREE_ENABLED = "page.tree.enabled";
 
     public static void init(Configuration portofinoConfiguration) {
         int maxSize, refreshCheckFrequency;
@@ -271,6 +282,39 @@ public class DispatcherLogic {
                         });
     }
 
+    protected static volatile PageTree pageTree;
+
+    /**
+     * Installs an application-wide {@link PageTree} rooted at the given directory. From then on, pages,
+     * action classes and configurations under that directory are resolved through the tree rather than the
+     * time-based caches.
+     * @param pagesDirectory the pages directory.
+     * @param classpathDirectories directories with code the action classes may depend on.
+     * @return true if the tree was installed, false if the file system could not be watched.
+     */
+    public static synchronized boolean initPageTree(File pagesDirectory, File... classpathDirectories) {
+        destroyPageTree();
+        try {
+            pageTree = new PageTree(pagesDirectory, classpathDirectories);
+            return true;
+        } catch (Exception e) {
+            logger.warn("Could not watch " + pagesDirectory + ", falling back to the page cache", e);
+            return false;
+        }
+    }
+
+    public static synchronized void destroyPageTree() {
+        PageTree tree = pageTree;
+        pageTree = null;
+        if(tree != null) {
+            IOUtils.closeQuietly(tree);
+        }
+    }
+
+    public static PageTree getPageTree() {
+        return pageTree;
+    }
+
     protected static LoadingCache<File, ConfigurationCacheEntry> configurationCache;
 
     public static void initConfigurationCache(int maxSize, int refreshCheckFrequency) {
@@ -324,6 +368,10 @@ public class DispatcherLogic {
 
     public static void clearConfigurationCache() {
         configurationCache.invalidateAll();
+        PageTree tree = pageTree;
+        if(tree != null) {
+            tree.clear();
+        }
     }
 
     /**
@@ -339,6 +387,10 @@ public class DispatcherLogic {
             }
         }
         configurationCache.invalidateAll(keysToInvalidate);
+        PageTree tree = pageTree;
+        if(tree != null) {
+            tree.invalidateConfigurations(configurationClass);
+        }
     }
 
     protected static File getPageFile(File directory) {
@@ -357,12 +409,25 @@ public class DispatcherLogic {
     }
 
     public static Page loadPage(InputStream inputStream) throws JAXBException {
-        Unmarshaller unmarshaller = pagesJaxbContext.createUnmarshaller();
-        return (Page) unmarshaller.unmarshal(inputStream);
+        Unmarshaller unmarshaller = JAXBContextRegistry.acquireUnmarshaller(pagesJaxbContext);
+        try {
+            return (Page) unmarshaller.unmarshal(inputStream);
+        } finally {
+            JAXBContextRegistry.releaseUnmarshaller(pagesJaxbContext, unmarshaller);
+        }
     }
 
     public static Page getPage(File directory) throws PageNotActiveException {
         File pageFile = getPageFile(directory);
+        PageTree tree = pageTree;
+        if(tree != null && tree.contains(directory)) {
+            PageTree.Node node = tree.getNode(directory);
+            if(node.page != null) {
+                return node.page;
+            } else {
+                throw new PageNotActiveException(pageFile.getAbsolutePath(), node.pageError);
+            }
+        }
         try {
             FileCacheEntry<Page> entry = pageCache.get(pageFile);
             if(!entry.error) {
@@ -376,13 +441,16 @@ public class DispatcherLogic {
     }
 
     public static File saveConfiguration(File directory, Object configuration) throws Exception {
-        String configurationPackage = configuration.getClass().getPackage().getName();
-        JAXBContext jaxbContext = JAXBContext.newInstance(configurationPackage);
+        JAXBContext jaxbContext = JAXBContextRegistry.getContext(configuration.getClass());
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
         File configurationFile = new File(directory, "configuration.xml");
         marshaller.marshal(configuration, configurationFile);
         configurationCache.invalidate(configurationFile);
+        PageTree tree = pageTree;
+        if(tree != null) {
+            tree.invalidate(directory);
+        }
         return configurationFile;
     }
 
@@ -391,6 +459,12 @@ public class DispatcherLogic {
         if (configurationClass == null) {
             return null;
         }
+        PageTree tree = pageTree;
+        File directory = configurationFile.getParentFile();
+        if(tree != null && directory != null && tree.contains(directory) &&
+           "configuration.xml".equals(configurationFile.getName())) {
+            return tree.getNode(directory).getConfiguration(configurationFile, configurationClass);
+        }
         ConfigurationCacheEntry entry = configurationCache.getIfPresent(configurationFile);
         if(entry == null || !configurationClass.isInstance(entry.object) || entry.error) {
             if(entry != null && entry.error) {
@@ -428,10 +502,13 @@ public class DispatcherLogic {
             return null;
         }
         Object configuration;
-        String configurationPackage = configurationClass.getPackage().getName();
-        JAXBContext jaxbContext = JAXBContext.newInstance(configurationPackage);
-        Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-        configuration = unmarshaller.unmarshal(new StreamSource(inputStream), configurationClass);
+        JAXBContext jaxbContext = JAXBContextRegistry.getContext(configurationClass);
+        Unmarshaller unmarshaller = JAXBContextRegistry.acquireUnmarshaller(jaxbContext);
+        try {
+            configuration = unmarshaller.unmarshal(new StreamSource(inputStream), configurationClass);
+        } finally {
+            JAXBContextRegistry.releaseUnmarshaller(jaxbContext, unmarshaller);
+        }
         if(configuration instanceof JAXBElement) {
             configuration = ((JAXBElement) configuration).getValue();
         }
@@ -447,25 +524,63 @@ public class DispatcherLogic {
         return (T) configuration;
     }
 
+    /**
+     * Creates in advance the JAXB contexts used to load the configuration of the given page actions, so that
+     * the first pages to be loaded don't pay for it.
+     * @param pageActions the page actions, typically the contents of the page action registry.
+     */
+    public static void preloadConfigurationContexts(Iterable<PageActionInfo> pageActions) {
+        for(PageActionInfo info : pageActions) {
+            if(info.configurationClass == null) {
+                continue;
+            }
+            logger.debug("Preloading JAXB context for {}", info.configurationClass);
+            try {
+                JAXBContextRegistry.getContext(info.configurationClass);
+            } catch (Throwable t) {
+                logger.warn("JAXB context preload failed for " + info.configurationClass, t);
+            }
+        }
+    }
+
     public static Class<? extends PageAction> getActionClass(Configuration configuration, File directory) {
         return getActionClass(configuration, directory, true);
     }
 
     public static Class<? extends PageAction> getActionClass
             (Configuration configuration, File directory, boolean fallback) {
+        Class<? extends PageAction> actionClass;
+        PageTree tree = pageTree;
+        if(tree != null && tree.contains(directory)) {
+            actionClass = tree.getNode(directory).getActionClass();
+        } else {
+            actionClass = loadActionClass(directory);
+        }
+        if(actionClass != null) {
+            return actionClass;
+        } else {
+            return fallback ? SafeModeAction.class : null;
+        }
+    }
+
+    /**
+     * Loads the action class of a directory, bypassing the page tree.
+     * @return the action class, or null if it couldn't be loaded or is invalid.
+     */
+    public static Class<? extends PageAction> loadActionClass(File directory) {
         File scriptFile = ScriptingUtil.getGroovyScriptFile(directory, "action");
         Class<? extends PageAction> actionClass;
         try {
             actionClass = (Class<? extends PageAction>) ScriptingUtil.getGroovyClass(scriptFile);
         } catch (Exception e) {
             logger.error("Couldn't load action class for " + directory + ", returning safe-mode action", e);
-            return fallback ? SafeModeAction.class : null;
+            return null;
         }
         if (isValidActionClass(actionClass)) {
             return actionClass;
         } else {
             logger.error("Invalid action class for " + directory + ": " + actionClass);
-            return fallback ? SafeModeAction.class : null;
+            return null;
         }
     }
 
@@ -513,12 +628,28 @@ public class DispatcherLogic {
             throws PageNotActiveException {
         File currentDirectory = parentPageInstance.getChildrenDirectory();
         File childDirectory = new File(currentDirectory, pathFragment);
-        if(childDirectory.isDirectory() && !PageInstance.DETAIL.equals(childDirectory.getName())) {
+        PageTree tree = pageTree;
+        boolean isDirectory;
+        if(tree != null && tree.contains(currentDirectory)) {
+            isDirectory = tree.getNode(currentDirectory).hasSubdirectory(pathFragment);
+        } else {
+            isDirectory = childDirectory.isDirectory();
+        }
+        if(isDirectory && !PageInstance.DETAIL.equals(childDirectory.getName())) {
             ChildPage childPage = null;
-            for(ChildPage candidate : parentPageInstance.getLayout().getChildPages()) {
-                if(candidate.getName().equals(childDirectory.getName())) {
-                    childPage = candidate;
-                    break;
+            Layout layout = parentPageInstance.getLayout();
+            Map<String, ChildPage> childPages = null;
+            if(tree != null && tree.contains(parentPageInstance.getDirectory())) {
+                childPages = tree.getNode(parentPageInstance.getDirectory()).getChildPages(layout);
+            }
+            if(childPages != null) {
+                childPage = childPages.get(childDirectory.getName());
+            } else {
+                for(ChildPage candidate : layout.getChildPages()) {
+                    if(candidate.getName().equals(childDirectory.getName())) {
+                        childPage = candidate;
+                        break;
+                    }
                 }
             }
             if(childPage == null) {
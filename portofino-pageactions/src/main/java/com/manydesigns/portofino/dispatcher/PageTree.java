@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2005-2017 ManyDesigns srl.  All rights reserved.
+ * http://www.manydesigns.com/
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.manydesigns.portofino.dispatcher;
+
+import com.manydesigns.portofino.pages.ChildPage;
+import com.manydesigns.portofino.pages.Layout;
+import com.manydesigns.portofino.pages.Page;
+import com.manydesigns.portofino.pages.Permissions;
+import com.manydesigns.portofino.scripting.ScriptingUtil;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Application-wide, in-memory view of the pages directory. For each directory it holds an immutable
+ * {@link Node} with the parsed page, the names of its subdirectories and the child pages of its layouts, plus
+ * the action class and the configuration, which are resolved on first use. Nodes are discarded incrementally
+ * by a {@link WatchService} when something changes in their directory, so that resolving a path never touches
+ * the file system once the tree is warm.
+ *
+ * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
+ * @author Angelo Lupo          - angelo.lupo@manydesigns.com
+ * @author Giampiero Granatella - giampiero.granatella@manydesigns.com
+ * @author Alessio Stalla       - alessio.stalla@manydesigns.com
+ */
+public class PageTree implements Closeable {
+    public static final String copyright =
+            "Copyright (C) 2005-2017 ManyDesigns srl";
+
+    public static final Logger logger = LoggerFactory.getLogger(PageTree.class);
+
+    protected final File pagesDirectory;
+    protected final String pagesPath;
+    protected final Set<Path> classpathRoots = new HashSet<Path>();
+    protected final ConcurrentMap<File, Node> nodes = new ConcurrentHashMap<File, Node>();
+    protected final AtomicLong generation = new AtomicLong();
+    protected final WatchService watchService;
+    protected final ConcurrentMap<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<WatchKey, Path>();
+    protected final Thread watcher;
+
+    /**
+     * Creates a page tree and starts watching the file system.
+     * @param pagesDirectory the root of the pages.
+     * @param classpathDirectories directories containing code that action classes may depend on (e.g. the Groovy
+     *                             classpath). Any change in them discards all the cached action classes.
+     * @throws IOException if the file system cannot be watched.
+     */
+    public PageTree(File pagesDirectory, File... classpathDirectories) throws IOException {
+        this.pagesDirectory = pagesDirectory;
+        this.pagesPath = pagesDirectory.getPath();
+        Path pagesRoot = pagesDirectory.toPath();
+        watchService = pagesRoot.getFileSystem().newWatchService();
+        try {
+            registerAll(pagesRoot);
+            for(File directory : classpathDirectories) {
+                if(directory != null && directory.isDirectory()) {
+                    Path root = directory.toPath();
+                    classpathRoots.add(root);
+                    registerAll(root);
+                }
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "Portofino page tree watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    //**************************************************************************
+    // Lookup
+    //**************************************************************************
+
+    /**
+     * @return true if the given directory is the pages directory or one of its descendants, i.e. if
+     * it can be looked up in this tree.
+     */
+    public boolean contains(File directory) {
+        String path = directory.getPath();
+        return path.equals(pagesPath) || path.startsWith(pagesPath + File.separator);
+    }
+
+    /**
+     * Returns the node for a directory, loading it if necessary. Directories that don't exist are not cached.
+     * @param directory a directory {@link #contains(File) contained} in this tree.
+     * @return the node.
+     */
+    public Node getNode(File directory) {
+        Node node = nodes.get(directory);
+        if(node != null) {
+            return node;
+        }
+        long currentGeneration = generation.get();
+        node = new Node(directory);
+        if(node.exists) {
+            nodes.put(directory, node);
+            //If something changed while we were loading, the node might be stale; let the next request reload it
+            if(generation.get() != currentGeneration) {
+                nodes.remove(directory, node);
+            }
+        }
+        return node;
+    }
+
+    //**************************************************************************
+    // Invalidation
+    //**************************************************************************
+
+    /**
+     * Discards the node for a directory, e.g. because a file in it has been written by the application.
+     */
+    public void invalidate(File directory) {
+        generation.incrementAndGet();
+        nodes.remove(directory);
+    }
+
+    /**
+     * Discards the nodes for a directory and all of its descendants.
+     */
+    public void invalidateSubtree(File directory) {
+        generation.incrementAndGet();
+        String prefix = directory.getPath() + File.separator;
+        for(File key : nodes.keySet()) {
+            if(key.equals(directory) || key.getPath().startsWith(prefix)) {
+                nodes.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Discards the nodes whose configuration is exactly of the given class.
+     */
+    public void invalidateConfigurations(Class<?> configurationClass) {
+        generation.incrementAndGet();
+        for(Node node : nodes.values()) {
+            DispatcherLogic.ConfigurationCacheEntry entry = node.configuration;
+            if(entry != null && entry.configurationClass == configurationClass) {
+                nodes.remove(node.directory, node);
+            }
+        }
+    }
+
+    /**
+     * Discards all the nodes.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        nodes.clear();
+    }
+
+    //**************************************************************************
+    // Watching
+    //**************************************************************************
+
+    protected void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                logger.debug("Not watching " + file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    protected void watch() {
+        while(true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = watchedDirectories.get(key);
+            if(directory != null) {
+                try {
+                    handleEvents(directory, key.pollEvents());
+                } catch (Throwable t) {
+                    logger.error("Error processing file system events for " + directory + ", clearing page tree", t);
+                    clear();
+                }
+            } else {
+                key.pollEvents();
+            }
+            if(!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    protected void handleEvents(Path directory, List<WatchEvent<?>> events) {
+        boolean classpath = isInClasspath(directory);
+        for(WatchEvent<?> event : events) {
+            if(event.kind() == OVERFLOW) {
+                logger.debug("Too many file system events in {}, clearing page tree", directory);
+                clear();
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            logger.debug("{}: {}", event.kind().name(), child);
+            if(event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerAll(child);
+                } catch (IOException e) {
+                    logger.warn("Could not watch new directory " + child, e);
+                }
+            }
+            if(classpath || child.getFileName().toString().endsWith(".groovy")) {
+                //In production mode, the script engine only checks for changes when asked to
+                ScriptingUtil.clearCompiledClasses();
+            }
+            if(classpath) {
+                //Action classes may depend on anything in the classpath
+                clear();
+            } else {
+                invalidate(directory.toFile());
+                if(event.kind() != ENTRY_MODIFY) {
+                    invalidateSubtree(child.toFile());
+                }
+            }
+        }
+    }
+
+    protected boolean isInClasspath(Path directory) {
+        for(Path root : classpathRoots) {
+            if(directory.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops watching the file system and discards all the nodes.
+     */
+    public void close() throws IOException {
+        watchService.close();
+        watcher.interrupt();
+        clear();
+    }
+
+    //**************************************************************************
+    // Nodes
+    //**************************************************************************
+
+    /**
+     * A snapshot of a directory in the page tree. A node whose {@link #page} is null does not contain a valid
+     * page; it may still have subdirectories, like the <code>_detail</code> directory does.
+     */
+    public static class Node {
+        public final File directory;
+        public final boolean exists;
+        public final Set<String> subdirectories;
+        @Nullable
+        public final Page page;
+        @Nullable
+        public final Exception pageError;
+        public final Map<String, ChildPage> childPages;
+        public final Map<String, ChildPage> detailChildPages;
+
+        protected volatile boolean actionClassLoaded;
+        protected volatile Class<? extends PageAction> actionClass;
+        protected volatile DispatcherLogic.ConfigurationCacheEntry configuration;
+        protected volatile PermissionsEntry permissions;
+
+        protected Node(File directory) {
+            this.directory = directory;
+            File[] children = directory.listFiles(new FileFilter() {
+                public boolean accept(File pathname) {
+                    return pathname.isDirectory();
+                }
+            });
+            exists = children != null;
+            Set<String> subdirectories = new HashSet<String>();
+            if(children != null) {
+                for(File child : children) {
+                    subdirectories.add(child.getName());
+                }
+            }
+            this.subdirectories = Collections.unmodifiableSet(subdirectories);
+
+            Page page = null;
+            Exception pageError = null;
+            File pageFile = DispatcherLogic.getPageFile(directory);
+            if(exists && pageFile.isFile()) {
+                try {
+                    page = DispatcherLogic.loadPage(pageFile);
+                } catch (Exception e) {
+                    logger.error("Could not load page from " + pageFile.getAbsolutePath(), e);
+                    pageError = e;
+                }
+            }
+            this.page = page;
+            this.pageError = pageError;
+            childPages = indexChildPages(page != null ? page.getLayout() : null);
+            detailChildPages = indexChildPages(page != null ? page.getDetailLayout() : null);
+        }
+
+        protected static Map<String, ChildPage> indexChildPages(Layout layout) {
+            if(layout == null || layout.getChildPages() == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, ChildPage> index = new HashMap<String, ChildPage>();
+            for(ChildPage childPage : layout.getChildPages()) {
+                //Keep the first one, like a linear scan would
+                if(!index.containsKey(childPage.getName())) {
+                    index.put(childPage.getName(), childPage);
+                }
+            }
+            return Collections.unmodifiableMap(index);
+        }
+
+        public boolean hasSubdirectory(String name) {
+            return subdirectories.contains(name);
+        }
+
+        /**
+         * Returns the index of the child pages of one of the layouts of this node's page.
+         * @param layout the layout.
+         * @return the child pages by name, or null if the layout does not belong to this node's page
+         * (for example because the page has been modified in memory).
+         */
+        @Nullable
+        public Map<String, ChildPage> getChildPages(Layout layout) {
+            if(page == null || layout == null) {
+                return null;
+            } else if(layout == page.getLayout()) {
+                return childPages;
+            } else if(layout == page.getDetailLayout()) {
+                return detailChildPages;
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * @return the action class of this directory, or null if it is missing or invalid.
+         */
+        public Class<? extends PageAction> getActionClass() {
+            if(!actionClassLoaded) {
+                actionClass = DispatcherLogic.loadActionClass(directory);
+                actionClassLoaded = true;
+            }
+            return actionClass;
+        }
+
+        public <T> T getConfiguration(File configurationFile, Class<? extends T> configurationClass)
+                throws Exception {
+            DispatcherLogic.ConfigurationCacheEntry entry = configuration;
+            if(entry == null || !configurationClass.isInstance(entry.object)) {
+                T loaded = DispatcherLogic.loadConfiguration(configurationFile, configurationClass);
+                entry = new DispatcherLogic.ConfigurationCacheEntry(loaded, configurationClass, 0, false);
+                configuration = entry;
+            }
+            return (T) entry.object;
+        }
+
+        /**
+         * @return the memoized effective permissions of this node's page, or null if they haven't been
+         * computed yet.
+         */
+        @Nullable
+        public PermissionsEntry getPermissions() {
+            return permissions;
+        }
+
+        public void setPermissions(PermissionsEntry permissions) {
+            this.permissions = permissions;
+        }
+    }
+
+    /**
+     * Effective permissions of a page, together with the inputs they were computed from. They are
+     * only valid as long as both the page and the permissions of its parent are the very same objects.
+     */
+    public static class PermissionsEntry {
+        @Nullable
+        public final Permissions parentPermissions;
+        public final Page page;
+        public final Permissions permissions;
+
+        public PermissionsEntry(@Nullable Permissions parentPermissions, Page page, Permissions permissions) {
+            this.parentPermissions = parentPermissions;
+            this.page = page;
+            this.permissions = permissions;
+        }
+
+        public boolean isValidFor(@Nullable Permissions parentPermissions, Page page) {
+            return this.parentPermissions == parentPermissions && this.page == page;
+        }
+    }
+}
@@ -22,7 +22,9 @@ package com.manydesigns.portofino.logic;
 
 import com.manydesigns.elements.ElementsThreadLocals;
 import com.manydesigns.portofino.dispatcher.Dispatch;
+import com.manydesigns.portofino.dispatcher.DispatcherLogic;
 import com.manydesigns.portofino.dispatcher.PageInstance;
+import com.manydesigns.portofino.dispatcher.PageTree;
 import com.manydesigns.portofino.modules.BaseModule;
 import com.manydesigns.portofino.pages.Page;
 import com.manydesigns.portofino.pages.Permissions;
@@ -36,17 +38,16 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
+import java.io.File;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Paolo Predonzani     - paolo.predonzani@manydesigns.com
@@ -73,6 +74,8 @@ public class SecurityLogic {
 
     public static final Logger logger = LoggerFactory.getLogger(SecurityLogic.class);
 
+    public static final String PERMISSION_DECISIONS_ATTRIBUTE = SecurityLogic.class.getName() + ".decisions";
+
     public static boolean hasPermissions(Configuration conf, Dispatch dispatch, Subject subject, Method handler) {
         logger.debug("Checking action permissions");
         return hasPermissions(conf, dispatch.getLastPageInstance(), subject, handler);
@@ -96,14 +99,42 @@ public class SecurityLogic {
         return hasPermissions(conf, configuration, subject, accessLevel, permissions);
     }
 
+    /**
+     * Computes the effective permissions of a page instance, merging those of its ancestors. The result is
+     * memoized in the page tree, when there is one, so it must not be modified.
+     */
     public static Permissions calculateActualPermissions(PageInstance instance) {
-        List<Page> pages = new ArrayList<Page>();
-        while (instance != null) {
-            pages.add(0, instance.getPage());
-            instance = instance.getParent();
-        }
+        PageInstance parent = instance.getParent();
+        Permissions parentPermissions = parent != null ? calculateActualPermissions(parent) : null;
+        return calculateActualPermissions(parentPermissions, instance.getDirectory(), instance.getPage());
+    }
 
-        return calculateActualPermissions(new Permissions(), pages);
+    /**
+     * Computes the effective permissions of a page given those of its parent. The result is memoized in the
+     * page tree, when there is one, and reused as long as the page and the parent permissions are the same
+     * objects; as a consequence, it must not be modified.
+     * @param parentPermissions the effective permissions of the parent page, or null if the page is the root.
+     * @param directory the directory of the page.
+     * @param page the page.
+     * @return the effective permissions.
+     */
+    public static Permissions calculateActualPermissions
+            (@Nullable Permissions parentPermissions, File directory, Page page) {
+        PageTree tree = DispatcherLogic.getPageTree();
+        PageTree.Node node = null;
+        if(tree != null && tree.contains(directory)) {
+            node = tree.getNode(directory);
+            PageTree.PermissionsEntry entry = node.getPermissions();
+            if(entry != null && entry.isValidFor(parentPermissions, page)) {
+                return entry.permissions;
+            }
+        }
+        Permissions basePermissions = parentPermissions != null ? parentPermissions : new Permissions();
+        Permissions permissions = calculateActualPermissions(basePermissions, Collections.singletonList(page));
+        if(node != null) {
+            node.setPermissions(new PageTree.PermissionsEntry(parentPermissions, page, permissions));
+        }
+        return permissions;
     }
 
     public static Permissions calculateActualPermissions(Permissions basePermissions, List<Page> pages) {
@@ -167,8 +198,33 @@ public class SecurityLogic {
         return requiresPermissions;
     }
 
+    /**
+     * Checks whether a subject has the given permissions on a page. Within a request, decisions are remembered
+     * and reused for the same principal, effective permissions (by identity), level and permissions.
+     */
     public static boolean hasPermissions
             (Configuration conf, Permissions configuration, Subject subject, AccessLevel level, String... permissions) {
+        HttpServletRequest request = ElementsThreadLocals.getHttpServletRequest();
+        if(request == null) {
+            return checkPermissions(conf, configuration, subject, level, permissions);
+        }
+        Map<PermissionCheck, Boolean> decisions =
+                (Map<PermissionCheck, Boolean>) request.getAttribute(PERMISSION_DECISIONS_ATTRIBUTE);
+        if(decisions == null) {
+            decisions = new HashMap<PermissionCheck, Boolean>();
+            request.setAttribute(PERMISSION_DECISIONS_ATTRIBUTE, decisions);
+        }
+        PermissionCheck check = new PermissionCheck(subject.getPrincipal(), configuration, level, permissions);
+        Boolean decision = decisions.get(check);
+        if(decision == null) {
+            decision = checkPermissions(conf, configuration, subject, level, permissions);
+            decisions.put(check, decision);
+        }
+        return decision;
+    }
+
+    protected static boolean checkPermissions
+            (Configuration conf, Permissions configuration, Subject subject, AccessLevel level, String... permissions) {
         Object principal = subject.getPrincipal();
         if(principal != null) {
             String administratorsGroup = getAdministratorsGroup(conf);
@@ -311,4 +367,45 @@ public class SecurityLogic {
             return true;
         }
     }
+
+    /**
+     * Key of a memoized permission decision.
+     */
+    protected static class PermissionCheck {
+        protected final Object principal;
+        protected final Permissions configuration;
+        protected final AccessLevel level;
+        protected final List<String> permissions;
+
+        public PermissionCheck(Object principal, Permissions configuration, AccessLevel level, String[] permissions) {
+            this.principal = principal;
+            this.configuration = configuration;
+            this.level = level;
+            this.permissions = Arrays.asList(permissions);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof PermissionCheck)) {
+                return false;
+            }
+            PermissionCheck other = (PermissionCheck) o;
+            return configuration == other.configuration &&
+                   level == other.level &&
+                   (principal == null ? other.principal == null : principal.equals(other.principal)) &&
+                   permissions.equals(other.permissions);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(configuration);
+            result = 31 * result + (principal != null ? principal.hashCode() : 0);
+            result = 31 * result + (level != null ? level.hashCode() : 0);
+            result = 31 * result + permissions.hashCode();
+            return result;
+        }
+    }
 }
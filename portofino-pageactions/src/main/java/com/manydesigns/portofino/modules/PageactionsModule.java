@@ -21,6 +21,7 @@
 package com.manydesigns.portofino.modules;
 
 import com.manydesigns.elements.util.ElementsFileUtils;
+import com.manydesigns.elements.xml.JAXBContextRegistry;
 import com.manydesigns.portofino.PortofinoProperties;
 import com.manydesigns.portofino.cache.CacheResetEvent;
 import com.manydesigns.portofino.cache.CacheResetListener;
@@ -34,6 +35,7 @@ import com.manydesigns.portofino.pageactions.form.TableFormAction;
 import com.manydesigns.portofino.pageactions.registry.PageActionRegistry;
 import com.manydesigns.portofino.pageactions.registry.TemplateRegistry;
 import com.manydesigns.portofino.pageactions.text.TextAction;
+import com.manydesigns.portofino.scripting.ScriptingUtil;
 import com.manydesigns.portofino.shiro.SecurityGroovyRealm;
 import groovy.util.GroovyScriptEngine;
 import net.sf.ehcache.CacheManager;
@@ -147,7 +149,16 @@ public class PageactionsModule implements Module {
         File pagesDirectory = new File(applicationDirectory, "pages");
         logger.info("Pages directory: " + pagesDirectory);
         ElementsFileUtils.ensureDirectoryExistsAndWarnIfNotWritable(pagesDirectory);
+        if(configuration.getBoolean(DispatcherLogic.PAGE_TREE_ENABLED, true)) {
+            logger.info("Watching pages directory for changes");
+            DispatcherLogic.initPageTree(pagesDirectory, groovyClasspath);
+        }
 
+        if(ScriptingUtil.isProductionMode()) {
+            int threads = configuration.getInt(
+                    PortofinoProperties.GROOVY_PRECOMPILE_THREADS, Runtime.getRuntime().availableProcessors());
+            ScriptingUtil.precompile(groovyScriptEngine, threads, groovyClasspath, pagesDirectory);
+        }
         if(configuration.getBoolean(PortofinoProperties.GROOVY_PRELOAD_PAGES, false)) {
             logger.info("Preloading pages");
             preloadPageActions(pagesDirectory);
@@ -214,6 +225,13 @@ public class PageactionsModule implements Module {
 
     @Override
     public void start() {
+        //All page actions have been registered by now, including those of modules initialized after this one
+        if(configuration.getBoolean(DispatcherLogic.CONFIGURATION_PRELOAD_JAXB_CONTEXTS, false)) {
+            logger.info("Preloading JAXB contexts for page configurations");
+            PageActionRegistry pageActionRegistry =
+                    (PageActionRegistry) servletContext.getAttribute(PAGE_ACTIONS_REGISTRY);
+            DispatcherLogic.preloadConfigurationContexts(pageActionRegistry);
+        }
         logger.info("Initializing Shiro environment");
         WebEnvironment environment = environmentLoader.initEnvironment(servletContext);
         RealmSecurityManager rsm = (RealmSecurityManager) environment.getWebSecurityManager();
@@ -241,6 +259,8 @@ public class PageactionsModule implements Module {
 
     @Override
     public void destroy() {
+        logger.info("Stopping page tree watcher...");
+        DispatcherLogic.destroyPageTree();
         logger.info("Destroying Shiro environment...");
         environmentLoader.destroyEnvironment(servletContext);
         logger.info("Shutting down cache...");
@@ -257,6 +277,7 @@ public class PageactionsModule implements Module {
         @Override
         public void handleReset(CacheResetEvent e) {
             DispatcherLogic.clearConfigurationCache();
+            JAXBContextRegistry.clear();
         }
     }
 }
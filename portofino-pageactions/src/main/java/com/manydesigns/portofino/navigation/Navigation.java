@@ -33,7 +33,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /*
@@ -91,13 +90,6 @@ public class Navigation {
         rootNavigationItem = new NavigationItem(
                 rootPageInstance.getTitle(), rootPageInstance.getDescription(), prefix,
                 null, true, rootSelected, rootGhost);
-        LinkedList<Page> pages = new LinkedList<Page>();
-        PageInstance[] allInstances = dispatch.getPageInstancePath();
-        for(int i = 0; i <= rootPageIndex; i++) {
-            pages.add(allInstances[i].getPage());
-        }
-        Permissions basePermissions = SecurityLogic.calculateActualPermissions(new Permissions(), pages);
-        pages.clear();
         List<ChildPage> childPages;
         NavigationItem currentNavigationItem = rootNavigationItem;
         for (int i = 0, pageInstancesLength = pageInstances.length; i < pageInstancesLength; i++) {
@@ -123,6 +115,11 @@ public class Navigation {
                 prefix += param + "/";
             }
             currentNavigationItem = null;
+            //Children only add their own permissions to those of the current page, which are computed once
+            Permissions currentPermissions = null;
+            if (!skipPermissions) {
+                currentPermissions = SecurityLogic.calculateActualPermissions(current);
+            }
             for (ChildPage childPage : childPages) {
                 File pageDir = current.getChildPageDirectory(childPage.getName());
                 Page page;
@@ -146,15 +143,13 @@ public class Navigation {
                         parameters = next.getParameters();
                     }
                 }
-                pages.add(page);
                 if (!skipPermissions) {
-                    Permissions permissions = SecurityLogic.calculateActualPermissions(basePermissions, pages);
+                    Permissions permissions =
+                            SecurityLogic.calculateActualPermissions(currentPermissions, pageDir, page);
                     if(!SecurityLogic.hasPermissions(configuration, permissions, subject, AccessLevel.VIEW)) {
-                        pages.removeLast();
                         continue;
                     }
                 }
-                pages.removeLast();
                 if(!childPage.isShowInNavigation() && !inPath) {
                     continue;
                 }
@@ -173,10 +168,6 @@ public class Navigation {
                                 next.getTitle(), next.getDescription(), path, next.getParameters(), true, selected, false);
                 currentChildNavigationItems.add(currentNavigationItem);
             }
-
-            if(next != null) {
-                pages.add(next.getPage());
-            }
         }
     }
 
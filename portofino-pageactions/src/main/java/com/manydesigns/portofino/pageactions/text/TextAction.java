@@ -41,6 +41,7 @@ import com.manydesigns.portofino.pages.Page;
 import com.manydesigns.portofino.security.AccessLevel;
 import com.manydesigns.portofino.security.RequiresPermissions;
 import com.manydesigns.portofino.security.SupportsPermissions;
+import com.manydesigns.portofino.stripes.DownloadResolution;
 import net.sourceforge.stripes.action.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -52,7 +53,6 @@ import org.apache.shiro.authz.annotation.RequiresAuthentication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.GET;
 import javax.ws.rs.Produces;
@@ -505,28 +505,20 @@ public class TextAction extends AbstractPageAction {
             String attachmentId = attachment.getId();
             final File file = RandomUtil.getCodeFile(
                     pageInstance.getDirectory(), ATTACHMENT_FILE_NAME_PATTERN, attachmentId);
+            if(!file.isFile()) {
+                throw new FileNotFoundException(file.getAbsolutePath());
+            }
 
             //Cache
             HttpServletResponse response = context.getResponse();
             ServletUtils.markCacheableForever(response);
 
-            //Suggerisce al browser di usare la risorsa che ha in cache invece di riscaricarla - serve ancora?
-            HttpServletRequest request = context.getRequest();
-            if(request.getHeader("If-Modified-Since") != null) {
-                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
-                if(ifModifiedSince >= file.lastModified()) {
-                    return new ErrorResolution(304); //Not modified
-                }
-            }
-
-            InputStream is = new FileInputStream(file);
-            StreamingResolution resolution =
-                    new StreamingResolution(attachment.getContentType(), is)
-                            .setLength(attachment.getSize())
-                            .setFilename(attachment.getFilename())
-                            .setAttachment(isAttachment)
-                            .setLastModified(file.lastModified());
-            return resolution;
+            //Conditional and range requests are handled by the resolution
+            return new DownloadResolution(attachment.getContentType(), file)
+                    .setFilename(attachment.getFilename())
+                    .setAttachment(isAttachment)
+                    .setLastModified(file.lastModified())
+                    .setETag(attachmentId + "-" + file.length() + "-" + file.lastModified());
         } catch (IOException e) {
             logger.error("Download failed", e);
             return new ErrorResolution(500, "Attachment error");
@@ -22,6 +22,7 @@ package com.manydesigns.portofino.shiro;
 
 import com.manydesigns.elements.reflection.ClassAccessor;
 import com.manydesigns.portofino.di.Injections;
+import com.manydesigns.portofino.scripting.ScriptingUtil;
 import groovy.util.GroovyScriptEngine;
 import groovy.util.ResourceException;
 import groovy.util.ScriptException;
@@ -100,7 +101,7 @@ public class SecurityGroovyRealm implements PortofinoRealm, Destroyable {
 
     private PortofinoRealm doEnsureDelegate()
             throws ScriptException, ResourceException, IllegalAccessException, InstantiationException {
-        Class<?> scriptClass = groovyScriptEngine.loadScriptByName(scriptUrl);
+        Class<?> scriptClass = ScriptingUtil.loadClass(groovyScriptEngine, scriptUrl);
         if(scriptClass.isInstance(security)) { //Class did not change
             return security;
         } else {
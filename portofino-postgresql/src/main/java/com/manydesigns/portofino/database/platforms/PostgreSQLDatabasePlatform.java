@@ -22,12 +22,14 @@ package com.manydesigns.portofino.database.platforms;
 
 import com.manydesigns.portofino.model.database.Column;
 import com.manydesigns.portofino.model.database.ConnectionProvider;
+import com.manydesigns.portofino.model.database.Table;
 import com.manydesigns.portofino.model.database.platforms.AbstractDatabasePlatform;
 import com.manydesigns.portofino.persistence.hibernate.ColumnParameterType;
 import org.hibernate.dialect.PostgreSQL82Dialect;
 import org.hibernate.usertype.DynamicParameterizedType;
 
 import java.sql.DatabaseMetaData;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.List;
@@ -101,4 +103,17 @@ public class PostgreSQLDatabasePlatform extends AbstractDatabasePlatform {
         }
         return schemaNames;
     }
+
+    @Override
+    public Long estimateRowCount(Connection connection, Table table) throws SQLException {
+        return queryRowCountEstimate(connection,
+                "select c.reltuples from pg_class c join pg_namespace n on n.oid = c.relnamespace " +
+                "where n.nspname = ? and c.relname = ?",
+                table.getSchemaName(), table.getTableName());
+    }
+
+    @Override
+    public String getValidationQuery() {
+        return "select 1";
+    }
 }